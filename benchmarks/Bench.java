@@ -0,0 +1,294 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * 出力・探索処理のベンチマーク。
+ *
+ * 使い方:
+ *   gradlew bench -PbenchArgs="[オプション] [ベンチマーク名の一部 ...]"
+ *
+ * オプション:
+ *   --classes N      - 合成データのクラス数（省略時は 20000）
+ *   --methods N      - 1クラスあたりのメソッド数（省略時は 10）
+ *   --calls N        - 1メソッドあたりの呼び出し数・1クラスあたりの依存先数（省略時は 5）
+ *   --warmup N       - ウォームアップの回数（省略時は 3）
+ *   --iterations N   - 計測の回数（省略時は 5）
+ *   --time-ms N      - 1回あたりの計測時間（省略時は 1000）
+ *   --out FILE       - 結果の JSON を書き出すファイル（省略時は build/bench/results.json）
+ *   --baseline FILE  - 以前の結果の JSON。スループットが許容範囲を超えて下がった項目を退行として報告する
+ *   --tolerance R    - 退行とみなすスループットの低下率（省略時は 0.10）
+ *
+ * API から取り込む処理（snapshot.build など）は、Understand.jar の代わりにテスト用の API
+ * （tests/com/scitools/understand）とメモリ上のデータベース（{@link SyntheticData#database()}）で計測する。
+ * 各ベンチマークは1回の計測時間のあいだ処理を繰り返し、1秒あたりの実行回数と、
+ * 1回あたりの割り当てバイト数（スレッドの割り当て量から算出）を求める。
+ * 退行があった場合は終了コード 2 で終了する。
+ */
+public class Bench {
+
+    /** ベンチマーク対象の処理（結果を使わない最適化を防ぐため、何らかの値を返す） */
+    interface Task {
+        long run() throws Exception;
+    }
+
+    private static final Set<String> VALUE_OPTIONS = Set.of("--classes", "--methods", "--calls",
+        "--warmup", "--iterations", "--time-ms", "--out", "--baseline", "--tolerance");
+
+    // 最適化で処理が消えないよう、戻り値をここに集める
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (VALUE_OPTIONS.contains(args[i]) && i + 1 < args.length) {
+                options.put(args[i], args[++i]);
+            } else {
+                filters.add(args[i]);
+            }
+        }
+        SyntheticData data = new SyntheticData(
+            Integer.parseInt(options.getOrDefault("--classes", "20000")),
+            Integer.parseInt(options.getOrDefault("--methods", "10")),
+            Integer.parseInt(options.getOrDefault("--calls", "5")),
+            42);
+        int warmup = Integer.parseInt(options.getOrDefault("--warmup", "3"));
+        int iterations = Integer.parseInt(options.getOrDefault("--iterations", "5"));
+        long timeMs = Long.parseLong(options.getOrDefault("--time-ms", "1000"));
+        File out = new File(options.getOrDefault("--out", "build/bench/results.json"));
+        double tolerance = Double.parseDouble(options.getOrDefault("--tolerance", "0.10"));
+        Map<String, Double> baseline = options.containsKey("--baseline")
+            ? readResults(new File(options.get("--baseline"))) : Collections.emptyMap();
+
+        System.out.println("合成データ: " + data);
+        Map<String, Task> tasks = tasks(data);
+
+        List<String> json = new ArrayList<>();
+        int regressions = 0;
+        System.out.printf("%-22s %12s %10s %14s %10s %8s%n", "ベンチマーク", "ops/s", "誤差", "B/op", "MB/s", "基準比");
+        for (Map.Entry<String, Task> entry : tasks.entrySet()) {
+            String name = entry.getKey();
+            if (!filters.isEmpty() && filters.stream().noneMatch(name::contains)) {
+                continue;
+            }
+            Result r = measure(entry.getValue(), warmup, iterations, timeMs);
+            Double base = baseline.get(name);
+            String ratio = "";
+            if (base != null) {
+                double change = r.opsPerSec / base;
+                ratio = String.format("%.2f", change);
+                if (change < 1 - tolerance) {
+                    ratio += " 退行";
+                    regressions++;
+                }
+            }
+            System.out.printf("%-22s %12.2f %10.2f %14.0f %10.1f %8s%n",
+                name, r.opsPerSec, r.error, r.bytesPerOp, r.bytesPerOp * r.opsPerSec / 1e6, ratio);
+            json.add(String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"params\": \"%s\", \"opsPerSec\": %.4f, \"error\": %.4f, \"bytesPerOp\": %.1f}",
+                name, data, r.opsPerSec, r.error, r.bytesPerOp));
+        }
+
+        if (out.getParentFile() != null) {
+            out.getParentFile().mkdirs();
+        }
+        Files.write(out.toPath(), ("[\n" + String.join(",\n", json) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("結果を出力しました: " + out.getPath());
+        if (regressions > 0) {
+            System.out.println("退行: " + regressions + " 件（許容する低下率 " + (int) (tolerance * 100) + "%）");
+            System.exit(2);
+        }
+    }
+
+    /** ベンチマークの一覧（名前 → 処理）。データの準備は計測に含めない */
+    private static Map<String, Task> tasks(SyntheticData data) throws IOException {
+        CodeSnapshot snapshot = data.snapshot();
+        CodeSnapshot changed = new SyntheticData(data.classes, data.methodsPerClass, data.callsPerMethod,
+            data.seed + 1).snapshot();
+        FakeDatabase db = data.database();
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        Entity[] callees = Query.CALLS.stream(Arrays.asList(db.ents("method ~unknown"))).map(Reference::ent)
+            .toArray(Entity[]::new);
+        CallGraph callGraph = CallGraph.of(snapshot);
+        int[] impactFrom = callGraph.find(SyntheticData.className(0) + "." + SyntheticData.methodName(1));
+        byte[] cached = cacheBytes(snapshot);
+
+        Map<String, Task> tasks = new LinkedHashMap<>();
+        // csv-all（旧 exportCallsCsv に相当する calls.csv と、4ファイル全体）
+        tasks.put("csv-all.calls", () -> {
+            CountingChannel channel = new CountingChannel();
+            try (CsvWriter w = new CsvWriter(channel, StandardCharsets.UTF_8, false)) {
+                snapshot.writeCalls(w);
+            }
+            return channel.bytes;
+        });
+        // csv-all --aggregate の calls.csv（集約も計測に含める）
+        tasks.put("csv-all.calls.aggregate", () -> {
+            CountingChannel channel = new CountingChannel();
+            try (CsvWriter w = new CsvWriter(channel, StandardCharsets.UTF_8, false)) {
+                snapshot.writeCalls(w, snapshot.aggregateCalls());
+            }
+            return channel.bytes;
+        });
+        tasks.put("csv-all.write", () -> {
+            CountingChannel channel = new CountingChannel();
+            try (CsvWriter w = new CsvWriter(channel, StandardCharsets.UTF_8, false)) {
+                snapshot.writeClasses(w);
+                snapshot.writeMethods(w);
+                snapshot.writeCalls(w);
+                snapshot.writeCalledBy(w);
+            }
+            return channel.bytes;
+        });
+        tasks.put("csv-all.columnar", () -> {
+            CountingChannel channel = new CountingChannel();
+            try (ColumnarFile.Writer w = new ColumnarFile.Writer(channel)) {
+                snapshot.writeColumns(w);
+            }
+            return channel.bytes;
+        });
+        // csv-all の取り込み（クラス一覧の走査・メソッド定義・呼び出し関係と所属クラスの逆引き）
+        tasks.put("snapshot.build", () -> CodeSnapshot.build(classes).callCount());
+        // 所属クラスの逆引き（旧 getOwnerClassName）。事前登録せず、呼び出し先ごとに最初の1回は
+        // definein の逆引き、2回目以降はキャッシュから引く
+        tasks.put("owner.resolve", () -> {
+            OwnerResolver owners = new OwnerResolver();
+            long total = 0;
+            for (Entity callee : callees) {
+                total += owners.ownerOf(callee.id(), callee).length();
+            }
+            return total + owners.misses();
+        });
+        // class-cycles / layers のグラフ作成（depends() の取り込み）と循環検出・レイヤー分け
+        tasks.put("class-deps.graph", () -> {
+            ClassGraph graph = ClassGraph.capture(classes);
+            return graph.componentCount() + graph.layers().length;
+        });
+        // 合成した依存先から作ったグラフの循環検出・レイヤー分け（API の呼び出しを含まない）
+        tasks.put("class-deps.layers", () -> {
+            ClassGraph graph = data.classGraph();
+            return graph.componentCount() + graph.layers().length;
+        });
+        // CodeExplorer の名前検索（完全修飾名の完全一致 1000 件と glob 1 件）。索引は最初の1回だけ作る
+        tasks.put("explorer.lookup", () -> {
+            long total = 0;
+            for (int i = 0; i < 1000; i++) {
+                String name = SyntheticData.className(i % data.classes) + "."
+                    + SyntheticData.methodName(i % data.methodsPerClass);
+                total += CodeExplorer.find(db, "method", name).size();
+            }
+            return total + CodeExplorer.find(db, "method", "p1.C1*.get").size();
+        });
+        tasks.put("call-graph.build", () -> CallGraph.of(snapshot).nodeCount());
+        tasks.put("call-graph.impact", () -> callGraph.traverse(impactFrom, true, CallGraph.UNLIMITED).size());
+        tasks.put("cache.write", () -> cacheBytes(snapshot).length);
+        tasks.put("cache.read", () -> {
+            SnapshotCache.Input in = new SnapshotCache.Input(ByteBuffer.wrap(cached));
+            return CodeSnapshot.read(in).callCount();
+        });
+        tasks.put("csv-diff", () -> {
+            SnapshotDiff diff = new SnapshotDiff(snapshot, changed);
+            return diff.stats().length();
+        });
+        return tasks;
+    }
+
+    /** キャッシュファイルの CodeSnapshot セクションと同じ内容のバイト列 */
+    private static byte[] cacheBytes(CodeSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SnapshotCache.Output out = new SnapshotCache.Output(new DataOutputStream(bytes));
+        snapshot.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** 計測結果 */
+    private static final class Result {
+        double opsPerSec;
+        double error;
+        double bytesPerOp;
+    }
+
+    private static Result measure(Task task, int warmup, int iterations, long timeMs) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            iteration(task, timeMs);
+        }
+        double[] ops = new double[iterations];
+        double bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            double[] r = iteration(task, timeMs);
+            ops[i] = r[0];
+            bytes += r[1];
+        }
+        Result result = new Result();
+        double mean = Arrays.stream(ops).average().orElse(0);
+        double variance = 0;
+        for (double v : ops) {
+            variance += (v - mean) * (v - mean);
+        }
+        result.opsPerSec = mean;
+        result.error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        result.bytesPerOp = bytes / iterations;
+        return result;
+    }
+
+    /** 1回分の計測。{1秒あたりの実行回数, 1回あたりの割り当てバイト数} を返す */
+    private static double[] iteration(Task task, long timeMs) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long deadline = start + timeMs * 1_000_000;
+        long count = 0;
+        long now;
+        do {
+            sink += task.run();
+            count++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        return new double[] { count * 1e9 / (now - start), (double) allocated / count };
+    }
+
+    /** 以前の結果の JSON から、ベンチマーク名 → ops/s を読み込む */
+    private static Map<String, Double> readResults(File file) throws IOException {
+        Pattern pattern = Pattern.compile("\"benchmark\": \"([^\"]+)\".*\"opsPerSec\": ([0-9.Ee+-]+)");
+        Map<String, Double> results = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            Matcher m = pattern.matcher(line);
+            if (m.find()) {
+                results.put(m.group(1), Double.parseDouble(m.group(2)));
+            }
+        }
+        return results;
+    }
+
+    /** 書き込まれたバイト数だけを数えるチャネル */
+    private static final class CountingChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            bytes += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.*;
+
+/**
+ * ベンチマーク用の合成データ。
+ *
+ * Understand.jar やライセンスなしで実行できるように、UDB を開かずにスナップショットと
+ * 依存関係表を直接組み立てる。API から取り込む処理は、同じ形のメモリ上のデータベース
+ * （テスト用の {@link FakeDatabase}）で計測する。乱数の種を固定しているため、同じ件数を
+ * 指定すれば毎回同じデータになる。
+ */
+final class SyntheticData {
+
+    /** 呼び出し先のうちプロジェクト外のメソッド（java.util.List.add など）の割合 */
+    private static final double EXTERNAL_CALL_RATE = 0.1;
+    private static final String[] TYPES = { "void", "int", "String", "Map<K,V>", null };
+
+    final int classes;
+    final int methodsPerClass;
+    final int callsPerMethod;
+    final long seed;
+
+    SyntheticData(int classes, int methodsPerClass, int callsPerMethod, long seed) {
+        this.classes = classes;
+        this.methodsPerClass = methodsPerClass;
+        this.callsPerMethod = callsPerMethod;
+        this.seed = seed;
+    }
+
+    static String className(int c) {
+        return "p" + (c % 16) + ".C" + c;
+    }
+
+    static String fileName(int c) {
+        return "C" + c + ".java";
+    }
+
+    static String methodName(int m) {
+        return m == 0 ? "get" : "m" + m;
+    }
+
+    /** クラス・メソッド・calls・callby を持つスナップショット */
+    CodeSnapshot snapshot() {
+        Random random = new Random(seed);
+        CodeSnapshot s = new CodeSnapshot();
+        int kind = s.intern("Java Class");
+        int uid = 1;
+        for (int c = 0; c < classes; c++) {
+            int name = s.intern(className(c));
+            int file = s.intern(fileName(c));
+            int row = s.addClass(name, kind, file, 1);
+            for (int m = 0; m < methodsPerClass; m++) {
+                int ent = s.addEntity(uid++, s.intern(methodName(m)), name,
+                    s.intern(className(c) + "." + methodName(m)), CodeSnapshot.NULL_STRING);
+                s.addMethod(row, ent, s.intern(TYPES[m % TYPES.length]), file, 10 + m * 10);
+            }
+        }
+        int external = s.addEntity(uid, s.intern("add"), s.intern("java.util.List"),
+            s.intern("java.util.List.add"), s.intern("Object"));
+        int methods = s.methodCount();
+        for (int row = 0; row < methods; row++) {
+            int file = s.intern(fileName(row / methodsPerClass));
+            for (int k = 0; k < callsPerMethod; k++) {
+                int line = 10 + (row % methodsPerClass) * 10 + k + 1;
+                if (random.nextDouble() < EXTERNAL_CALL_RATE) {
+                    s.addCall(row, external, file, line);
+                    continue;
+                }
+                int callee = random.nextInt(methods);
+                s.addCall(row, s.methodEntity(callee), file, line);
+                s.addCallBy(callee, s.methodEntity(row), file, line);
+            }
+        }
+        return s;
+    }
+
+    /** class-cycles / layers と同じ形のクラス間依存グラフ（依存先は callsPerMethod 件、参照数は 1〜8） */
+    ClassGraph classGraph() {
+        Random random = new Random(seed);
+        StringTable strings = new StringTable();
+        int[] names = new int[classes];
+        int[] start = new int[classes + 1];
+        IntList targets = new IntList();
+        IntList weights = new IntList();
+        for (int c = 0; c < classes; c++) {
+            names[c] = strings.intern(className(c));
+            for (int k = 0; k < callsPerMethod; k++) {
+                int target = random.nextInt(classes);
+                int count = 1 + random.nextInt(8);
+                if (target != c) {
+                    targets.add(target);
+                    weights.add(count);
+                }
+            }
+            start[c + 1] = targets.size();
+        }
+        return new ClassGraph(strings, names, start, targets.toArray(), weights.toArray());
+    }
+
+    /**
+     * {@link #snapshot()} と同じクラス・メソッド・呼び出し関係と、{@link #classGraph()} と同じ形の
+     * クラス間依存（depends）を持つメモリ上のデータベース。呼び出し回数は数えない。
+     */
+    FakeDatabase database() {
+        Random random = new Random(seed);
+        FakeDatabase db = new FakeDatabase("synthetic-" + seed);
+        db.countCalls(false);
+        List<FakeDatabase.FakeEntity> files = new ArrayList<>();
+        List<FakeDatabase.FakeEntity> types = new ArrayList<>();
+        List<FakeDatabase.FakeEntity> methods = new ArrayList<>();
+        for (int c = 0; c < classes; c++) {
+            FakeDatabase.FakeEntity file = db.file("C:/work/src/" + fileName(c));
+            String name = className(c);
+            FakeDatabase.FakeEntity cls = db.entity("C" + c, name, "Java Class Type Public Member", null);
+            db.ref(cls, "Java Definein", file, file, 1, 1);
+            for (int m = 0; m < methodsPerClass; m++) {
+                FakeDatabase.FakeEntity method = db.entity(methodName(m), name + "." + methodName(m),
+                    "Java Method Public Member", TYPES[m % TYPES.length]);
+                db.define(cls, method, file, 10 + m * 10);
+                methods.add(method);
+            }
+            files.add(file);
+            types.add(cls);
+        }
+        FakeDatabase.FakeEntity list = db.entity("List", "java.util.List", "Java Interface Type Public Member Unknown",
+            null);
+        FakeDatabase.FakeEntity external = db.entity("add", "java.util.List.add",
+            "Java Abstract Method Public Member Unknown", "boolean");
+        db.define(list, external, files.get(0), 0);
+        for (int row = 0; row < methods.size(); row++) {
+            FakeDatabase.FakeEntity file = files.get(row / methodsPerClass);
+            for (int k = 0; k < callsPerMethod; k++) {
+                int line = 10 + (row % methodsPerClass) * 10 + k + 1;
+                FakeDatabase.FakeEntity callee = random.nextDouble() < EXTERNAL_CALL_RATE
+                    ? external : methods.get(random.nextInt(methods.size()));
+                db.call(methods.get(row), callee, file, line);
+            }
+        }
+        for (int c = 0; c < classes; c++) {
+            for (int k = 0; k < callsPerMethod; k++) {
+                int target = random.nextInt(classes);
+                int count = 1 + random.nextInt(8);
+                FakeDatabase.FakeReference[] refs = new FakeDatabase.FakeReference[count];
+                for (int r = 0; r < count; r++) {
+                    refs[r] = db.ref(types.get(c), "Java Use", types.get(target), files.get(c), 1 + r, 1);
+                }
+                db.depend(types.get(c), types.get(target), refs);
+            }
+        }
+        return db;
+    }
+
+    @Override
+    public String toString() {
+        return "classes=" + classes + ", methods=" + methodsPerClass + ", calls=" + callsPerMethod;
+    }
+}
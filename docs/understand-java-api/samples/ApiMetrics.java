@@ -0,0 +1,512 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Understand API の呼び出しと処理段階の計測。
+ *
+ * API の呼び出しは {@code ApiMetrics.refs(ent, ...)} のように、このクラスの同名のメソッドを
+ * 経由して行う。{@link #enable()} を呼ぶまでは static フィールドを1つ確認して元のメソッドを
+ * 呼ぶだけで、時刻の取得も集計も行わない。
+ *
+ * 計測を有効にすると、API のメソッドごと・処理段階ごとに呼び出し回数・合計時間と、
+ * 所要時間の分布（ヒストグラム）を記録する。ヒストグラムは HdrHistogram と同じく
+ * 2 のべき乗の区間をさらに 8 等分したバケットで数えるため、記録は配列の1要素の加算で済み、
+ * パーセンタイルの誤差は 12.5% 以内になる。複数のスレッドから同時に記録してもよい。
+ */
+final class ApiMetrics {
+
+    // 計測の有無（ワーカースレッドを起動する前に enable() で設定する）
+    private static boolean enabled;
+
+    private static final Histogram DB_ENTS = new Histogram("Database.ents", false);
+    private static final Histogram REFS = new Histogram("Entity.refs", false);
+    private static final Histogram FILEREFS = new Histogram("Entity.filerefs", false);
+    private static final Histogram DEPENDS = new Histogram("Entity.depends", false);
+    private static final Histogram DEPENDSBY = new Histogram("Entity.dependsby", false);
+    private static final Histogram NAME = new Histogram("Entity.name", false);
+    private static final Histogram LONGNAME = new Histogram("Entity.longname", false);
+    private static final Histogram TYPE = new Histogram("Entity.type", false);
+    private static final Histogram PARAMETERS = new Histogram("Entity.parameters", false);
+    private static final Histogram KIND_NAME = new Histogram("Entity.kind().name", false);
+    private static final Histogram LEXER = new Histogram("Entity.lexer", false);
+    private static final Histogram REF_ENT = new Histogram("Reference.ent", false);
+    private static final Histogram REF_SCOPE = new Histogram("Reference.scope", false);
+    private static final Histogram REF_FILE = new Histogram("Reference.file", false);
+    private static final Histogram REF_LINE = new Histogram("Reference.line", false);
+    private static final Histogram REF_COLUMN = new Histogram("Reference.column", false);
+    private static final Histogram REF_KIND_NAME = new Histogram("Reference.kind().name", false);
+    private static final Histogram LEXER_LEXEME = new Histogram("Lexer.lexeme", false);
+    private static final Histogram LEX_NEXT = new Histogram("Lexeme.next", false);
+    private static final Histogram LEX_PREVIOUS = new Histogram("Lexeme.previous", false);
+    private static final Histogram LEX_TOKEN = new Histogram("Lexeme.token", false);
+    private static final Histogram LEX_TEXT = new Histogram("Lexeme.text", false);
+    private static final Histogram LEX_ENTITY = new Histogram("Lexeme.entity", false);
+    private static final Histogram LEX_REFERENCE = new Histogram("Lexeme.reference", false);
+    private static final Histogram LEX_LINE = new Histogram("Lexeme.lineBegin", false);
+    private static final Histogram LEX_COLUMN = new Histogram("Lexeme.columnBegin", false);
+    private static final Histogram[] API = {
+        DB_ENTS, REFS, FILEREFS, DEPENDS, DEPENDSBY, NAME, LONGNAME, TYPE, PARAMETERS, KIND_NAME, LEXER,
+        REF_ENT, REF_SCOPE, REF_FILE, REF_LINE, REF_COLUMN, REF_KIND_NAME,
+        LEXER_LEXEME, LEX_NEXT, LEX_PREVIOUS, LEX_TOKEN, LEX_TEXT, LEX_ENTITY, LEX_REFERENCE, LEX_LINE, LEX_COLUMN,
+    };
+
+    // 処理段階（開始した順）
+    private static final Map<String, Histogram> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private ApiMetrics() {
+    }
+
+    static void enable() {
+        enabled = true;
+    }
+
+    static boolean enabled() {
+        return enabled;
+    }
+
+    // --- Understand API の呼び出し ---
+
+    static Entity[] ents(Database db, String kinds) {
+        if (!enabled) {
+            return db.ents(kinds);
+        }
+        long start = System.nanoTime();
+        Entity[] result = db.ents(kinds);
+        DB_ENTS.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Reference[] refs(Entity ent, String refkinds, String entkinds, boolean unique) {
+        if (!enabled) {
+            return ent.refs(refkinds, entkinds, unique);
+        }
+        long start = System.nanoTime();
+        Reference[] result = ent.refs(refkinds, entkinds, unique);
+        REFS.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Reference[] filerefs(Entity file, String refkinds, String entkinds, boolean unique) {
+        if (!enabled) {
+            return file.filerefs(refkinds, entkinds, unique);
+        }
+        long start = System.nanoTime();
+        Reference[] result = file.filerefs(refkinds, entkinds, unique);
+        FILEREFS.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Map<Entity, Reference[]> depends(Entity ent) {
+        if (!enabled) {
+            return ent.depends();
+        }
+        long start = System.nanoTime();
+        Map<Entity, Reference[]> result = ent.depends();
+        DEPENDS.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Map<Entity, Reference[]> dependsby(Entity ent) {
+        if (!enabled) {
+            return ent.dependsby();
+        }
+        long start = System.nanoTime();
+        Map<Entity, Reference[]> result = ent.dependsby();
+        DEPENDSBY.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String name(Entity ent) {
+        if (!enabled) {
+            return ent.name();
+        }
+        long start = System.nanoTime();
+        String result = ent.name();
+        NAME.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String longname(Entity ent) {
+        if (!enabled) {
+            return ent.longname();
+        }
+        long start = System.nanoTime();
+        String result = ent.longname();
+        LONGNAME.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String type(Entity ent) {
+        if (!enabled) {
+            return ent.type();
+        }
+        long start = System.nanoTime();
+        String result = ent.type();
+        TYPE.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String parameters(Entity ent) {
+        if (!enabled) {
+            return ent.parameters();
+        }
+        long start = System.nanoTime();
+        String result = ent.parameters();
+        PARAMETERS.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String kindName(Entity ent) {
+        if (!enabled) {
+            return ent.kind().name();
+        }
+        long start = System.nanoTime();
+        String result = ent.kind().name();
+        KIND_NAME.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /** file.lexer(lookupEnts, false, false)（無効なコード・マクロの展開は含めない） */
+    static Lexer lexer(Entity file, boolean lookupEnts) throws UnderstandException {
+        if (!enabled) {
+            return file.lexer(lookupEnts, false, false);
+        }
+        long start = System.nanoTime();
+        Lexer result = file.lexer(lookupEnts, false, false);
+        LEXER.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Entity ent(Reference ref) {
+        if (!enabled) {
+            return ref.ent();
+        }
+        long start = System.nanoTime();
+        Entity result = ref.ent();
+        REF_ENT.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Entity scope(Reference ref) {
+        if (!enabled) {
+            return ref.scope();
+        }
+        long start = System.nanoTime();
+        Entity result = ref.scope();
+        REF_SCOPE.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Entity file(Reference ref) {
+        if (!enabled) {
+            return ref.file();
+        }
+        long start = System.nanoTime();
+        Entity result = ref.file();
+        REF_FILE.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static int line(Reference ref) {
+        if (!enabled) {
+            return ref.line();
+        }
+        long start = System.nanoTime();
+        int result = ref.line();
+        REF_LINE.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static int column(Reference ref) {
+        if (!enabled) {
+            return ref.column();
+        }
+        long start = System.nanoTime();
+        int result = ref.column();
+        REF_COLUMN.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String kindName(Reference ref) {
+        if (!enabled) {
+            return ref.kind().name();
+        }
+        long start = System.nanoTime();
+        String result = ref.kind().name();
+        REF_KIND_NAME.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Lexeme lexeme(Lexer lexer, int line, int column) {
+        if (!enabled) {
+            return lexer.lexeme(line, column);
+        }
+        long start = System.nanoTime();
+        Lexeme result = lexer.lexeme(line, column);
+        LEXER_LEXEME.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Lexeme next(Lexeme lex) {
+        if (!enabled) {
+            return lex.next();
+        }
+        long start = System.nanoTime();
+        Lexeme result = lex.next();
+        LEX_NEXT.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Lexeme previous(Lexeme lex) {
+        if (!enabled) {
+            return lex.previous();
+        }
+        long start = System.nanoTime();
+        Lexeme result = lex.previous();
+        LEX_PREVIOUS.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String token(Lexeme lex) {
+        if (!enabled) {
+            return lex.token();
+        }
+        long start = System.nanoTime();
+        String result = lex.token();
+        LEX_TOKEN.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static String text(Lexeme lex) {
+        if (!enabled) {
+            return lex.text();
+        }
+        long start = System.nanoTime();
+        String result = lex.text();
+        LEX_TEXT.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Entity entity(Lexeme lex) {
+        if (!enabled) {
+            return lex.entity();
+        }
+        long start = System.nanoTime();
+        Entity result = lex.entity();
+        LEX_ENTITY.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static Reference reference(Lexeme lex) {
+        if (!enabled) {
+            return lex.reference();
+        }
+        long start = System.nanoTime();
+        Reference result = lex.reference();
+        LEX_REFERENCE.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static int lineBegin(Lexeme lex) {
+        if (!enabled) {
+            return lex.lineBegin();
+        }
+        long start = System.nanoTime();
+        int result = lex.lineBegin();
+        LEX_LINE.record(System.nanoTime() - start);
+        return result;
+    }
+
+    static int columnBegin(Lexeme lex) {
+        if (!enabled) {
+            return lex.columnBegin();
+        }
+        long start = System.nanoTime();
+        int result = lex.columnBegin();
+        LEX_COLUMN.record(System.nanoTime() - start);
+        return result;
+    }
+
+    // --- 処理段階 ---
+
+    /** 処理段階として計測する、値を返す処理 */
+    interface Task<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /** 処理段階として計測する、値を返さない処理 */
+    interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    /** task を処理段階 name として実行し、その戻り値を返す（無効な場合は実行するだけ） */
+    static <T, E extends Exception> T phase(String name, Task<T, E> task) throws E {
+        if (!enabled) {
+            return task.call();
+        }
+        Histogram histogram = phases.computeIfAbsent(name, n -> new Histogram(n, true));
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /** action を処理段階 name として実行する（無効な場合は実行するだけ） */
+    static <E extends Exception> void phase(String name, Action<E> action) throws E {
+        phase(name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // --- 集計結果 ---
+
+    /** --metrics / --metrics-json 指定時に計測結果を出力する（計測が無効な場合は何もしない） */
+    static void report(Map<String, String> options) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (options.containsKey("--metrics")) {
+            printSummary(System.err);
+        }
+        if (options.containsKey("--metrics-json")) {
+            File file = new File(options.get("--metrics-json"));
+            writeJson(file);
+            System.err.println("計測結果を出力しました: " + file.getPath());
+        }
+    }
+
+    /** 計測結果の表（処理段階、API の呼び出しを合計時間の長い順） */
+    static void printSummary(PrintStream out) {
+        out.println("=== 計測結果 ===");
+        out.printf("%-24s %10s %12s %10s %10s %10s %10s%n",
+            "項目", "回数", "合計(ms)", "平均(µs)", "p50(µs)", "p99(µs)", "最大(µs)");
+        for (Histogram h : snapshot()) {
+            out.printf("%-24s %10d %12.1f %10.1f %10.1f %10.1f %10.1f%n",
+                h.name, h.count(), h.total() / 1e6, h.total() / 1e3 / h.count(),
+                h.percentile(0.50) / 1e3, h.percentile(0.99) / 1e3, h.max() / 1e3);
+        }
+    }
+
+    /** 計測結果を JSON で書き出す（時間はナノ秒） */
+    static void writeJson(File file) throws IOException {
+        StringJoiner json = new StringJoiner(",\n", "[\n", "\n]\n");
+        for (Histogram h : snapshot()) {
+            json.add(String.format(Locale.ROOT,
+                "  {\"name\": \"%s\", \"type\": \"%s\", \"count\": %d, \"totalNanos\": %d, "
+                    + "\"p50Nanos\": %d, \"p90Nanos\": %d, \"p99Nanos\": %d, \"maxNanos\": %d}",
+                h.name, h.phase ? "phase" : "api", h.count(), h.total(),
+                h.percentile(0.50), h.percentile(0.90), h.percentile(0.99), h.max()));
+        }
+        Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 記録のある項目（処理段階は開始順、API は合計時間の長い順）。
+     * 実行中でまだ記録のない処理段階（report() を呼んだ処理段階など）は含めない。
+     */
+    private static List<Histogram> snapshot() {
+        List<Histogram> result = new ArrayList<>();
+        synchronized (phases) {
+            for (Histogram h : phases.values()) {
+                if (h.count() > 0) {
+                    result.add(h);
+                }
+            }
+        }
+        List<Histogram> api = new ArrayList<>();
+        for (Histogram h : API) {
+            if (h.count() > 0) {
+                api.add(h);
+            }
+        }
+        api.sort(Comparator.comparingLong(Histogram::total).reversed());
+        result.addAll(api);
+        return result;
+    }
+
+    /** 所要時間（ナノ秒）のヒストグラム */
+    static final class Histogram {
+        // 0〜15 はそのまま、16 以上は 2 のべき乗の区間を 8 等分する
+        private static final int LINEAR = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = LINEAR + (Long.SIZE - 4) * SUB_BUCKETS;
+
+        final String name;
+        final boolean phase;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, boolean phase) {
+            this.name = name;
+            this.phase = phase;
+        }
+
+        void record(long nanos) {
+            buckets.incrementAndGet(bucket(nanos));
+            total.add(nanos);
+            if (nanos > max.get()) {
+                max.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        static int bucket(long value) {
+            if (value < LINEAR) {
+                return (int) Math.max(0, value);
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        /** バケットの下限 */
+        static long lowerBound(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + sub) << (exponent - 3);
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        long total() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /** q（0〜1）のパーセンタイル（該当バケットの中央の値。最大値を超えない） */
+        long percentile(double q) {
+            long count = count();
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    long low = lowerBound(i);
+                    long high = i + 1 < BUCKETS ? lowerBound(i + 1) : low;
+                    return Math.min(max(), (low + high) / 2);
+                }
+            }
+            return max();
+        }
+    }
+}
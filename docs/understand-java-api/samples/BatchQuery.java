@@ -0,0 +1,279 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * CodeExplorer の batch コマンド。methods / calls / refs の問い合わせをまとめて実行する。
+ *
+ * 入力は1行に1件の "コマンド 対象名"（空行と "#" で始まる行は読み飛ばす）。
+ * 対象名は同じ名前索引で検索し、同じ対象名の検索と同じエンティティの参照の取得は
+ * 1回だけ行う（直近に使った {@value #MAX_CACHED} 件まで保持する）。結果は入力の順に
+ * 1件ずつ書き出し、{@value #FLUSH_INTERVAL} 件ごとと、次の問い合わせの入力を待つ前に
+ * 出力先へ書き出す。出力の文字コードは、入力と同じく jsonl / csv とも UTF-8。
+ *
+ * <pre>
+ *   jsonl : 問い合わせ1件につき1行
+ *           {"command":"calls","query":"findById","entities":[{"entity":"...","refs":[
+ *             {"kind":"Java Call","entity":"...","file":"...","line":12,"column":8}]}]}
+ *   csv   : 参照1件につき1行（参照がないエンティティは関連エンティティ以降を空にした1行、
+ *           見つからない対象名は出力しない）
+ * </pre>
+ */
+final class BatchQuery {
+
+    static final String[] CSV_HEADER = { "コマンド", "対象名", "エンティティ", "参照種別", "関連エンティティ", "ファイル名", "行", "列" };
+
+    /** 検索結果・参照の取得結果を保持する最大件数（それぞれ。最も長く使われていないものから破棄する） */
+    static final int MAX_CACHED = 10_000;
+    /** 出力先へ書き出す間隔（問い合わせの件数） */
+    static final int FLUSH_INTERVAL = 100;
+
+    /** コマンド → 対象名を検索するエンティティ種別 */
+    private static final Map<String, String> KINDS = Map.of("methods", "class", "calls", "method", "refs", "variable");
+
+    /** エンティティの参照1件（参照種別, 関連エンティティ, ファイル名, 行, 列） */
+    private static final class Ref {
+        final String kind;
+        final String entity;
+        final String file;
+        final int line;
+        final int column;
+
+        Ref(Reference ref, Entity related) {
+            this.kind = ref.kind().name();
+            this.entity = related != null ? related.longname() : null;
+            this.file = ref.file().name();
+            this.line = ref.line();
+            this.column = ref.column();
+        }
+    }
+
+    private final BiFunction<String, String, List<Entity>> finder;
+    // "コマンド 対象名" → 一致したエンティティ
+    private final Map<String, List<Entity>> resolved = lru(MAX_CACHED);
+    // "コマンド:エンティティID" → 参照
+    private final Map<String, List<Ref>> fetched = lru(MAX_CACHED);
+    private int queries;
+    private int lookups;
+    private int fetches;
+    private int missing;
+
+    /** finder は (エンティティ種別, 対象名) から一致するエンティティを返す */
+    BatchQuery(BiFunction<String, String, List<Entity>> finder) {
+        this.finder = finder;
+    }
+
+    /** 最大 maxEntries 件を保持し、最も長く使われていないものから破棄する表 */
+    private static <V> Map<String, V> lru(int maxEntries) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** in の問い合わせを順に実行し、format（jsonl / csv）で out に書き出す */
+    void run(BufferedReader in, OutputStream out, String format) throws IOException {
+        Output output;
+        if ("jsonl".equals(format)) {
+            output = new JsonlOutput(out);
+        } else if ("csv".equals(format)) {
+            output = new CsvOutput(out);
+        } else {
+            throw new IllegalArgumentException("不明な出力形式: " + format);
+        }
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+", 2);
+            String kinds = KINDS.get(words[0]);
+            if (kinds == null || words.length < 2) {
+                System.err.println("警告: " + lineNo + "行目を読み飛ばしました: " + line);
+                continue;
+            }
+            String command = words[0];
+            String name = words[1].trim();
+            List<Entity> entities = resolved.computeIfAbsent(command + " " + name, k -> {
+                lookups++;
+                return finder.apply(kinds, name);
+            });
+            List<List<Ref>> refs = new ArrayList<>(entities.size());
+            for (Entity ent : entities) {
+                refs.add(fetched.computeIfAbsent(command + ":" + ent.id(), k -> {
+                    fetches++;
+                    return fetch(command, ent);
+                }));
+            }
+            output.result(command, name, entities, refs);
+            queries++;
+            if (entities.isEmpty()) {
+                missing++;
+            }
+            // 標準入力から対話的に送られる場合も、入力を待つ前に結果を受け取れるようにする
+            if (queries % FLUSH_INTERVAL == 0 || !in.ready()) {
+                output.flush();
+            }
+        }
+        output.flush();
+    }
+
+    /** 件数を1行で返す */
+    String stats() {
+        return String.format("問い合わせ: %d 件（対象名の検索 %d 回、参照を取得したエンティティ %d 件、見つからない対象 %d 件）",
+            queries, lookups, fetches, missing);
+    }
+
+    /** コマンドごとの参照を取得する（CodeExplorer の各コマンドと同じ条件） */
+    private static List<Ref> fetch(String command, Entity ent) {
+        List<Ref> refs = new ArrayList<>();
+        switch (command) {
+            case "methods":
+                Query.METHODS.forEach(ent, ref -> refs.add(new Ref(ref, ref.ent())));
+                break;
+            case "calls":
+                Query.CALLS.forEach(ent, ref -> refs.add(new Ref(ref, ref.ent())));
+                Query.CALLED_BY.forEach(ent, ref -> refs.add(new Ref(ref, ref.ent())));
+                break;
+            case "refs":
+                Query.ALL.forEach(ent, ref -> refs.add(new Ref(ref, ref.scope())));
+                break;
+            default:
+                throw new IllegalArgumentException(command);
+        }
+        return refs;
+    }
+
+    private interface Output {
+        void result(String command, String query, List<Entity> entities, List<List<Ref>> refs) throws IOException;
+
+        /** バッファに残っている内容を書き出す（out は閉じない） */
+        void flush() throws IOException;
+    }
+
+    private static final class JsonlOutput implements Output {
+        private final Writer out;
+        private final StringBuilder line = new StringBuilder();
+
+        JsonlOutput(OutputStream out) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        public void result(String command, String query, List<Entity> entities, List<List<Ref>> refs)
+                throws IOException {
+            line.setLength(0);
+            line.append("{\"command\":");
+            quote(command);
+            line.append(",\"query\":");
+            quote(query);
+            line.append(",\"entities\":[");
+            for (int i = 0; i < entities.size(); i++) {
+                line.append(i > 0 ? ",{\"entity\":" : "{\"entity\":");
+                quote(entities.get(i).longname());
+                line.append(",\"refs\":[");
+                List<Ref> list = refs.get(i);
+                for (int j = 0; j < list.size(); j++) {
+                    Ref ref = list.get(j);
+                    line.append(j > 0 ? ",{\"kind\":" : "{\"kind\":");
+                    quote(ref.kind);
+                    line.append(",\"entity\":");
+                    quote(ref.entity);
+                    line.append(",\"file\":");
+                    quote(ref.file);
+                    line.append(",\"line\":").append(ref.line);
+                    line.append(",\"column\":").append(ref.column).append('}');
+                }
+                line.append("]}");
+            }
+            line.append("]}\n");
+            out.append(line);
+        }
+
+        /** JSON の文字列として追記する（null は null） */
+        private void quote(String s) {
+            if (s == null) {
+                line.append("null");
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':
+                        line.append("\\\"");
+                        break;
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            line.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            line.append(c);
+                        }
+                }
+            }
+            line.append('"');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static final class CsvOutput implements Output {
+        private final CsvWriter w;
+
+        CsvOutput(OutputStream out) throws IOException {
+            w = new CsvWriter(Channels.newChannel(out), StandardCharsets.UTF_8, false);
+            w.row(CSV_HEADER);
+        }
+
+        @Override
+        public void result(String command, String query, List<Entity> entities, List<List<Ref>> refs)
+                throws IOException {
+            for (int i = 0; i < entities.size(); i++) {
+                String entity = entities.get(i).longname();
+                List<Ref> list = refs.get(i);
+                if (list.isEmpty()) {
+                    w.row(command, query, entity, null, null, null, null, null);
+                }
+                for (Ref ref : list) {
+                    w.field(command)
+                        .field(query)
+                        .field(entity)
+                        .field(ref.kind)
+                        .field(ref.entity)
+                        .field(ref.file)
+                        .field(ref.line)
+                        .field(ref.column)
+                        .endRow();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            w.flush();
+        }
+    }
+}
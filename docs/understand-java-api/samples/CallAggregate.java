@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * 呼び出し関係の集約（csv-all --aggregate）。
+ *
+ * calls / callby の行を (メソッド行, 相手のメソッド) の組ごとに1行にまとめ、呼び出し回数・
+ * 最初と最後の呼び出し行・呼び出し行の一覧を持たせる。組は2つの int を1つの long に詰めて
+ * {@link LongIntHashMap} で引くため、Entity や Integer をキーにしたマップは使わない。
+ * 組の順序は元の表で最初に現れた順。
+ *
+ * <pre>
+ *   組      : メソッド行, 相手(エンティティ表), ファイル(最初の行のもの), 回数, 最初の行, 最後の行
+ *   行番号  : 組ごとに昇順に並べた呼び出し行（lineFrom(g) 〜 lineTo(g)）
+ * </pre>
+ */
+final class CallAggregate {
+
+    private final int rows;
+    private final IntList method = new IntList();
+    private final IntList ent = new IntList();
+    private final IntList file = new IntList();
+    private final IntList count = new IntList();
+    private final IntList first = new IntList();
+    private final IntList last = new IntList();
+    // 組ごとの呼び出し行（lineStart[g] 〜 lineStart[g + 1]）
+    private final int[] lineStart;
+    private final int[] lines;
+
+    /** 同じ長さの列（メソッド行, 相手, ファイル, 行）から集約する */
+    CallAggregate(int[] methods, int[] ents, int[] files, int[] lineNos) {
+        rows = methods.length;
+        LongIntHashMap index = new LongIntHashMap(Math.max(16, rows / 4));
+        int[] group = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            long key = (long) methods[i] << 32 | (ents[i] & 0xFFFFFFFFL);
+            int g = index.get(key, -1);
+            if (g < 0) {
+                g = method.add(methods[i]);
+                ent.add(ents[i]);
+                file.add(files[i]);
+                count.add(0);
+                first.add(lineNos[i]);
+                last.add(lineNos[i]);
+                index.put(key, g);
+            }
+            group[i] = g;
+            count.set(g, count.get(g) + 1);
+            first.set(g, Math.min(first.get(g), lineNos[i]));
+            last.set(g, Math.max(last.get(g), lineNos[i]));
+        }
+
+        // 組ごとの件数から位置を決め、行番号を組の順に並べる
+        lineStart = new int[size() + 1];
+        for (int g = 0; g < size(); g++) {
+            lineStart[g + 1] = lineStart[g] + count.get(g);
+        }
+        lines = new int[rows];
+        int[] next = Arrays.copyOf(lineStart, size());
+        for (int i = 0; i < rows; i++) {
+            lines[next[group[i]]++] = lineNos[i];
+        }
+        for (int g = 0; g < size(); g++) {
+            Arrays.sort(lines, lineStart[g], lineStart[g + 1]);
+        }
+    }
+
+    /** 集約後の行数 */
+    int size() {
+        return method.size();
+    }
+
+    /** 集約前の行数 */
+    int rowCount() {
+        return rows;
+    }
+
+    int method(int g) {
+        return method.get(g);
+    }
+
+    int ent(int g) {
+        return ent.get(g);
+    }
+
+    int file(int g) {
+        return file.get(g);
+    }
+
+    int count(int g) {
+        return count.get(g);
+    }
+
+    int firstLine(int g) {
+        return first.get(g);
+    }
+
+    int lastLine(int g) {
+        return last.get(g);
+    }
+
+    /** 呼び出し行の一覧（重複を除いた昇順を ";" で区切る。例: "12;15;30"） */
+    String lineList(int g) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = lineStart[g]; i < lineStart[g + 1]; i++) {
+            if (i > lineStart[g] && lines[i] == lines[i - 1]) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(lines[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.*;
+
+/**
+ * メソッド呼び出しグラフ。
+ *
+ * {@link CodeSnapshot} の calls / callby の行から「呼び出し元 → 呼び出し先」の辺を集め、
+ * CSR 形式（隣接先を1本の int 配列に並べ、ノードごとの開始位置を別の配列に持つ形式）で
+ * 順方向・逆方向の2つの隣接リストを作る。ノードはスナップショットのエンティティ表の位置。
+ * 同じ辺が calls と callby の両方に現れても1本にまとめる。
+ *
+ * 探索は幅優先で、訪問済みを {@link BitSet} で管理するため循環があっても各ノードを
+ * 1回しか訪問しない。到達したノードごとに直前のノードを記録し、経路を復元できる。
+ */
+final class CallGraph {
+
+    /** 深さの上限なし */
+    static final int UNLIMITED = 0;
+
+    private final CodeSnapshot snapshot;
+    private final String[] owners;
+    // 順方向（呼び出し先）: calleeStart[n] から calleeStart[n + 1] の範囲が callees の中の位置
+    private final int[] calleeStart;
+    private final int[] callees;
+    // 逆方向（呼び出し元）
+    private final int[] callerStart;
+    private final int[] callers;
+
+    private CallGraph(CodeSnapshot snapshot) {
+        this.snapshot = snapshot;
+        int nodes = snapshot.entityCount();
+
+        // 所属クラス名: 定義側のメソッドはクラス行から、それ以外は逆引きの結果から
+        owners = new String[nodes];
+        for (int row = 0; row < snapshot.methodCount(); row++) {
+            owners[snapshot.methodEntity(row)] = snapshot.methodClassName(row);
+        }
+        for (int n = 0; n < nodes; n++) {
+            if (owners[n] == null) {
+                owners[n] = snapshot.entityOwner(n);
+            }
+        }
+
+        int edges = snapshot.callCount() + snapshot.callByCount();
+        int[] from = new int[edges];
+        int[] to = new int[edges];
+        int e = 0;
+        for (int i = 0; i < snapshot.callCount(); i++, e++) {
+            from[e] = snapshot.callCaller(i);
+            to[e] = snapshot.callCallee(i);
+        }
+        for (int i = 0; i < snapshot.callByCount(); i++, e++) {
+            from[e] = snapshot.callByCaller(i);
+            to[e] = snapshot.callByCallee(i);
+        }
+        calleeStart = new int[nodes + 1];
+        callees = adjacency(nodes, from, to, calleeStart);
+        callerStart = new int[nodes + 1];
+        callers = adjacency(nodes, to, from, callerStart);
+    }
+
+    /** スナップショットから呼び出しグラフを作成する */
+    static CallGraph of(CodeSnapshot snapshot) {
+        return new CallGraph(snapshot);
+    }
+
+    /**
+     * CSR 形式の隣接リストを作成する。start[n] から start[n + 1] が戻り値の中の範囲。
+     * 各ノードの隣接先は昇順に並べ、重複を取り除く。
+     */
+    private static int[] adjacency(int nodes, int[] from, int[] to, int[] start) {
+        for (int f : from) {
+            start[f + 1]++;
+        }
+        for (int n = 0; n < nodes; n++) {
+            start[n + 1] += start[n];
+        }
+        int[] next = Arrays.copyOf(start, nodes);
+        int[] targets = new int[from.length];
+        for (int e = 0; e < from.length; e++) {
+            targets[next[from[e]]++] = to[e];
+        }
+
+        // ノードごとに整列して重複を詰める
+        int write = 0;
+        int begin = 0;
+        for (int n = 0; n < nodes; n++) {
+            int end = start[n + 1];
+            Arrays.sort(targets, begin, end);
+            start[n] = write;
+            for (int i = begin; i < end; i++) {
+                if (i == begin || targets[i] != targets[i - 1]) {
+                    targets[write++] = targets[i];
+                }
+            }
+            begin = end;
+        }
+        start[nodes] = write;
+        return Arrays.copyOf(targets, write);
+    }
+
+    int nodeCount() {
+        return owners.length;
+    }
+
+    /** ノードの表示名（所属クラス名.メソッド名） */
+    String label(int node) {
+        String owner = owners[node];
+        String name = snapshot.entityName(node);
+        return owner == null || owner.isEmpty() ? name : owner + "." + name;
+    }
+
+    /**
+     * 名前に一致するノードをすべて返す。
+     * query に "." を含む場合は「所属クラス名.メソッド名」、含まない場合はメソッド名と照合する。
+     */
+    int[] find(String query) {
+        boolean qualified = query.indexOf('.') >= 0;
+        IntList hits = new IntList();
+        for (int n = 0; n < nodeCount(); n++) {
+            String key = qualified ? label(n) : snapshot.entityName(n);
+            if (query.equals(key)) {
+                hits.add(n);
+            }
+        }
+        return hits.toArray();
+    }
+
+    /**
+     * sources から幅優先でたどった結果を返す。
+     * callersDirection が true の場合は呼び出し元（影響範囲）、false の場合は呼び出し先をたどる。
+     * maxDepth が {@link #UNLIMITED} の場合は深さを制限しない。
+     */
+    Traversal traverse(int[] sources, boolean callersDirection, int maxDepth) {
+        return new Traversal(sources, callersDirection ? callerStart : calleeStart,
+            callersDirection ? callers : callees, maxDepth, null);
+    }
+
+    /**
+     * from のいずれかから to のいずれかへ至る最短の呼び出し経路を返す。
+     * 経路がない場合は空の配列。
+     */
+    int[] shortestPath(int[] from, int[] to, int maxDepth) {
+        BitSet targets = new BitSet(nodeCount());
+        for (int t : to) {
+            targets.set(t);
+        }
+        Traversal t = new Traversal(from, calleeStart, callees, maxDepth, targets);
+        return t.found < 0 ? new int[0] : t.path(t.found);
+    }
+
+    /** 幅優先探索の結果（到達順のノード、深さ、直前のノード） */
+    final class Traversal {
+        private final IntList order = new IntList();
+        private final int[] depth;
+        private final int[] parent;
+        private int found = -1;
+
+        private Traversal(int[] sources, int[] start, int[] adjacent, int maxDepth, BitSet targets) {
+            int nodes = nodeCount();
+            BitSet visited = new BitSet(nodes);
+            depth = new int[nodes];
+            parent = new int[nodes];
+            for (int s : sources) {
+                if (!visited.get(s)) {
+                    visited.set(s);
+                    parent[s] = -1;
+                    order.add(s);
+                }
+            }
+            // order をそのまま待ち行列として使う
+            for (int head = 0; head < order.size(); head++) {
+                int node = order.get(head);
+                if (targets != null && targets.get(node)) {
+                    found = node;
+                    return;
+                }
+                if (maxDepth != UNLIMITED && depth[node] >= maxDepth) {
+                    continue;
+                }
+                for (int i = start[node]; i < start[node + 1]; i++) {
+                    int next = adjacent[i];
+                    if (!visited.get(next)) {
+                        visited.set(next);
+                        depth[next] = depth[node] + 1;
+                        parent[next] = node;
+                        order.add(next);
+                    }
+                }
+            }
+        }
+
+        /** 到達したノード数（起点を含む） */
+        int size() {
+            return order.size();
+        }
+
+        /** 到達した順で index 番目のノード */
+        int node(int index) {
+            return order.get(index);
+        }
+
+        /** 起点からの深さ（起点は 0） */
+        int depth(int node) {
+            return depth[node];
+        }
+
+        /** 直前のノード（起点は -1） */
+        int parent(int node) {
+            return parent[node];
+        }
+
+        /** 起点から node までの経路 */
+        int[] path(int node) {
+            IntList reversed = new IntList();
+            for (int n = node; n >= 0; n = parent[n]) {
+                reversed.add(n);
+            }
+            int[] path = new int[reversed.size()];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = reversed.get(path.length - 1 - i);
+            }
+            return path;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * クラス間依存グラフ。
+ *
+ * クラスごとに {@code depends()} だけを呼び、依存先を Entity.id() でクラス一覧の位置に置き換えた
+ * CSR 形式の隣接リストを作る。辺の重みは参照数（Reference[] の要素数）で、参照そのものや
+ * 依存元（dependsby()）は取り込まない。クラス一覧にない依存先（ライブラリのクラスなど）と
+ * 自分自身への依存は辺にしない。
+ *
+ * 強連結成分（循環依存）は Tarjan のアルゴリズムで求める。再帰呼び出しの代わりに
+ * 明示的なスタックを使うため、クラス数が多くてもスタックオーバーフローにならない。
+ * 強連結成分を1つのノードとみなしたグラフ（DAG）で、何にも依存しない成分をレイヤー 0、
+ * それ以外は「依存先の成分の最大レイヤー + 1」としてレイヤーを割り当てる。
+ */
+final class ClassGraph {
+
+    private final StringTable strings;
+    // ノードのクラス名（longname）の文字列 ID
+    private final int[] names;
+    // 依存先: start[n] から start[n + 1] の範囲が targets / weights の中の位置
+    private final int[] start;
+    private final int[] targets;
+    private final int[] weights;
+
+    // 強連結成分（component[n] がノード n の成分番号。成分番号は依存先の成分ほど小さい）
+    private final int[] component;
+    private final int componentCount;
+    private final int[] componentSize;
+
+    /**
+     * ノードのクラス名（strings の ID）と、CSR 形式の依存先からグラフを作成する。
+     * ノード n の依存先は targets / weights の [start[n], start[n + 1]) の範囲。
+     */
+    ClassGraph(StringTable strings, int[] names, int[] start, int[] targets, int[] weights) {
+        this.strings = strings;
+        this.names = names;
+        this.start = start;
+        this.targets = targets;
+        this.weights = weights;
+
+        int nodes = names.length;
+        component = new int[nodes];
+        componentCount = tarjan();
+        componentSize = new int[componentCount];
+        for (int n = 0; n < nodes; n++) {
+            componentSize[component[n]]++;
+        }
+    }
+
+    /**
+     * classes の depends() を取り込んでグラフを作成する。
+     * 依存先は Entity.id() でクラス一覧の位置に置き換えるため、名前を取得するのはクラス一覧の
+     * クラスだけで、依存先・参照の名前やファイル・行は取得しない。
+     */
+    static ClassGraph capture(Entity[] classes) {
+        int nodes = classes.length;
+        StringTable strings = new StringTable();
+        int[] names = new int[nodes];
+        LongIntHashMap index = new LongIntHashMap(nodes);
+        for (int n = 0; n < nodes; n++) {
+            names[n] = strings.intern(ApiMetrics.longname(classes[n]));
+            index.put(classes[n].id(), n);
+        }
+
+        int[] start = new int[nodes + 1];
+        IntList to = new IntList();
+        IntList weight = new IntList();
+        for (int n = 0; n < nodes; n++) {
+            for (Map.Entry<Entity, Reference[]> dep : ApiMetrics.depends(classes[n]).entrySet()) {
+                int target = index.get(dep.getKey().id(), -1);
+                if (target >= 0 && target != n) {
+                    to.add(target);
+                    weight.add(dep.getValue().length);
+                }
+            }
+            start[n + 1] = to.size();
+        }
+        return new ClassGraph(strings, names, start, to.toArray(), weight.toArray());
+    }
+
+    /** キャッシュファイルのセクションとして書き出す（クラス名と CSR 形式の依存先） */
+    void write(SnapshotCache.Output out) throws IOException {
+        out.writeStrings(strings);
+        for (int[] column : new int[][] { names, start, targets, weights }) {
+            IntList values = new IntList(column.length);
+            values.addAll(column);
+            out.writeInts(values);
+        }
+    }
+
+    /** {@link #write} で書き出したセクションから読み込む */
+    static ClassGraph read(SnapshotCache.Input in) throws IOException {
+        StringTable strings = new StringTable();
+        in.readStrings(strings);
+        IntList[] columns = new IntList[4];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new IntList();
+            in.readInts(columns[i]);
+        }
+        return new ClassGraph(strings, columns[0].toArray(), columns[1].toArray(), columns[2].toArray(),
+            columns[3].toArray());
+    }
+
+    /** 強連結成分を求めて component に設定し、成分数を返す */
+    private int tarjan() {
+        int nodes = names.length;
+        int[] order = new int[nodes];      // 訪問順（0 は未訪問）
+        int[] low = new int[nodes];
+        int[] next = new int[nodes];       // 次に調べる辺の位置
+        BitSet onStack = new BitSet(nodes);
+        int[] stack = new int[nodes];      // 成分候補のスタック
+        int[] path = new int[nodes];       // 再帰呼び出しの代わりの探索スタック
+        int stackSize = 0;
+        int counter = 0;
+        int components = 0;
+
+        for (int root = 0; root < nodes; root++) {
+            if (order[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            path[depth++] = root;
+            order[root] = low[root] = ++counter;
+            next[root] = start[root];
+            stack[stackSize++] = root;
+            onStack.set(root);
+
+            while (depth > 0) {
+                int node = path[depth - 1];
+                if (next[node] < start[node + 1]) {
+                    int target = targets[next[node]++];
+                    if (order[target] == 0) {
+                        order[target] = low[target] = ++counter;
+                        next[target] = start[target];
+                        stack[stackSize++] = target;
+                        onStack.set(target);
+                        path[depth++] = target;
+                    } else if (onStack.get(target)) {
+                        low[node] = Math.min(low[node], order[target]);
+                    }
+                    continue;
+                }
+                // node の依存先をすべて調べ終えた
+                depth--;
+                if (depth > 0) {
+                    int parent = path[depth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == order[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack.clear(member);
+                        component[member] = components;
+                    } while (member != node);
+                    components++;
+                }
+            }
+        }
+        return components;
+    }
+
+    int nodeCount() {
+        return names.length;
+    }
+
+    String name(int node) {
+        return strings.get(names[node]);
+    }
+
+    int depFrom(int node) {
+        return start[node];
+    }
+
+    int depTo(int node) {
+        return start[node + 1];
+    }
+
+    int target(int edge) {
+        return targets[edge];
+    }
+
+    int weight(int edge) {
+        return weights[edge];
+    }
+
+    int componentCount() {
+        return componentCount;
+    }
+
+    int component(int node) {
+        return component[node];
+    }
+
+    int componentSize(int component) {
+        return componentSize[component];
+    }
+
+    /** 成分ごとの所属ノード（成分番号順、成分内はクラス一覧の順） */
+    int[][] members() {
+        int[][] members = new int[componentCount][];
+        int[] filled = new int[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            members[c] = new int[componentSize[c]];
+        }
+        for (int n = 0; n < names.length; n++) {
+            int c = component[n];
+            members[c][filled[c]++] = n;
+        }
+        return members;
+    }
+
+    /**
+     * 成分ごとのレイヤーを返す。何にも依存しない成分が 0。
+     * Tarjan のアルゴリズムは依存先の成分から順に番号を付けるため、番号順に1回走査すれば求まる。
+     */
+    int[] layers() {
+        int[][] members = members();
+        int[] layer = new int[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            for (int node : members[c]) {
+                for (int e = start[node]; e < start[node + 1]; e++) {
+                    int dep = component[targets[e]];
+                    if (dep != c) {
+                        layer[c] = Math.max(layer[c], layer[dep] + 1);
+                    }
+                }
+            }
+        }
+        return layer;
+    }
+}
@@ -1,168 +1,372 @@
 import com.scitools.understand.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 /**
  * コード構造探索のサンプル。
  *
  * 使い方:
- *   java -cp "Understand.jar;." CodeExplorer <UDBファイルパス> <コマンド> [対象名]
+ *   java -cp "Understand.jar;." CodeExplorer <UDBファイルパス> <コマンド> [対象名] [オプション]
  *
  * コマンド:
- *   classes    - 全クラス一覧
+ *   classes    - 全クラス一覧（第3引数にクラス名を指定すると、名前が一致するクラスだけ）
  *   methods    - 指定クラスのメソッド一覧（第3引数にクラス名）
  *   calls      - メソッド呼び出し関係（第3引数にメソッド名）
  *   refs       - 変数の参照箇所（第3引数に変数名）
  *   lexer      - ファイルの字句解析（第3引数にファイルエンティティ名）
+ *   lexer-scan - 全ファイルの字句を走査し、指定したクラス・メソッド・変数が現れる箇所を表示
+ *                （第3引数に対象名）
+ *   batch      - methods / calls / refs の問い合わせをまとめて実行（第3引数に問い合わせファイル。
+ *                省略時は標準入力。1行に1件の "コマンド 対象名"）
+ *   serve      - UDB を開いたまま、ローカルのソケットで上記のコマンドと file-deps を受け付ける
+ *                （{@link QueryServer}。問い合わせは {@link QueryClient} で送る）
+ *   cache-stats - serve で、参照キャッシュの件数・推定バイト数・ヒット率を表示する
+ *
+ * オプション:
+ *   --threads N  - lexer-scan でファイルを N スレッドで並列に走査する（省略時は CPU 数）。
+ *                  serve では同時に処理する問い合わせの数
+ *   --tokens T   - lexer-scan で対象とするトークン種別（カンマ区切り。省略時は Identifier）
+ *   --port N     - serve で待ち受けるポート番号（省略時は 7070）
+ *   --ref-cache-mb N - serve で refs() の結果を保持する参照キャッシュの上限（推定 MB。省略時は 64、
+ *                  0 でキャッシュしない。{@link RefCache}）
+ *   --format F   - batch の出力形式（jsonl または csv。省略時は jsonl）
+ *   --out FILE   - batch の出力先ファイル（省略時は標準出力）
+ *   --metrics    - UDB を開く・名前索引の作成・コマンドの実行などの所要時間を終了時に表示する
+ *   --metrics-json FILE - 同じ計測結果を JSON でファイルに書き出す
+ *   --file NAME  - refs で、参照のあるファイル名が一致する参照だけを表示する
+ *   --lines A-B  - refs で、行が A〜B の参照だけを表示する（"A-"・"-B"・"A" も可）
+ *   --kind K     - classes で、種別 K（"abstract"・"public" など）のクラスだけを表示する
+ *
+ * 対象名の指定:
+ *   TaskManager          - 名前の完全一致（同名のクラス・オーバーロードはすべて表示）
+ *   sample.TaskManager   - "." を含み、名前で見つからない場合は完全修飾名（longname）で照合
+ *                        （SampleProject.java のように名前に "." を含むものは名前で見つかる）
+ *   Task*, find?yId      - glob（* は任意の文字列、? は任意の1文字）
  */
 public class CodeExplorer {
 
-    public static void main(String[] args) throws UnderstandException {
+    /** 値を取るオプション */
+    private static final Set<String> VALUE_OPTIONS = Set.of("--threads", "--tokens", "--port", "--format", "--out",
+        "--metrics-json", "--file", "--lines", "--ref-cache-mb", "--kind");
+
+    // UDB ごと・エンティティ種別ごとの名前索引（種別ごとに1回だけ作成する。UDB を閉じるときに破棄する）
+    private static final Map<Database, Map<String, NameIndex>> indexes =
+        Collections.synchronizedMap(new WeakHashMap<>());
+    // serve で refs() の結果を保持する参照キャッシュ（serve 以外では null）
+    private static RefCache refCache;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        args = parseOptions(args, options);
         if (args.length < 2) {
             System.err.println("使い方: java CodeExplorer <UDBファイルパス> <コマンド> [対象名]");
             System.exit(1);
         }
 
+        if (options.containsKey("--metrics") || options.containsKey("--metrics-json")) {
+            ApiMetrics.enable();
+        }
+        String udbPath = args[0];
         Database db = null;
         try {
-            db = Understand.open(args[0]);
+            db = ApiMetrics.phase("UDB を開く", () -> Understand.open(udbPath));
             String command = args[1];
             String target = args.length > 2 ? args[2] : null;
-
-            switch (command) {
-                case "classes":
-                    listClasses(db);
-                    break;
-                case "methods":
-                    listMethods(db, target);
-                    break;
-                case "calls":
-                    showCallRelations(db, target);
-                    break;
-                case "refs":
-                    showReferences(db, target);
-                    break;
-                case "lexer":
-                    analyzeLexemes(db, target);
-                    break;
-                default:
-                    System.err.println("不明なコマンド: " + command);
+            if ("serve".equals(command)) {
+                serve(db, options);
+            } else if ("batch".equals(command)) {
+                batch(db, target, options);
+            } else if (!run(db, command, target, options, System.out, System.err)) {
+                System.err.println("不明なコマンド: " + command);
             }
         } finally {
-            if (db != null) db.close();
+            if (db != null) {
+                indexes.remove(db);
+                db.close();
+            }
+            ApiMetrics.report(options);
         }
     }
 
-    /** 全クラス一覧を表示 */
-    private static void listClasses(Database db) {
-        Entity[] classes = db.ents("class ~unknown ~unresolved");
-        System.out.println("=== クラス一覧 ===");
-        for (Entity cls : classes) {
-            System.out.printf("  %s (種別: %s)%n", cls.longname(), cls.kind().name());
+    /**
+     * コマンドを1つ実行し、結果を out、入力の誤りを err に出力する。
+     * 不明なコマンドの場合は何も出力せずに false を返す。
+     */
+    static boolean run(Database db, String command, String target, Map<String, String> options,
+            PrintStream out, PrintStream err) throws Exception {
+        return ApiMetrics.phase(command, () -> dispatch(db, command, target, options, out, err));
+    }
+
+    private static boolean dispatch(Database db, String command, String target, Map<String, String> options,
+            PrintStream out, PrintStream err) throws Exception {
+        switch (command) {
+            case "classes":
+                listClasses(db, out, err, target, options);
+                return true;
+            case "methods":
+                listMethods(db, out, err, target);
+                return true;
+            case "calls":
+                showCallRelations(db, out, err, target);
+                return true;
+            case "refs":
+                showReferences(db, out, err, target, options);
+                return true;
+            case "lexer":
+                analyzeLexemes(db, out, err, target);
+                return true;
+            case "lexer-scan":
+                scanLexemes(db, out, err, target, options);
+                return true;
+            case "cache-stats":
+                out.println(refCache != null ? refCache.stats() : "参照キャッシュは使用していません");
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** 問い合わせファイル（null の場合は標準入力）の問い合わせをまとめて実行する */
+    private static void batch(Database db, String input, Map<String, String> options) throws IOException {
+        BatchQuery batch = new BatchQuery((kinds, name) -> find(db, kinds, name));
+        String format = options.getOrDefault("--format", "jsonl");
+        String output = options.get("--out");
+        try (BufferedReader in = new BufferedReader(input != null
+                 ? new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8)
+                 : new InputStreamReader(System.in, StandardCharsets.UTF_8));
+             OutputStream out = output != null ? new FileOutputStream(output) : null) {
+            ApiMetrics.phase("batch", () -> batch.run(in, out != null ? out : System.out, format));
         }
-        System.out.println("合計: " + classes.length + " クラス");
+        System.err.println(batch.stats());
+    }
+
+    /** UDB を開いたまま、ローカルのソケットでコマンドを受け付ける（Ctrl+C で終了） */
+    private static void serve(Database db, Map<String, String> options) throws Exception {
+        int port = Integer.parseInt(options.getOrDefault("--port", String.valueOf(QueryServer.DEFAULT_PORT)));
+        long cacheMb = Long.parseLong(options.getOrDefault("--ref-cache-mb", "64"));
+        if (cacheMb > 0) {
+            refCache = new RefCache(cacheMb << 20);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("--threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        QueryServer server = new QueryServer(db, port, threads);
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                main.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        System.out.println("待ち受けを開始しました: 127.0.0.1:" + server.port() + " (スレッド数 " + threads + ")");
+        server.serve();
+        if (refCache != null) {
+            System.err.println(refCache.stats());
+        }
+    }
+
+    /** "--" で始まるオプションを options に取り出し、残りの位置引数を返す */
+    static String[] parseOptions(String[] args, Map<String, String> options) {
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                params.add(arg);
+            } else if (VALUE_OPTIONS.contains(arg) && i + 1 < args.length) {
+                options.put(arg, args[++i]);
+            } else {
+                options.put(arg, "true");
+            }
+        }
+        return params.toArray(new String[0]);
+    }
+
+    /** クラス一覧を表示（--kind・クラス名で絞り込む） */
+    private static void listClasses(Database db, PrintStream out, PrintStream err, String className,
+            Map<String, String> options) {
+        Query.Entities query;
+        try {
+            query = Query.CLASSES.kind(options.get("--kind")).name(className);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return;
+        }
+        out.println("=== クラス一覧 ===");
+        int[] count = new int[1];
+        query.stream(db).forEach(cls -> {
+            out.printf("  %s (種別: %s)%n", ApiMetrics.longname(cls), ApiMetrics.kindName(cls));
+            count[0]++;
+        });
+        out.println("合計: " + count[0] + " クラス");
+    }
+
+    /** 指定した種別で、名前に一致するエンティティをすべて返す */
+    static List<Entity> find(Database db, String kinds, String name) {
+        return indexes.computeIfAbsent(db, d -> new ConcurrentHashMap<>())
+            .computeIfAbsent(kinds, k -> ApiMetrics.phase("名前索引の作成", () -> NameIndex.build(db, k)))
+            .find(name);
     }
 
     /** 指定クラスのメソッド一覧を表示 */
-    private static void listMethods(Database db, String className) {
+    private static void listMethods(Database db, PrintStream out, PrintStream err, String className) {
         if (className == null) {
-            System.err.println("クラス名を指定してください");
+            err.println("クラス名を指定してください");
             return;
         }
-        Entity[] classes = db.ents("class");
+        List<Entity> classes = find(db, "class", className);
         for (Entity cls : classes) {
-            if (cls.name().equals(className)) {
-                Reference[] methodRefs = cls.refs("define", "method", true);
-                System.out.println("=== " + className + " のメソッド一覧 ===");
-                for (Reference ref : methodRefs) {
-                    Entity method = ref.ent();
-                    System.out.printf("  %s (戻り値型: %s, 行: %d)%n",
-                        method.name(), method.type(), ref.line());
-                }
-                return;
+            // 所属クラスは calls などで繰り返し参照されることが多いため、キャッシュに残す
+            if (refCache != null) {
+                refCache.pin(cls.id());
             }
+            String title = classes.size() > 1 ? ApiMetrics.longname(cls) : ApiMetrics.name(cls);
+            out.println("=== " + title + " のメソッド一覧 ===");
+            Query.METHODS.stream(cls, refCache).forEach(ref -> {
+                Entity method = ApiMetrics.ent(ref);
+                out.printf("  %s (戻り値型: %s, 行: %d)%n",
+                    ApiMetrics.name(method), ApiMetrics.type(method), ApiMetrics.line(ref));
+            });
+        }
+        if (classes.isEmpty()) {
+            out.println("クラスが見つかりません: " + className);
         }
-        System.out.println("クラスが見つかりません: " + className);
     }
 
     /** メソッドの呼び出し元・呼び出し先を表示 */
-    private static void showCallRelations(Database db, String methodName) {
+    private static void showCallRelations(Database db, PrintStream out, PrintStream err, String methodName) {
         if (methodName == null) {
-            System.err.println("メソッド名を指定してください");
+            err.println("メソッド名を指定してください");
             return;
         }
-        Entity[] methods = db.ents("method");
+        List<Entity> methods = find(db, "method", methodName);
         for (Entity method : methods) {
-            if (method.name().equals(methodName)) {
-                Reference[] callRefs = method.refs("call", "method", true);
-                System.out.println("=== " + method.longname() + " が呼び出すメソッド ===");
-                for (Reference ref : callRefs) {
-                    System.out.printf("  → %s (行: %d)%n", ref.ent().longname(), ref.line());
-                }
-
-                Reference[] calledByRefs = method.refs("callby", "method", true);
-                System.out.println("=== " + method.longname() + " を呼び出すメソッド ===");
-                for (Reference ref : calledByRefs) {
-                    System.out.printf("  ← %s (行: %d)%n", ref.ent().longname(), ref.line());
-                }
-                return;
-            }
+            out.println("=== " + ApiMetrics.longname(method) + " が呼び出すメソッド ===");
+            Query.CALLS.stream(method, refCache).forEach(ref ->
+                out.printf("  → %s (行: %d)%n", ApiMetrics.longname(ApiMetrics.ent(ref)), ApiMetrics.line(ref)));
+
+            out.println("=== " + ApiMetrics.longname(method) + " を呼び出すメソッド ===");
+            Query.CALLED_BY.stream(method, refCache).forEach(ref ->
+                out.printf("  ← %s (行: %d)%n", ApiMetrics.longname(ApiMetrics.ent(ref)), ApiMetrics.line(ref)));
+        }
+        if (methods.isEmpty()) {
+            out.println("メソッドが見つかりません: " + methodName);
         }
-        System.out.println("メソッドが見つかりません: " + methodName);
     }
 
-    /** 変数の参照箇所を表示 */
-    private static void showReferences(Database db, String varName) {
+    /** 変数の参照箇所を表示（--file・--lines で絞り込む） */
+    private static void showReferences(Database db, PrintStream out, PrintStream err, String varName,
+            Map<String, String> options) {
         if (varName == null) {
-            System.err.println("変数名を指定してください");
+            err.println("変数名を指定してください");
             return;
         }
-        Entity[] entities = db.ents("variable");
-        for (Entity ent : entities) {
-            if (ent.name().equals(varName)) {
-                Reference[] refs = ent.refs(null, null, false);
-                System.out.println("=== " + ent.longname() + " の参照箇所 ===");
-                for (Reference ref : refs) {
-                    System.out.printf("  %s (参照種別: %s, ファイル: %s, 行: %d, 列: %d)%n",
-                        ref.scope().longname(),
-                        ref.kind().name(),
-                        ref.file().name(),
-                        ref.line(),
-                        ref.column());
-                }
+        Query query = Query.ALL;
+        if (options.containsKey("--file")) {
+            query = query.file(options.get("--file"));
+        }
+        if (options.containsKey("--lines")) {
+            try {
+                query = query.lines(options.get("--lines"));
+            } catch (IllegalArgumentException e) {
+                err.println(e.getMessage());
                 return;
             }
         }
-        System.out.println("変数が見つかりません: " + varName);
+        List<Entity> entities = find(db, "variable", varName);
+        for (Entity ent : entities) {
+            out.println("=== " + ApiMetrics.longname(ent) + " の参照箇所 ===");
+            query.stream(ent, refCache).forEach(ref ->
+                out.printf("  %s (参照種別: %s, ファイル: %s, 行: %d, 列: %d)%n",
+                    ApiMetrics.longname(ApiMetrics.scope(ref)),
+                    ApiMetrics.kindName(ref),
+                    ApiMetrics.name(ApiMetrics.file(ref)),
+                    ApiMetrics.line(ref),
+                    ApiMetrics.column(ref)));
+        }
+        if (entities.isEmpty()) {
+            out.println("変数が見つかりません: " + varName);
+        }
     }
 
     /** ファイルの字句解析結果を表示 */
-    private static void analyzeLexemes(Database db, String fileName) throws UnderstandException {
+    private static void analyzeLexemes(Database db, PrintStream out, PrintStream err, String fileName)
+            throws UnderstandException {
         if (fileName == null) {
-            System.err.println("ファイル名を指定してください");
+            err.println("ファイル名を指定してください");
             return;
         }
-        Entity[] files = db.ents("file");
+        List<Entity> files = find(db, "file", fileName);
         for (Entity file : files) {
-            if (file.name().equals(fileName)) {
-                Lexer lexer = file.lexer(true, false, false);
-                System.out.println("=== " + fileName + " の字句解析 (先頭20トークン) ===");
-                Lexeme lex = lexer.first();
-                int count = 0;
-                while (lex != null && count < 20) {
-                    if (!"Whitespace".equals(lex.token()) && !"Newline".equals(lex.token())) {
-                        Entity ent = lex.entity();
-                        System.out.printf("  行%d 列%d: %-12s \"%s\"%s%n",
-                            lex.lineBegin(),
-                            lex.columnBegin(),
-                            lex.token(),
-                            lex.text(),
-                            ent != null ? " → " + ent.longname() : "");
-                        count++;
-                    }
-                    lex = lex.next();
-                }
-                return;
-            }
+            Lexer lexer = ApiMetrics.lexer(file, true);
+            String title = files.size() > 1 ? ApiMetrics.longname(file) : ApiMetrics.name(file);
+            out.println("=== " + title + " の字句解析 (先頭20トークン) ===");
+            Lexemes.stream(lexer, Lexemes.except("Whitespace", "Newline"))
+                .limit(20)
+                .forEach(lex -> {
+                    Entity ent = ApiMetrics.entity(lex);
+                    out.printf("  行%d 列%d: %-12s \"%s\"%s%n",
+                        ApiMetrics.lineBegin(lex),
+                        ApiMetrics.columnBegin(lex),
+                        ApiMetrics.token(lex),
+                        ApiMetrics.text(lex),
+                        ent != null ? " → " + ApiMetrics.longname(ent) : "");
+                });
+        }
+        if (files.isEmpty()) {
+            out.println("ファイルが見つかりません: " + fileName);
+        }
+    }
+
+    /**
+     * 全ファイルの字句を走査し、対象のエンティティを指す字句の位置を表示する。
+     *
+     * ファイルごとに Lexer を作り、対象のトークン種別の字句だけをたどる。各ファイルの結果は
+     * 表示用の行だけにして返すため、走査が終わったファイルの Lexer・字句は保持しない。
+     */
+    private static void scanLexemes(Database db, PrintStream out, PrintStream err, String name,
+            Map<String, String> options) throws Exception {
+        if (name == null) {
+            err.println("対象名を指定してください");
+            return;
+        }
+        List<Entity> targets = find(db, "class, method, variable", name);
+        if (targets.isEmpty()) {
+            out.println("クラス・メソッド・変数が見つかりません: " + name);
+            return;
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Entity target : targets) {
+            ids.add(target.id());
         }
-        System.out.println("ファイルが見つかりません: " + fileName);
+        Predicate<String> tokens = Lexemes.only(options.getOrDefault("--tokens", "Identifier").split("\\s*,\\s*"));
+        int threads = Integer.parseInt(options.getOrDefault("--threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Entity[] files = ApiMetrics.ents(db, Query.FILE_KINDS);
+
+        String title = targets.size() > 1 ? name : ApiMetrics.longname(targets.get(0));
+        out.println("=== " + title + " が現れる字句 ===");
+        int[] total = new int[2];
+        ParallelMap.map(files, threads, file -> {
+            Lexer lexer = ApiMetrics.lexer(file, true);
+            String fileName = ApiMetrics.name(file);
+            return Lexemes.stream(lexer, tokens)
+                .filter(lex -> {
+                    Entity ent = ApiMetrics.entity(lex);
+                    return ent != null && ids.contains(ent.id());
+                })
+                .map(lex -> String.format("  %s 行%d 列%d: %s", fileName,
+                    ApiMetrics.lineBegin(lex), ApiMetrics.columnBegin(lex), ApiMetrics.text(lex)))
+                .collect(Collectors.toList());
+        }, lines -> {
+            lines.forEach(out::println);
+            total[0] += lines.size();
+            total[1] += lines.isEmpty() ? 0 : 1;
+        });
+        out.println("合計: " + total[0] + " 箇所 (" + total[1] + " ファイル)");
     }
 }
@@ -0,0 +1,746 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * csv-all 用のコード構造スナップショット。
+ *
+ * クラス一覧を1回だけ走査し、クラス・メソッド・definein・call・callby の参照を
+ * 整数IDの表に取り込む。所属クラスの逆引きは {@link OwnerResolver} に任せる。
+ * 文字列は文字列テーブルに1回だけ登録し、表には ID を持たせる。
+ * 4つのCSVはこのスナップショットから出力するため、同じエンティティに対する
+ * {@code refs()} / {@code name()} などの呼び出しは1回で済む。
+ *
+ * <pre>
+ *   classes : クラス名, 種別, 定義ファイル, 定義行
+ *   methods : 所属クラス行, メソッド(エンティティ表), 戻り値型, 定義ファイル, 定義行
+ *   calls   : 呼び出し元メソッド行, 呼び出し先(エンティティ表), ファイル, 行
+ *   callby  : 対象メソッド行, 呼び出し元(エンティティ表), ファイル, 行
+ *   ents    : Entity.id(), 短縮名, 所属クラス名, 完全修飾名, パラメータ
+ * </pre>
+ *
+ * エンティティ表の完全修飾名とパラメータは、複数の UDB をまとめる場合に呼び出し先を他のプロジェクトの
+ * 定義と照合するために使う（{@link MergedSnapshot}）。
+ */
+public class CodeSnapshot {
+
+    /** null を表す文字列ID */
+    static final int NULL_STRING = StringTable.NULL;
+
+    static final String[] CLASSES_HEADER = { "クラス名", "種別", "ファイル名", "定義行" };
+    static final String[] METHODS_HEADER = { "クラス名", "メソッド名", "戻り値型", "ファイル名", "定義行" };
+    static final String[] CALLS_HEADER = { "呼び出し元クラス", "呼び出し元メソッド", "呼び出し先クラス", "呼び出し先メソッド",
+        "ファイル名", "呼び出し行" };
+    static final String[] CALLED_BY_HEADER = { "対象クラス", "対象メソッド", "呼び出し元クラス", "呼び出し元メソッド",
+        "ファイル名", "呼び出し行" };
+
+    // 文字列テーブル
+    private final StringTable strings = new StringTable();
+
+    // エンティティ表（メソッド自身と、呼び出し先・呼び出し元のメソッド）
+    private final Map<Integer, Integer> entIndex = new HashMap<>();
+    private final IntList entUid = new IntList();
+    private final IntList entName = new IntList();
+    private final IntList entOwner = new IntList();
+    private final IntList entLongname = new IntList();
+    private final IntList entParams = new IntList();
+
+    // ファイルエンティティ ID → ファイル名の文字列ID
+    private final Map<Integer, Integer> fileNames = new HashMap<>();
+
+    private final IntList className = new IntList();
+    private final IntList classKind = new IntList();
+    private final IntList classFile = new IntList();
+    private final IntList classLine = new IntList();
+
+    private final IntList methodClass = new IntList();
+    private final IntList methodEnt = new IntList();
+    private final IntList methodType = new IntList();
+    private final IntList methodFile = new IntList();
+    private final IntList methodLine = new IntList();
+
+    private final IntList callMethod = new IntList();
+    private final IntList callEnt = new IntList();
+    private final IntList callFile = new IntList();
+    private final IntList callLine = new IntList();
+
+    private final IntList callbyMethod = new IntList();
+    private final IntList callbyEnt = new IntList();
+    private final IntList callbyFile = new IntList();
+    private final IntList callbyLine = new IntList();
+
+    // 並列作成時にチャンク間で共有する Entity.id() → name() と、Entity.id() → {longname(), parameters()} の対応
+    // （1スレッドの場合は null）
+    private final Map<Integer, String> sharedNames;
+    private final Map<Integer, String[]> sharedSignatures;
+
+    // captureDefinitions() で取り込んだメソッド（captureCalls() で使い、終わったら破棄する）
+    private List<Entity> pendingMethods = new ArrayList<>();
+
+    CodeSnapshot() {
+        this(null, null);
+    }
+
+    /**
+     * 並列作成用のチャンクを作成する。sharedNames・sharedSignatures を共有したチャンク同士では、
+     * 同じエンティティの name()・longname()・parameters() を取得し直さない。
+     */
+    CodeSnapshot(Map<Integer, String> sharedNames, Map<Integer, String[]> sharedSignatures) {
+        this.sharedNames = sharedNames;
+        this.sharedSignatures = sharedSignatures;
+    }
+
+    /** クラス一覧を1回だけ走査してスナップショットを作成する */
+    public static CodeSnapshot build(Entity[] classes) {
+        return build(classes, new OwnerResolver());
+    }
+
+    /**
+     * クラス一覧を1回だけ走査してスナップショットを作成する。
+     * 所属クラスの逆引きには owners を使い、クラスが定義しているメソッドは
+     * 呼び出し関係を取り込む前に owners へ事前登録する。
+     */
+    public static CodeSnapshot build(Entity[] classes, OwnerResolver owners) {
+        CodeSnapshot snapshot = new CodeSnapshot();
+        snapshot.captureDefinitions(classes, 0, classes.length, owners);
+        snapshot.captureCalls(owners);
+        return snapshot;
+    }
+
+    /** classes[from, to) のクラス定義とメソッド定義を取り込む（1段目） */
+    void captureDefinitions(Entity[] classes, int from, int to, OwnerResolver owners) {
+        for (int i = from; i < to; i++) {
+            captureClass(classes[i], owners);
+        }
+    }
+
+    /** 1段目で取り込んだメソッドの call / callby 参照を取り込む（2段目） */
+    void captureCalls(OwnerResolver owners) {
+        for (int row = 0; row < pendingMethods.size(); row++) {
+            captureCalls(row, pendingMethods.get(row), owners);
+        }
+        pendingMethods = new ArrayList<>();
+    }
+
+    /** 1クラス分の定義位置とメソッド定義を取り込む */
+    private void captureClass(Entity cls, OwnerResolver owners) {
+        // クラス定義の参照を取得
+        Reference[] defRefs = ApiMetrics.refs(cls, "definein", null, true);
+        int file = intern("");
+        int line = 0;
+        if (defRefs.length > 0) {
+            file = fileName(defRefs[0]);
+            line = ApiMetrics.line(defRefs[0]);
+        }
+        String name = owners.className(cls);
+        int classRow = addClass(intern(name), intern(ApiMetrics.kindName(cls)), file, line);
+
+        // クラスが定義しているメソッドを取得（calls / calledby でも再利用する）
+        Query.METHODS.forEach(cls, methodRef -> {
+            Entity method = ApiMetrics.ent(methodRef);
+            int ent = entity(method);
+            owners.seed(entUid.get(ent), name);
+            addMethod(classRow, ent, intern(ApiMetrics.type(method)), fileName(methodRef), ApiMetrics.line(methodRef));
+            pendingMethods.add(method);
+        });
+    }
+
+    /** 1メソッド分の call / callby 参照を取り込む */
+    private void captureCalls(int methodRow, Entity method, OwnerResolver owners) {
+        // このメソッドが呼び出している他のメソッド
+        Query.CALLS.forEach(method, callRef ->
+            addCall(methodRow, entity(ApiMetrics.ent(callRef), owners), fileName(callRef), ApiMetrics.line(callRef)));
+        // このメソッドを呼び出しているメソッド
+        Query.CALLED_BY.forEach(method, callByRef ->
+            addCallBy(methodRow, entity(ApiMetrics.ent(callByRef), owners), fileName(callByRef),
+                ApiMetrics.line(callByRef)));
+    }
+
+    /**
+     * メソッドをエンティティ表に登録し、表の位置を返す。
+     * 短縮名・完全修飾名・パラメータはエンティティごとに1回だけ取得する。
+     */
+    private int entity(Entity method) {
+        int uid = method.id();
+        Integer index = entIndex.get(uid);
+        if (index == null) {
+            index = entUid.add(uid);
+            entName.add(intern(name(uid, method)));
+            entOwner.add(NULL_STRING);
+            String[] signature = signature(uid, method);
+            entLongname.add(intern(signature[0]));
+            entParams.add(intern(signature[1]));
+            entIndex.put(uid, index);
+        }
+        return index;
+    }
+
+    /** 呼び出し先・呼び出し元のメソッドを登録し、所属クラス名も合わせて記録する */
+    private int entity(Entity method, OwnerResolver owners) {
+        int index = entity(method);
+        entOwner.set(index, intern(owners.ownerOf(entUid.get(index), method)));
+        return index;
+    }
+
+    /** 参照が記述されているファイル名を、ファイルエンティティごとに1回だけ取得する */
+    private int fileName(Reference ref) {
+        Entity file = ApiMetrics.file(ref);
+        int uid = file.id();
+        Integer id = fileNames.get(uid);
+        if (id == null) {
+            id = intern(name(uid, file));
+            fileNames.put(uid, id);
+        }
+        return id;
+    }
+
+    /** エンティティの短縮名を取得する（並列作成時はチャンク間で共有する） */
+    private String name(int uid, Entity ent) {
+        if (sharedNames == null) {
+            return ApiMetrics.name(ent);
+        }
+        return sharedNames.computeIfAbsent(uid, k -> ApiMetrics.name(ent));
+    }
+
+    /** メソッドの完全修飾名とパラメータ（ない場合は null）を取得する（並列作成時はチャンク間で共有する） */
+    private String[] signature(int uid, Entity method) {
+        if (sharedSignatures == null) {
+            return new String[] { ApiMetrics.longname(method), ApiMetrics.parameters(method) };
+        }
+        return sharedSignatures.computeIfAbsent(uid,
+            k -> new String[] { ApiMetrics.longname(method), ApiMetrics.parameters(method) });
+    }
+
+    /**
+     * チャンクごとに作成したスナップショットを、チャンクの順序のまま1つにまとめる。
+     * 行の順序は1スレッドで作成した場合と同じになる。
+     */
+    static CodeSnapshot merge(List<CodeSnapshot> parts) {
+        CodeSnapshot merged = new CodeSnapshot();
+        for (CodeSnapshot part : parts) {
+            merged.append(part, true);
+        }
+        return merged;
+    }
+
+    /**
+     * 別々の UDB から作成したスナップショットを、プロジェクトの順に1つにまとめる。
+     * Entity.id() は UDB ごとの値なので、同じ ID のエンティティでもまとめずに別の行にする
+     * （各プロジェクトの行は、クラス・メソッド・エンティティ・呼び出し関係のいずれも元の順に連続して並ぶ）。
+     */
+    static CodeSnapshot mergeProjects(List<CodeSnapshot> projects) {
+        CodeSnapshot merged = new CodeSnapshot();
+        for (CodeSnapshot project : projects) {
+            merged.append(project, false);
+        }
+        return merged;
+    }
+
+    /**
+     * part の行を末尾に追加する。文字列 ID とエンティティ表の位置は付け替える。
+     * shareEntities が true なら、同じ Entity.id() のエンティティは1行にまとめる。
+     */
+    private void append(CodeSnapshot part, boolean shareEntities) {
+        int[] stringMap = new int[part.strings.size()];
+        for (int i = 0; i < stringMap.length; i++) {
+            stringMap[i] = intern(part.strings.get(i));
+        }
+        int[] entMap = new int[part.entUid.size()];
+        for (int i = 0; i < entMap.length; i++) {
+            int uid = part.entUid.get(i);
+            Integer index = shareEntities ? entIndex.get(uid) : null;
+            if (index == null) {
+                index = entUid.add(uid);
+                entName.add(remap(stringMap, part.entName.get(i)));
+                entOwner.add(NULL_STRING);
+                entLongname.add(remap(stringMap, part.entLongname.get(i)));
+                entParams.add(remap(stringMap, part.entParams.get(i)));
+                if (shareEntities) {
+                    entIndex.put(uid, index);
+                }
+            }
+            if (part.entOwner.get(i) != NULL_STRING) {
+                entOwner.set(index, remap(stringMap, part.entOwner.get(i)));
+            }
+            entMap[i] = index;
+        }
+
+        int classOffset = classCount();
+        for (int i = 0; i < part.classCount(); i++) {
+            addClass(remap(stringMap, part.className.get(i)), remap(stringMap, part.classKind.get(i)),
+                remap(stringMap, part.classFile.get(i)), part.classLine.get(i));
+        }
+        int methodOffset = methodCount();
+        for (int i = 0; i < part.methodCount(); i++) {
+            addMethod(classOffset + part.methodClass.get(i), entMap[part.methodEnt.get(i)],
+                remap(stringMap, part.methodType.get(i)), remap(stringMap, part.methodFile.get(i)),
+                part.methodLine.get(i));
+        }
+        for (int i = 0; i < part.callCount(); i++) {
+            addCall(methodOffset + part.callMethod.get(i), entMap[part.callEnt.get(i)],
+                remap(stringMap, part.callFile.get(i)), part.callLine.get(i));
+        }
+        for (int i = 0; i < part.callByCount(); i++) {
+            addCallBy(methodOffset + part.callbyMethod.get(i), entMap[part.callbyEnt.get(i)],
+                remap(stringMap, part.callbyFile.get(i)), part.callbyLine.get(i));
+        }
+    }
+
+    /**
+     * calls の呼び出し先と callby の呼び出し元を付け替える。target[e] が 0 以上のエンティティは
+     * エンティティ表の位置 target[e] に置き換える（負の値はそのまま）。
+     */
+    void redirectEntities(int[] target) {
+        for (int i = 0; i < callEnt.size(); i++) {
+            int to = target[callEnt.get(i)];
+            if (to >= 0) {
+                callEnt.set(i, to);
+            }
+        }
+        for (int i = 0; i < callbyEnt.size(); i++) {
+            int to = target[callbyEnt.get(i)];
+            if (to >= 0) {
+                callbyEnt.set(i, to);
+            }
+        }
+    }
+
+    private static int remap(int[] stringMap, int id) {
+        return id == NULL_STRING ? NULL_STRING : stringMap[id];
+    }
+
+    /** キャッシュファイルのセクションとして書き出す（エンティティ表・クラス・メソッド・呼び出し関係） */
+    void write(SnapshotCache.Output out) throws IOException {
+        out.writeStrings(strings);
+        for (IntList column : columns()) {
+            out.writeInts(column);
+        }
+    }
+
+    /** {@link #write} で書き出したセクションから読み込む */
+    static CodeSnapshot read(SnapshotCache.Input in) throws IOException {
+        CodeSnapshot snapshot = new CodeSnapshot();
+        in.readStrings(snapshot.strings);
+        for (IntList column : snapshot.columns()) {
+            in.readInts(column);
+        }
+        for (int i = 0; i < snapshot.entUid.size(); i++) {
+            snapshot.entIndex.put(snapshot.entUid.get(i), i);
+        }
+        return snapshot;
+    }
+
+    /** キャッシュに保存する列（順序を変える場合は SnapshotCache の VERSION を上げる） */
+    private IntList[] columns() {
+        return new IntList[] {
+            entUid, entName, entOwner, entLongname, entParams,
+            className, classKind, classFile, classLine,
+            methodClass, methodEnt, methodType, methodFile, methodLine,
+            callMethod, callEnt, callFile, callLine,
+            callbyMethod, callbyEnt, callbyFile, callbyLine,
+        };
+    }
+
+    /** 文字列を文字列テーブルに登録し、その ID を返す */
+    int intern(String s) {
+        return strings.intern(s);
+    }
+
+    /** 文字列 ID から文字列を取得する */
+    String string(int id) {
+        return strings.get(id);
+    }
+
+    /** エンティティ表に行を追加する（Entity を使わずにスナップショットを組み立てる場合。params は NULL_STRING も可） */
+    int addEntity(int uid, int name, int owner, int longname, int params) {
+        int index = entUid.add(uid);
+        entName.add(name);
+        entOwner.add(owner);
+        entLongname.add(longname);
+        entParams.add(params);
+        entIndex.put(uid, index);
+        return index;
+    }
+
+    /** エンティティ表の所属クラス名を設定する（文字列 ID） */
+    void setEntityOwner(int ent, int owner) {
+        entOwner.set(ent, owner);
+    }
+
+    int addClass(int name, int kind, int file, int line) {
+        classKind.add(kind);
+        classFile.add(file);
+        classLine.add(line);
+        return className.add(name);
+    }
+
+    int addMethod(int classRow, int ent, int type, int file, int line) {
+        methodEnt.add(ent);
+        methodType.add(type);
+        methodFile.add(file);
+        methodLine.add(line);
+        return methodClass.add(classRow);
+    }
+
+    int addCall(int methodRow, int ent, int file, int line) {
+        callEnt.add(ent);
+        callFile.add(file);
+        callLine.add(line);
+        return callMethod.add(methodRow);
+    }
+
+    int addCallBy(int methodRow, int ent, int file, int line) {
+        callbyEnt.add(ent);
+        callbyFile.add(file);
+        callbyLine.add(line);
+        return callbyMethod.add(methodRow);
+    }
+
+    int classCount() {
+        return className.size();
+    }
+
+    int methodCount() {
+        return methodClass.size();
+    }
+
+    int callCount() {
+        return callMethod.size();
+    }
+
+    int callByCount() {
+        return callbyMethod.size();
+    }
+
+    int stringCount() {
+        return strings.size();
+    }
+
+    int classNameId(int row) {
+        return className.get(row);
+    }
+
+    String classKind(int row) {
+        return string(classKind.get(row));
+    }
+
+    String classFile(int row) {
+        return string(classFile.get(row));
+    }
+
+    int classLine(int row) {
+        return classLine.get(row);
+    }
+
+    /** メソッド行の所属クラス行 */
+    int methodClassRow(int row) {
+        return methodClass.get(row);
+    }
+
+    int methodTypeId(int row) {
+        return methodType.get(row);
+    }
+
+    String methodFile(int row) {
+        return string(methodFile.get(row));
+    }
+
+    int methodLine(int row) {
+        return methodLine.get(row);
+    }
+
+    /** calls 行の呼び出し元メソッド行 */
+    int callMethodRow(int i) {
+        return callMethod.get(i);
+    }
+
+    String callFile(int i) {
+        return string(callFile.get(i));
+    }
+
+    int callLine(int i) {
+        return callLine.get(i);
+    }
+
+    int entityNameId(int ent) {
+        return entName.get(ent);
+    }
+
+    int entityOwnerId(int ent) {
+        return entOwner.get(ent);
+    }
+
+    int entityCount() {
+        return entUid.size();
+    }
+
+    /** エンティティ表の短縮名 */
+    String entityName(int ent) {
+        return string(entName.get(ent));
+    }
+
+    /** エンティティ表の所属クラス名（呼び出し先・呼び出し元として登録されていない場合は null） */
+    String entityOwner(int ent) {
+        return string(entOwner.get(ent));
+    }
+
+    /** エンティティ表の完全修飾名 */
+    String entityLongname(int ent) {
+        return string(entLongname.get(ent));
+    }
+
+    /** エンティティ表のパラメータ（parameters() が null の場合は null） */
+    String entityParameters(int ent) {
+        return string(entParams.get(ent));
+    }
+
+    /** メソッド行のエンティティ表の位置 */
+    int methodEntity(int row) {
+        return methodEnt.get(row);
+    }
+
+    /** メソッド行の所属クラス名 */
+    String methodClassName(int row) {
+        return string(className.get(methodClass.get(row)));
+    }
+
+    /** calls 行の呼び出し元（エンティティ表の位置） */
+    int callCaller(int i) {
+        return methodEnt.get(callMethod.get(i));
+    }
+
+    /** calls 行の呼び出し先（エンティティ表の位置） */
+    int callCallee(int i) {
+        return callEnt.get(i);
+    }
+
+    /** callby 行の呼び出し元（エンティティ表の位置） */
+    int callByCaller(int i) {
+        return callbyEnt.get(i);
+    }
+
+    /** callby 行の呼び出し先（エンティティ表の位置） */
+    int callByCallee(int i) {
+        return methodEnt.get(callbyMethod.get(i));
+    }
+
+    /** 4つのCSVを出力ディレクトリに書き出す（gzip の場合は *.csv.gz） */
+    public void writeCsv(File dir, boolean gzip) throws IOException {
+        writeCsv(dir, gzip, null, null);
+    }
+
+    /**
+     * 4つのCSVを出力ディレクトリに書き出す（gzip の場合は *.csv.gz）。
+     * calls / calledBy に集約結果を渡すと、calls.csv / calledby.csv は集約した行で出力する（null は集約しない）。
+     */
+    public void writeCsv(File dir, boolean gzip, CallAggregate calls, CallAggregate calledBy) throws IOException {
+        try (CsvWriter w = CsvWriter.create(dir, "classes.csv", gzip)) {
+            writeClasses(w);
+        }
+        try (CsvWriter w = CsvWriter.create(dir, "methods.csv", gzip)) {
+            writeMethods(w);
+        }
+        try (CsvWriter w = CsvWriter.create(dir, "calls.csv", gzip)) {
+            if (calls != null) {
+                writeCalls(w, calls);
+            } else {
+                writeCalls(w);
+            }
+        }
+        try (CsvWriter w = CsvWriter.create(dir, "calledby.csv", gzip)) {
+            if (calledBy != null) {
+                writeCalledBy(w, calledBy);
+            } else {
+                writeCalledBy(w);
+            }
+        }
+    }
+
+    /** calls を (呼び出し元メソッド, 呼び出し先) の組ごとに集約する */
+    CallAggregate aggregateCalls() {
+        return new CallAggregate(callMethod.toArray(), callEnt.toArray(), callFile.toArray(), callLine.toArray());
+    }
+
+    /** callby を (対象メソッド, 呼び出し元) の組ごとに集約する */
+    CallAggregate aggregateCalledBy() {
+        return new CallAggregate(callbyMethod.toArray(), callbyEnt.toArray(), callbyFile.toArray(),
+            callbyLine.toArray());
+    }
+
+    /** 列指向形式のファイル（csv-all の4つの表と同じ内容）を書き出す */
+    void writeColumns(ColumnarFile.Writer w) throws IOException {
+        w.strings(strings);
+
+        w.table("classes", classCount(), 4);
+        w.column("クラス名", ColumnarFile.STRING, className.toArray());
+        w.column("種別", ColumnarFile.STRING, classKind.toArray());
+        w.column("ファイル名", ColumnarFile.STRING, classFile.toArray());
+        w.column("定義行", ColumnarFile.INT, classLine.toArray());
+
+        int[] methodRows = new int[methodCount()];
+        for (int i = 0; i < methodRows.length; i++) {
+            methodRows[i] = i;
+        }
+        w.table("methods", methodCount(), 5);
+        w.column("クラス名", ColumnarFile.STRING, methodClassNames(methodRows));
+        w.column("メソッド名", ColumnarFile.STRING, methodNames(methodRows));
+        w.column("戻り値型", ColumnarFile.STRING, methodType.toArray());
+        w.column("ファイル名", ColumnarFile.STRING, methodFile.toArray());
+        w.column("定義行", ColumnarFile.INT, methodLine.toArray());
+
+        int[] callRows = callMethod.toArray();
+        int[] callees = callEnt.toArray();
+        w.table("calls", callCount(), 6);
+        w.column("呼び出し元クラス", ColumnarFile.STRING, methodClassNames(callRows));
+        w.column("呼び出し元メソッド", ColumnarFile.STRING, methodNames(callRows));
+        w.column("呼び出し先クラス", ColumnarFile.STRING, entityStrings(entOwner, callees));
+        w.column("呼び出し先メソッド", ColumnarFile.STRING, entityStrings(entName, callees));
+        w.column("ファイル名", ColumnarFile.STRING, callFile.toArray());
+        w.column("呼び出し行", ColumnarFile.INT, callLine.toArray());
+
+        int[] callbyRows = callbyMethod.toArray();
+        int[] callers = callbyEnt.toArray();
+        w.table("calledby", callByCount(), 6);
+        w.column("対象クラス", ColumnarFile.STRING, methodClassNames(callbyRows));
+        w.column("対象メソッド", ColumnarFile.STRING, methodNames(callbyRows));
+        w.column("呼び出し元クラス", ColumnarFile.STRING, entityStrings(entOwner, callers));
+        w.column("呼び出し元メソッド", ColumnarFile.STRING, entityStrings(entName, callers));
+        w.column("ファイル名", ColumnarFile.STRING, callbyFile.toArray());
+        w.column("呼び出し行", ColumnarFile.INT, callbyLine.toArray());
+    }
+
+    /** メソッド行ごとの所属クラス名の文字列 ID */
+    private int[] methodClassNames(int[] methodRows) {
+        int[] ids = new int[methodRows.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = className.get(methodClass.get(methodRows[i]));
+        }
+        return ids;
+    }
+
+    /** メソッド行ごとのメソッド名の文字列 ID */
+    private int[] methodNames(int[] methodRows) {
+        int[] ids = new int[methodRows.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entName.get(methodEnt.get(methodRows[i]));
+        }
+        return ids;
+    }
+
+    /** エンティティ表の位置ごとの column（短縮名・所属クラス名）の文字列 ID */
+    private static int[] entityStrings(IntList column, int[] ents) {
+        int[] ids = new int[ents.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = column.get(ents[i]);
+        }
+        return ids;
+    }
+
+    /** クラス一覧をCSV出力 */
+    void writeClasses(CsvWriter w) throws IOException {
+        w.row(CLASSES_HEADER);
+        writeClassRows(w);
+    }
+
+    /** クラス一覧の行だけをCSV出力（ヘッダ行なし） */
+    void writeClassRows(CsvWriter w) throws IOException {
+        for (int i = 0; i < classCount(); i++) {
+            w.field(string(className.get(i)))
+                .field(string(classKind.get(i)))
+                .field(string(classFile.get(i)))
+                .field(classLine.get(i))
+                .endRow();
+        }
+    }
+
+    /** メソッド定義一覧をCSV出力 */
+    void writeMethods(CsvWriter w) throws IOException {
+        w.row(METHODS_HEADER);
+        writeMethodRows(w);
+    }
+
+    /** メソッド定義一覧の行だけをCSV出力（ヘッダ行なし） */
+    void writeMethodRows(CsvWriter w) throws IOException {
+        for (int i = 0; i < methodCount(); i++) {
+            w.field(string(className.get(methodClass.get(i))))
+                .field(string(entName.get(methodEnt.get(i))))
+                .field(string(methodType.get(i)))
+                .field(string(methodFile.get(i)))
+                .field(methodLine.get(i))
+                .endRow();
+        }
+    }
+
+    /** 関数呼び出し一覧をCSV出力 */
+    void writeCalls(CsvWriter w) throws IOException {
+        w.row(CALLS_HEADER);
+        writeCallRows(w);
+    }
+
+    /** 関数呼び出し一覧の行だけをCSV出力（ヘッダ行なし） */
+    void writeCallRows(CsvWriter w) throws IOException {
+        for (int i = 0; i < callCount(); i++) {
+            int method = callMethod.get(i);
+            int callee = callEnt.get(i);
+            w.field(string(className.get(methodClass.get(method))))
+                .field(string(entName.get(methodEnt.get(method))))
+                .field(string(entOwner.get(callee)))
+                .field(string(entName.get(callee)))
+                .field(string(callFile.get(i)))
+                .field(callLine.get(i))
+                .endRow();
+        }
+    }
+
+    /** 集約した関数呼び出し一覧をCSV出力 */
+    void writeCalls(CsvWriter w, CallAggregate calls) throws IOException {
+        w.row("呼び出し元クラス", "呼び出し元メソッド", "呼び出し先クラス", "呼び出し先メソッド", "ファイル名",
+            "呼び出し回数", "最初の行", "最後の行", "呼び出し行");
+        writeAggregate(w, calls);
+    }
+
+    /** 集約した関数の被呼び出し一覧をCSV出力 */
+    void writeCalledBy(CsvWriter w, CallAggregate calledBy) throws IOException {
+        w.row("対象クラス", "対象メソッド", "呼び出し元クラス", "呼び出し元メソッド", "ファイル名",
+            "呼び出し回数", "最初の行", "最後の行", "呼び出し行");
+        writeAggregate(w, calledBy);
+    }
+
+    private void writeAggregate(CsvWriter w, CallAggregate a) throws IOException {
+        for (int g = 0; g < a.size(); g++) {
+            int method = a.method(g);
+            int other = a.ent(g);
+            w.field(string(className.get(methodClass.get(method))))
+                .field(string(entName.get(methodEnt.get(method))))
+                .field(string(entOwner.get(other)))
+                .field(string(entName.get(other)))
+                .field(string(a.file(g)))
+                .field(a.count(g))
+                .field(a.firstLine(g))
+                .field(a.lastLine(g))
+                .field(a.lineList(g))
+                .endRow();
+        }
+    }
+
+    /** 関数の被呼び出し一覧をCSV出力 */
+    void writeCalledBy(CsvWriter w) throws IOException {
+        w.row(CALLED_BY_HEADER);
+        writeCalledByRows(w);
+    }
+
+    /** 関数の被呼び出し一覧の行だけをCSV出力（ヘッダ行なし） */
+    void writeCalledByRows(CsvWriter w) throws IOException {
+        for (int i = 0; i < callByCount(); i++) {
+            int method = callbyMethod.get(i);
+            int caller = callbyEnt.get(i);
+            w.field(string(className.get(methodClass.get(method))))
+                .field(string(entName.get(methodEnt.get(method))))
+                .field(string(entOwner.get(caller)))
+                .field(string(entName.get(caller)))
+                .field(string(callbyFile.get(i)))
+                .field(callbyLine.get(i))
+                .endRow();
+        }
+    }
+}
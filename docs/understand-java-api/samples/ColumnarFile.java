@@ -0,0 +1,420 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * csv-all の4つの表を列ごとに格納するバイナリ形式（列指向形式）の書き込みと読み込み。
+ *
+ * CSV では同じクラス名・メソッド名が行ごとに繰り返されるが、この形式では文字列を1つの
+ * 辞書にまとめ、各列は辞書の番号または数値を int32 の配列として持つ。各列はファイル内で
+ * 8 バイト境界に揃えて連続して置くため、読み込み側はファイルをメモリマップし、
+ * 列をコピーせずに {@link IntBuffer} として参照できる。
+ *
+ * <pre>
+ *   先頭
+ *     byte[4] MAGIC（"UJCF"）
+ *     int32   VERSION
+ *   ブロック（それぞれ 8 バイト境界から始まる）
+ *     辞書の位置 : int32[文字列数 + 1]  各文字列の先頭（辞書本体の先頭からのバイト位置）
+ *     辞書の本体 : byte[]               UTF-8 の文字列を連結したもの
+ *     列         : int32[行数]          表ごと・列ごとに1つ
+ *   フッタ
+ *     int32   文字列数
+ *     int64   辞書の位置のファイル内位置
+ *     int64   辞書の本体のファイル内位置
+ *     int32   表の数
+ *     表ごとに: 名前, int32 行数, int32 列数,
+ *               列ごとに: 名前, int32 種別（0: 辞書の番号, 1: 数値）, int64 ファイル内位置
+ *   末尾
+ *     int64   フッタのファイル内位置
+ *     byte[4] MAGIC
+ *
+ *   名前は int32 UTF-8 バイト数 + バイト列。数値はすべてリトルエンディアン。
+ *   辞書の番号 -1 は null（CSV の空フィールド）を表す。
+ * </pre>
+ *
+ * Apache Arrow の IPC ファイル形式と同じく、先頭と末尾に MAGIC を置き、ブロックを
+ * 先に書いてから末尾のフッタで位置を示す。列の型は int32 だけで、Arrow のライブラリでは
+ * そのまま読めないが、各列は Arrow の int32 配列（null なし）と同じバイト列になる。
+ */
+final class ColumnarFile {
+
+    /** 辞書の番号の列 */
+    static final int STRING = 0;
+    /** 数値の列 */
+    static final int INT = 1;
+
+    private static final byte[] MAGIC = { 'U', 'J', 'C', 'F' };
+    private static final int VERSION = 1;
+    private static final int ALIGNMENT = 8;
+
+    private ColumnarFile() {
+    }
+
+    /** 列指向形式の書き込み。辞書 → 表（列を順に）→ close() の順に呼び出す */
+    static final class Writer implements Closeable {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final ByteArrayOutputStream footer = new ByteArrayOutputStream();
+        private long position;
+        private int tableCount;
+        private int stringCount;
+        private long offsetsPosition = -1;
+        private long bytesPosition = -1;
+        // 書き込み中の表の残りの列数
+        private int remainingColumns;
+        private int rowCount;
+
+        Writer(WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            buffer.put(MAGIC).putInt(VERSION);
+            position = buffer.position();
+        }
+
+        /** file に書き出すライターを作成する */
+        static Writer create(File file) throws IOException {
+            return new Writer(FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        }
+
+        /** 文字列辞書を書き出す（辞書の番号は strings の ID と同じ） */
+        void strings(StringTable strings) throws IOException {
+            stringCount = strings.size();
+            byte[][] utf8 = new byte[stringCount][];
+            align();
+            offsetsPosition = position;
+            int offset = 0;
+            putInt(0);
+            for (int i = 0; i < stringCount; i++) {
+                utf8[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                offset += utf8[i].length;
+                putInt(offset);
+            }
+            bytesPosition = position;
+            for (byte[] bytes : utf8) {
+                putBytes(bytes);
+            }
+        }
+
+        /** 表を開始する。続けて columns 個の列を書き出す */
+        void table(String name, int rows, int columns) throws IOException {
+            if (remainingColumns != 0) {
+                throw new IllegalStateException("前の表の列が足りません");
+            }
+            tableCount++;
+            rowCount = rows;
+            remainingColumns = columns;
+            writeName(name);
+            writeFooterInt(rows);
+            writeFooterInt(columns);
+        }
+
+        /** 列を書き出す（values の長さは表の行数と同じ） */
+        void column(String name, int type, int[] values) throws IOException {
+            if (remainingColumns == 0 || values.length != rowCount) {
+                throw new IllegalStateException("列 " + name + " の行数が表と一致しません");
+            }
+            remainingColumns--;
+            align();
+            writeName(name);
+            writeFooterInt(type);
+            writeFooterLong(position);
+            for (int value : values) {
+                putInt(value);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (remainingColumns != 0 || offsetsPosition < 0) {
+                    throw new IllegalStateException("辞書または表の列が書き出されていません");
+                }
+                align();
+                long footerPosition = position;
+                putInt(stringCount);
+                putLong(offsetsPosition);
+                putLong(bytesPosition);
+                putInt(tableCount);
+                putBytes(footer.toByteArray());
+                putLong(footerPosition);
+                putBytes(MAGIC);
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void writeName(String name) {
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            writeFooterInt(utf8.length);
+            footer.write(utf8, 0, utf8.length);
+        }
+
+        private void writeFooterInt(int value) {
+            ByteBuffer b = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+            footer.write(b.array(), 0, Integer.BYTES);
+        }
+
+        private void writeFooterLong(long value) {
+            ByteBuffer b = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(value);
+            footer.write(b.array(), 0, Long.BYTES);
+        }
+
+        private void align() throws IOException {
+            while (position % ALIGNMENT != 0) {
+                putBytes(new byte[] { 0 });
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                drain();
+            }
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        private void putLong(long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES) {
+                drain();
+            }
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+            position += bytes.length;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 列指向形式の読み込み。辞書の位置・辞書の本体・列をそれぞれメモリマップし、列は複製せずに参照する。
+     * ファイル内位置は int64 のまま扱うため、ファイル全体が 2GB を超えてもよい（1つの列・辞書の本体は 2GB 未満）。
+     */
+    static final class Reader {
+        private final IntBuffer stringOffsets;
+        private final ByteBuffer stringBytes;
+        private final Map<String, Table> tables = new LinkedHashMap<>();
+
+        private Reader(FileChannel channel) throws IOException {
+            long end = channel.size();
+            if (end < 2 * MAGIC.length + Integer.BYTES + Long.BYTES) {
+                throw new IllegalArgumentException("列指向形式のファイルではないか、バージョンが異なります");
+            }
+            ByteBuffer head = read(channel, 0, MAGIC.length + Integer.BYTES);
+            ByteBuffer tail = read(channel, end - Long.BYTES - MAGIC.length, Long.BYTES + MAGIC.length);
+            long footerPosition = tail.getLong();
+            if (!hasMagic(head) || head.getInt() != VERSION || !hasMagic(tail)
+                    || footerPosition < 0 || footerPosition > end - Long.BYTES - MAGIC.length) {
+                throw new IllegalArgumentException("列指向形式のファイルではないか、バージョンが異なります");
+            }
+            ByteBuffer footer = read(channel, footerPosition, end - Long.BYTES - MAGIC.length - footerPosition);
+            int stringCount = footer.getInt();
+            long offsetsPosition = footer.getLong();
+            long bytesPosition = footer.getLong();
+            stringOffsets = map(channel, offsetsPosition, (stringCount + 1L) * Integer.BYTES).asIntBuffer();
+            stringBytes = map(channel, bytesPosition, stringOffsets.get(stringCount));
+            int tableCount = footer.getInt();
+            for (int t = 0; t < tableCount; t++) {
+                String name = readName(footer);
+                int rows = footer.getInt();
+                int columns = footer.getInt();
+                Table table = new Table(name, rows);
+                for (int c = 0; c < columns; c++) {
+                    String column = readName(footer);
+                    int type = footer.getInt();
+                    long position = footer.getLong();
+                    table.columns.put(column,
+                        new Column(type, map(channel, position, (long) rows * Integer.BYTES).asIntBuffer()));
+                }
+                tables.put(name, table);
+            }
+        }
+
+        /** file を開く（マップした領域はファイルを閉じた後も参照できる） */
+        static Reader open(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return new Reader(channel);
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("フッタが途中で切れています: " + file, e);
+            }
+        }
+
+        /** 表の名前（書き出した順） */
+        Set<String> tableNames() {
+            return Collections.unmodifiableSet(tables.keySet());
+        }
+
+        /** 表を返す（ない場合は例外） */
+        Table table(String name) {
+            Table table = tables.get(name);
+            if (table == null) {
+                throw new IllegalArgumentException("表がありません: " + name);
+            }
+            return table;
+        }
+
+        int stringCount() {
+            return stringOffsets.limit() - 1;
+        }
+
+        /** 辞書の番号から文字列を取得する（-1 は null） */
+        String string(int id) {
+            if (id == StringTable.NULL) {
+                return null;
+            }
+            int from = stringOffsets.get(id);
+            ByteBuffer utf8 = stringBytes.duplicate();
+            utf8.position(from).limit(stringOffsets.get(id + 1));
+            return StandardCharsets.UTF_8.decode(utf8).toString();
+        }
+
+        private static boolean hasMagic(ByteBuffer b) {
+            for (byte m : MAGIC) {
+                if (b.get() != m) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** position から length バイトを読み込む（フッタなど、小さいブロック用） */
+        private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("ブロックのバイト数が不正です: " + length);
+            }
+            ByteBuffer b = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+            while (b.hasRemaining()) {
+                if (channel.read(b, position + b.position()) < 0) {
+                    throw new EOFException("ファイルが途中で切れています");
+                }
+            }
+            return b.flip();
+        }
+
+        /** position から length バイトをメモリマップする */
+        private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+            if (position < 0 || length < 0 || length > Integer.MAX_VALUE || position + length > channel.size()) {
+                throw new IllegalArgumentException("ブロックがファイルの範囲外です: 位置 " + position + ", " + length + " バイト");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static String readName(ByteBuffer footer) {
+            byte[] utf8 = new byte[footer.getInt()];
+            footer.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** 1つの表（列の名前 → 列） */
+    static final class Table {
+        private final String name;
+        private final int rowCount;
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+
+        private Table(String name, int rowCount) {
+            this.name = name;
+            this.rowCount = rowCount;
+        }
+
+        String name() {
+            return name;
+        }
+
+        int rowCount() {
+            return rowCount;
+        }
+
+        Set<String> columnNames() {
+            return Collections.unmodifiableSet(columns.keySet());
+        }
+
+        /** 列の種別（{@link #STRING} または {@link #INT}） */
+        int type(String column) {
+            return column(column).type;
+        }
+
+        /** 列の値（読み取り専用。位置 0 から行数分） */
+        IntBuffer ints(String column) {
+            return column(column).values.duplicate();
+        }
+
+        private Column column(String name) {
+            Column column = columns.get(name);
+            if (column == null) {
+                throw new IllegalArgumentException("列がありません: " + this.name + "." + name);
+            }
+            return column;
+        }
+    }
+
+    private static final class Column {
+        final int type;
+        final IntBuffer values;
+
+        Column(int type, IntBuffer values) {
+            this.type = type;
+            this.values = values;
+        }
+    }
+
+    /**
+     * ファイルの内容を表示する。
+     *
+     * 使い方:
+     *   java -cp . ColumnarFile <ファイル> [表の名前 [行数]]
+     *
+     * 表の名前を省略した場合は各表の行数と列を、指定した場合は先頭の行（省略時は 10 行）を表示する。
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("使い方: java ColumnarFile <ファイル> [表の名前 [行数]]");
+            System.exit(1);
+        }
+        Reader reader = Reader.open(new File(args[0]));
+        if (args.length < 2) {
+            System.out.println("文字列: " + reader.stringCount() + " 件");
+            for (String name : reader.tableNames()) {
+                Table table = reader.table(name);
+                System.out.println(name + ": " + table.rowCount() + " 行 " + table.columnNames());
+            }
+            return;
+        }
+        Table table = reader.table(args[1]);
+        int rows = Math.min(table.rowCount(), args.length > 2 ? Integer.parseInt(args[2]) : 10);
+        List<String> names = new ArrayList<>(table.columnNames());
+        System.out.println(String.join("\t", names));
+        for (int row = 0; row < rows; row++) {
+            StringJoiner line = new StringJoiner("\t");
+            for (String name : names) {
+                int value = table.ints(name).get(row);
+                line.add(table.type(name) == STRING ? String.valueOf(reader.string(value)) : String.valueOf(value));
+            }
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * CSV 出力用のライター。
+ *
+ * 1行ごとに書式文字列を解析する {@code printf} の代わりに、フィールドを直接文字バッファへ
+ * 追記し、文字コード変換後のバイト列を大きめの ByteBuffer 経由でチャネルに書き出す。
+ * 使用するメモリはバッファ分だけで、出力行数に依存しない。
+ *
+ * フィールドは RFC 4180 に従ってエスケープする。カンマ・ダブルクォート・改行を含む
+ * フィールド（{@code Map<K,V>} のようなジェネリクス型など）はダブルクォートで囲み、
+ * 中のダブルクォートは2つ重ねる。null は空フィールドとして出力する。
+ *
+ * gzip を指定した場合は {@link Deflater} で圧縮し、gzip 形式（RFC 1952）のヘッダと
+ * トレーラを付けて書き出す。文字コードと改行コードは従来の {@code PrintWriter} 出力に
+ * 合わせ、プラットフォームの既定値を使う。
+ */
+final class CsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final char[] NEWLINE = System.lineSeparator().toCharArray();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final char[] digits = new char[11];
+    private boolean firstField = true;
+
+    // gzip 出力時のみ使用
+    private final Deflater deflater;
+    private final ByteBuffer compressed;
+    private final CRC32 crc;
+    private long uncompressedSize;
+
+    CsvWriter(WritableByteChannel channel, Charset charset, boolean gzip) throws IOException {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (gzip) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            compressed = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            crc = new CRC32();
+            writeGzipHeader();
+        } else {
+            deflater = null;
+            compressed = null;
+            crc = null;
+        }
+    }
+
+    /** dir/name（gzip の場合は name.gz）に書き出すライターを作成する */
+    static CsvWriter create(File dir, String name, boolean gzip) throws IOException {
+        Path path = new File(dir, fileName(name, gzip)).toPath();
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new CsvWriter(channel, Charset.defaultCharset(), gzip);
+    }
+
+    /** 出力ファイル名（gzip の場合は .gz を付ける） */
+    static String fileName(String name, boolean gzip) {
+        return gzip ? name + ".gz" : name;
+    }
+
+    /** ヘッダ行など、文字列だけの1行を書き出す */
+    void row(String... fields) throws IOException {
+        for (String field : fields) {
+            field(field);
+        }
+        endRow();
+    }
+
+    /** 文字列フィールドを追加する */
+    CsvWriter field(String value) throws IOException {
+        separator();
+        if (value == null || value.isEmpty()) {
+            return this;
+        }
+        if (needsQuote(value)) {
+            append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    append('"');
+                }
+                append(c);
+            }
+            append('"');
+        } else {
+            append(value);
+        }
+        return this;
+    }
+
+    /** 数値フィールドを追加する（文字列を生成せずに10進数字を書き込む） */
+    CsvWriter field(int value) throws IOException {
+        separator();
+        if (chars.remaining() < digits.length) {
+            drainChars(false);
+        }
+        long v = value;
+        if (v < 0) {
+            chars.put('-');
+            v = -v;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        chars.put(digits, pos, digits.length - pos);
+        return this;
+    }
+
+    /** 行を終える */
+    void endRow() throws IOException {
+        if (chars.remaining() < NEWLINE.length) {
+            drainChars(false);
+        }
+        chars.put(NEWLINE);
+        firstField = true;
+    }
+
+    /** バッファに残っている内容をチャネルへ書き出す */
+    void flush() throws IOException {
+        drainChars(false);
+        drainBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drainChars(true);
+            drainBytes();
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflateOnce();
+                }
+                writeGzipTrailer();
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (!firstField) {
+            append(',');
+        }
+        firstField = false;
+    }
+
+    private static boolean needsQuote(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void append(char c) throws IOException {
+        if (!chars.hasRemaining()) {
+            drainChars(false);
+        }
+        chars.put(c);
+    }
+
+    private void append(String s) throws IOException {
+        int offset = 0;
+        while (offset < s.length()) {
+            if (!chars.hasRemaining()) {
+                drainChars(false);
+            }
+            int n = Math.min(chars.remaining(), s.length() - offset);
+            chars.put(s, offset, offset + n);
+            offset += n;
+        }
+    }
+
+    /** 文字バッファの内容をバイト列に変換する */
+    private void drainChars(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drainBytes();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        chars.compact();
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                drainBytes();
+            }
+        }
+    }
+
+    /** バイトバッファの内容をチャネル（gzip の場合は Deflater）へ渡す */
+    private void drainBytes() throws IOException {
+        bytes.flip();
+        if (deflater == null) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } else {
+            uncompressedSize += bytes.remaining();
+            crc.update(bytes.duplicate());
+            // Deflater は渡したバッファを保持し続けるため、clear() の影響を受けない slice を渡す
+            deflater.setInput(bytes.slice());
+            while (!deflater.needsInput()) {
+                deflateOnce();
+            }
+        }
+        bytes.clear();
+    }
+
+    private void deflateOnce() throws IOException {
+        deflater.deflate(compressed);
+        compressed.flip();
+        while (compressed.hasRemaining()) {
+            channel.write(compressed);
+        }
+        compressed.clear();
+    }
+
+    private void writeGzipHeader() throws IOException {
+        // ID1, ID2, CM=deflate, FLG=0, MTIME=0, XFL=0, OS=unknown
+        ByteBuffer header = ByteBuffer.wrap(new byte[] {
+            0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff
+        });
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private void writeGzipTrailer() throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue());
+        trailer.putInt((int) uncompressedSize);
+        trailer.flip();
+        while (trailer.hasRemaining()) {
+            channel.write(trailer);
+        }
+    }
+}
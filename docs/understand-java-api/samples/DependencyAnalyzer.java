@@ -1,5 +1,6 @@
 import com.scitools.understand.*;
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 
 /**
@@ -8,98 +9,491 @@ import java.util.*;
  * 使い方:
  *   java -cp "Understand.jar;." DependencyAnalyzer <UDBファイルパス> <コマンド> [引数]
  *
+ * UDBファイルパスに "@ファイル"（1行に1つのパス）で複数の UDB を指定すると、
+ * 各 UDB を同時に開いて取り込み、プロジェクト間の呼び出しを完全修飾名で解決した1つのコード構造として
+ * csv-all / csv-diff / impact / chain を実行する（{@link MergedSnapshot}）。csv-all はプロジェクト間の
+ * 呼び出し一覧（cross-calls.csv）も出力する。カンマ区切りでも指定できるが、区切った各要素が
+ * すべて存在するファイルの場合だけ複数の UDB とみなす（カンマを含む1つのパスはそのまま開く）。
+ *
  * コマンド:
  *   file-deps   - ファイル間依存関係を表示
  *   class-deps  - クラス間依存関係を表示
+ *   file-matrix - ファイル間の依存行列（参照数）を出力（第3引数に出力ディレクトリ）
+ *   class-cycles - クラス間の循環依存（強連結成分）を表示
+ *   layers      - クラスを依存関係のレイヤーに分けて表示
  *   csv-all     - コード構造情報をCSV一括出力（第3引数に出力ディレクトリ）
+ *   csv-all-js  - HTML を起点に JavaScript のコード構造をCSV一括出力（第3引数に HTML ファイル名、
+ *                 第4引数に出力ディレクトリ。HTML はカンマ区切り・"*.html" のようなパターン・
+ *                 "@ファイル"（1行に1つの名前）で複数指定できる）
+ *   csv-diff    - 以前の UDB またはキャッシュファイル（第3引数）との差分をCSV出力（第4引数に出力ディレクトリ）。
+ *                 比較対象を省略すると（第3引数に出力ディレクトリ）、--cache のキャッシュファイルに
+ *                 前回保存したスナップショットと比較し、今回のスナップショットで置き換える
+ *   impact      - メソッドの影響範囲（呼び出し元を再帰的にたどる。第3引数にメソッド名）
+ *   chain       - 2つのメソッド間の呼び出し経路（第3引数に呼び出し元、第4引数に呼び出し先）
+ *
+ * オプション:
+ *   --owner-cache-size N  - 所属クラス逆引きキャッシュの上限件数（省略時は無制限）
+ *   --gzip                - csv-all の出力を gzip 圧縮する（*.csv.gz）
+ *   --aggregate           - csv-all の calls.csv / calledby.csv を同じメソッドの組ごとに1行にまとめ、
+ *                           呼び出し回数・最初と最後の行・呼び出し行の一覧を出力する
+ *   --threads N           - csv-all をクラス単位に分割し N スレッドで並列に取り込む
+ *                           （csv-all-js では HTML・JS ファイルを走査するスレッド数。省略時は 1。
+ *                           csv-all-js のワーカーは UDB のハンドルを共有する）
+ *   --db-per-worker       - --threads 指定時、ワーカーごとに UDB を開く（ハンドルを共有しない）
+ *   --cache FILE          - 取り込んだ内容をキャッシュファイルに保存し、UDB が更新されていなければ
+ *                           次回以降は UDB を開かずにキャッシュから読み込む
+ *   --depth N             - impact / chain でたどる深さの上限（省略時は無制限）。
+ *                           file-matrix --rollup dir ではディレクトリの階層数
+ *   --rollup R            - file-matrix をディレクトリ（dir）またはパッケージ（package）ごとにまとめる
+ *   --metrics             - Understand API の呼び出しと処理段階の回数・所要時間を終了時に表示する
+ *   --metrics-json FILE   - 同じ計測結果を JSON でファイルに書き出す
+ *   --stream              - csv-all をクラス単位のバッチごとに取り込み、CSV に追記しながら出力する
+ *                           （{@link StreamingCsvExport}。出力ディレクトリにチェックポイントを記録する）
+ *   --batch N             - --stream の1バッチのクラス数（省略時は 500）
+ *   --resume              - --stream の出力が途中で止まった場合に、チェックポイントの続きから再開する
+ *   --progress            - --stream の進捗（クラス数・1秒あたりの行数・残り時間の見込み）を
+ *                           10 秒ごとに標準エラー出力に表示する
+ *   --format F            - csv-all / file-matrix の出力形式。csv（省略時）または columnar（表を
+ *                           列指向のバイナリ形式で1ファイルに出力。{@link ColumnarFile}）
  */
 public class DependencyAnalyzer {
 
+    /** 値を取るオプション */
+    private static final Set<String> VALUE_OPTIONS = Set.of("--owner-cache-size", "--threads", "--cache", "--depth",
+        "--format", "--metrics-json", "--rollup", "--batch");
+    /** file-matrix の出力ファイル名（拡張子なし） */
+    static final String MATRIX_FILE = "file-matrix";
+    /** csv-all --progress の表示間隔（秒） */
+    private static final int PROGRESS_INTERVAL = 10;
+    /** csv-all --format columnar の出力ファイル名 */
+    static final String COLUMNAR_FILE = "code-structure.cols";
+
+    /** 複数の UDB を指定した場合に実行できるコマンド */
+    private static final Set<String> MULTI_UDB_COMMANDS = Set.of("csv-all", "csv-diff", "impact", "chain");
+
+    // UDB は必要になったときに1回だけ開く（キャッシュから読み込めた場合は開かない）
+    private static String udbPath;
+    // 複数の UDB を指定した場合のパス（1つの場合は null）と、まとめたスナップショット
+    private static String[] udbPaths;
+    private static MergedSnapshot merged;
+    private static Database db;
+    // --cache 指定時のキャッシュ（指定がなければ null）
+    private static SnapshotCache cache;
+    // スナップショットを UDB から取り込んだ場合の所属クラス逆引き（キャッシュから読み込んだ場合は null）
+    private static OwnerResolver owners;
+
     public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        args = parseOptions(args, options);
         if (args.length < 2) {
             System.err.println("使い方: java DependencyAnalyzer <UDBファイルパス> <コマンド> [引数]");
             System.exit(1);
         }
 
-        Database db = null;
+        if (options.containsKey("--metrics") || options.containsKey("--metrics-json")) {
+            ApiMetrics.enable();
+        }
+        List<String> paths = udbList(args[0]);
+        if (paths.size() > 1) {
+            udbPaths = paths.toArray(new String[0]);
+            if (!MULTI_UDB_COMMANDS.contains(args[1])) {
+                System.err.println("複数の UDB を指定できるのは " + String.join(" / ", new TreeSet<>(MULTI_UDB_COMMANDS))
+                    + " だけです: " + args[1]);
+                System.exit(1);
+            }
+            if (options.containsKey("--cache")) {
+                System.err.println("警告: 複数の UDB を指定した場合、--cache は使用しません");
+                options.remove("--cache");
+            }
+        } else {
+            udbPath = paths.isEmpty() ? args[0] : paths.get(0);
+        }
+        if (options.containsKey("--cache")) {
+            cache = SnapshotCache.open(new File(udbPath), new File(options.get("--cache")));
+        }
         try {
-            db = Understand.open(args[0]);
             String command = args[1];
 
             switch (command) {
                 case "file-deps":
-                    showFileDependencies(db);
+                    showFileDependencies(loadDependencies(SnapshotCache.FILE_DEPS), System.out);
+                    break;
+                case "file-matrix":
+                    exportFileMatrix(args.length > 2 ? args[2] : null, options);
                     break;
                 case "class-deps":
-                    showClassDependencies(db);
+                    showClassDependencies(loadDependencies(SnapshotCache.CLASS_DEPS));
+                    break;
+                case "class-cycles":
+                    showClassCycles(loadClassGraph());
+                    break;
+                case "layers":
+                    showLayers(loadClassGraph());
                     break;
                 case "csv-all":
                     String outputDir = args.length > 2 ? args[2] : null;
-                    exportAllCsv(db, outputDir);
+                    exportAllCsv(outputDir, options);
+                    break;
+                case "csv-all-js":
+                    exportAllJsCsv(args.length > 2 ? args[2] : null, args.length > 3 ? args[3] : null, options);
+                    break;
+                case "csv-diff":
+                    if (args.length == 3) {
+                        exportDiffCsv(null, args[2], options);
+                    } else {
+                        exportDiffCsv(args.length > 2 ? args[2] : null, args.length > 3 ? args[3] : null, options);
+                    }
+                    break;
+                case "impact":
+                    showImpact(args.length > 2 ? args[2] : null, options);
+                    break;
+                case "chain":
+                    showCallChain(args.length > 2 ? args[2] : null, args.length > 3 ? args[3] : null, options);
                     break;
                 default:
                     System.err.println("不明なコマンド: " + command);
             }
         } finally {
             if (db != null) db.close();
+            ApiMetrics.report(options);
+        }
+    }
+
+    /**
+     * UDB ファイルパスの一覧を返す。"@ファイル"（1行に1つ）はその内容、カンマ区切りは区切った各要素が
+     * すべて存在するファイルの場合だけ分けて返し、それ以外は arg を1つのパスとして返す
+     * （Windows のパスにはカンマを含められるため）。
+     */
+    private static List<String> udbList(String arg) throws IOException {
+        if (arg.startsWith("@") || arg.indexOf(',') < 0) {
+            return nameList(arg);
         }
+        List<String> paths = nameList(arg);
+        for (String path : paths) {
+            if (!new File(path).isFile()) {
+                return Collections.singletonList(arg);
+            }
+        }
+        return paths;
+    }
+
+    /** カンマ区切り、または "@ファイル"（1行に1つ）で指定した名前の一覧を返す（空の要素は除く） */
+    private static List<String> nameList(String arg) throws IOException {
+        List<String> names = new ArrayList<>();
+        if (arg.startsWith("@")) {
+            for (String line : Files.readAllLines(new File(arg.substring(1)).toPath())) {
+                if (!line.trim().isEmpty()) {
+                    names.add(line.trim());
+                }
+            }
+        } else {
+            for (String name : arg.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    /** UDB を開く（開いていなければ） */
+    private static Database database() throws UnderstandException {
+        if (db == null) {
+            db = ApiMetrics.phase("UDB を開く", () -> Understand.open(udbPath));
+        }
+        return db;
+    }
+
+    /**
+     * コード構造のスナップショットをキャッシュから読み込む。
+     * キャッシュにない場合は UDB から取り込んで保存する（--threads 指定時は並列に取り込む）。
+     */
+    private static CodeSnapshot loadSnapshot(Map<String, String> options) throws Exception {
+        if (udbPaths != null) {
+            return loadMergedSnapshot(options);
+        }
+        if (cache != null && cache.contains(SnapshotCache.CODE)) {
+            CodeSnapshot cached = ApiMetrics.phase("キャッシュの読み込み",
+                () -> cache.read(SnapshotCache.CODE, CodeSnapshot::read));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Database udb = database();
+        CodeSnapshot snapshot = ApiMetrics.phase("コード構造の取り込み", () -> {
+            Entity[] classes = ApiMetrics.ents(udb, Query.CLASS_KINDS);
+            owners = new OwnerResolver(
+                Integer.parseInt(options.getOrDefault("--owner-cache-size", "0")));
+            int threads = Integer.parseInt(options.getOrDefault("--threads", "1"));
+            if (threads > 1) {
+                boolean dbPerWorker = options.containsKey("--db-per-worker");
+                try (ParallelSnapshotBuilder builder = new ParallelSnapshotBuilder(udbPath, threads, dbPerWorker, owners)) {
+                    return builder.build(classes);
+                }
+            }
+            return CodeSnapshot.build(classes, owners);
+        });
+        if (cache != null) {
+            ApiMetrics.phase("キャッシュの保存", () -> cache.store(SnapshotCache.CODE, snapshot::write));
+        }
+        return snapshot;
+    }
+
+    /**
+     * 複数の UDB を同時に開いて取り込み、1つにまとめたスナップショットを返す。
+     * --threads は UDB ごとの取り込みに使う（UDB の数だけのスレッドは別に使う）。
+     */
+    private static CodeSnapshot loadMergedSnapshot(Map<String, String> options) throws Exception {
+        if (merged == null) {
+            int threads = Integer.parseInt(options.getOrDefault("--threads", "1"));
+            merged = ApiMetrics.phase("複数 UDB の取り込み", () -> MergedSnapshot.build(udbPaths, threads,
+                options.containsKey("--db-per-worker"),
+                Integer.parseInt(options.getOrDefault("--owner-cache-size", "0"))));
+            System.err.println(udbPaths.length + " 個の UDB をまとめました");
+            System.err.println(merged.stats());
+        }
+        return merged.snapshot();
+    }
+
+    /**
+     * クラス間依存グラフ（class-cycles / layers）をキャッシュから読み込む。
+     * キャッシュにない場合は UDB から depends() だけを取り込んで保存する。
+     */
+    private static ClassGraph loadClassGraph() throws Exception {
+        if (cache != null && cache.contains(SnapshotCache.CLASS_GRAPH)) {
+            ClassGraph cached = ApiMetrics.phase("キャッシュの読み込み",
+                () -> cache.read(SnapshotCache.CLASS_GRAPH, ClassGraph::read));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Database udb = database();
+        ClassGraph graph = ApiMetrics.phase("依存関係の取り込み",
+            () -> ClassGraph.capture(ApiMetrics.ents(udb, Query.CLASS_KINDS)));
+        if (cache != null) {
+            ApiMetrics.phase("キャッシュの保存", () -> cache.store(SnapshotCache.CLASS_GRAPH, graph::write));
+        }
+        return graph;
+    }
+
+    /** 依存関係表をキャッシュから読み込む。キャッシュにない場合は UDB から取り込んで保存する */
+    private static DependencyMap loadDependencies(int kind) throws Exception {
+        if (cache != null && cache.contains(kind)) {
+            DependencyMap cached = ApiMetrics.phase("キャッシュの読み込み", () -> cache.read(kind, DependencyMap::read));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Database udb = database();
+        DependencyMap deps = ApiMetrics.phase("依存関係の取り込み", () ->
+            kind == SnapshotCache.FILE_DEPS ? DependencyMap.ofFiles(udb) : DependencyMap.ofClasses(udb));
+        if (cache != null) {
+            ApiMetrics.phase("キャッシュの保存", () -> cache.store(kind, deps::write));
+        }
+        return deps;
+    }
+
+    /** "--" で始まるオプションを options に取り出し、残りの位置引数を返す */
+    private static String[] parseOptions(String[] args, Map<String, String> options) {
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                params.add(arg);
+            } else if (VALUE_OPTIONS.contains(arg) && i + 1 < args.length) {
+                options.put(arg, args[++i]);
+            } else {
+                options.put(arg, "true");
+            }
+        }
+        return params.toArray(new String[0]);
     }
 
     /** ファイル間依存関係を表示 */
-    private static void showFileDependencies(Database db) {
-        Entity[] files = db.ents("file ~unknown ~unresolved");
-        System.out.println("=== ファイル間依存関係 ===");
-        for (Entity file : files) {
-            Map<Entity, Reference[]> deps = file.depends();
-            if (!deps.isEmpty()) {
-                System.out.println(file.name() + " が依存するファイル:");
-                for (Map.Entry<Entity, Reference[]> entry : deps.entrySet()) {
-                    System.out.printf("  → %s (%d箇所の参照)%n",
-                        entry.getKey().name(), entry.getValue().length);
+    static void showFileDependencies(DependencyMap deps, PrintStream out) {
+        out.println("=== ファイル間依存関係 ===");
+        for (int file = 0; file < deps.nodeCount(); file++) {
+            if (deps.depFrom(file) < deps.depTo(file)) {
+                out.println(deps.name(file) + " が依存するファイル:");
+                for (int d = deps.depFrom(file); d < deps.depTo(file); d++) {
+                    out.printf("  → %s (%d箇所の参照)%n", deps.depName(d), deps.depCount(d));
                 }
             }
         }
     }
 
+    /**
+     * ファイル間の依存行列を出力。depends() の参照数だけを疎行列に取り込み、
+     * --rollup 指定時はディレクトリ・パッケージごとにまとめる。
+     */
+    private static void exportFileMatrix(String outputDir, Map<String, String> options) throws Exception {
+        if (outputDir == null) {
+            System.err.println("出力ディレクトリを指定してください");
+            return;
+        }
+        String rollup = options.get("--rollup");
+        if (rollup != null && !"dir".equals(rollup) && !"package".equals(rollup)) {
+            System.err.println("不明な集約単位: " + rollup + "（dir または package）");
+            return;
+        }
+        String format = options.getOrDefault("--format", "csv");
+        if (!"csv".equals(format) && !"columnar".equals(format)) {
+            System.err.println("不明な出力形式: " + format);
+            return;
+        }
+        int threads = Integer.parseInt(options.getOrDefault("--threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        Database udb = database();
+        FileMatrix matrix = ApiMetrics.phase("依存関係の取り込み", () -> {
+            Entity[] files = ApiMetrics.ents(udb, Query.FILE_KINDS);
+            return FileMatrix.of(EntityStore.dependencies(files, threads));
+        });
+        System.out.printf("ファイル %d 件、依存 %d 組（参照 %d 箇所）%n",
+            matrix.size(), matrix.nonZeroCount(), matrix.total());
+        if ("dir".equals(rollup)) {
+            int depth = Integer.parseInt(options.getOrDefault("--depth", "0"));
+            matrix = matrix.rollup(path -> {
+                String directory = FileMatrix.directory(path, depth);
+                return directory.isEmpty() ? "." : directory;
+            });
+        } else if ("package".equals(rollup)) {
+            matrix = matrix.rollup(FileMatrix::javaPackage);
+        }
+        if (rollup != null) {
+            System.out.printf("%s %d 件、依存 %d 組にまとめました%n",
+                "dir".equals(rollup) ? "ディレクトリ" : "パッケージ", matrix.size(), matrix.nonZeroCount());
+        }
+
+        File dir = new File(outputDir);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file;
+        if ("columnar".equals(format)) {
+            file = new File(dir, MATRIX_FILE + ".cols");
+            try (ColumnarFile.Writer w = ColumnarFile.Writer.create(file)) {
+                matrix.writeColumns(w);
+            }
+        } else {
+            boolean gzip = options.containsKey("--gzip");
+            file = new File(dir, CsvWriter.fileName(MATRIX_FILE + ".csv", gzip));
+            try (CsvWriter w = CsvWriter.create(dir, MATRIX_FILE + ".csv", gzip)) {
+                matrix.writeCsv(w);
+            }
+        }
+        System.out.println("依存行列を出力しました: " + file.getAbsolutePath());
+    }
+
     /** クラス間依存関係を表示 */
-    private static void showClassDependencies(Database db) {
-        Entity[] classes = db.ents("class ~unknown ~unresolved");
+    private static void showClassDependencies(DependencyMap deps) {
         System.out.println("=== クラス間依存関係 ===");
-        for (Entity cls : classes) {
-            Map<Entity, Reference[]> deps = cls.depends();
-            if (!deps.isEmpty()) {
-                System.out.println(cls.longname() + " が依存するクラス:");
-                for (Map.Entry<Entity, Reference[]> entry : deps.entrySet()) {
-                    Entity depTarget = entry.getKey();
-                    Reference[] refs = entry.getValue();
-                    System.out.printf("  → %s (%d箇所)%n", depTarget.longname(), refs.length);
+        for (int cls = 0; cls < deps.nodeCount(); cls++) {
+            if (deps.depFrom(cls) < deps.depTo(cls)) {
+                System.out.println(deps.name(cls) + " が依存するクラス:");
+                for (int d = deps.depFrom(cls); d < deps.depTo(cls); d++) {
+                    System.out.printf("  → %s (%d箇所)%n", deps.depName(d), deps.depCount(d));
                     // 参照の詳細を表示（先頭3件）
-                    for (int i = 0; i < Math.min(3, refs.length); i++) {
-                        Reference ref = refs[i];
+                    for (int i = deps.detailFrom(d); i < deps.detailTo(d); i++) {
                         System.out.printf("      %s 行%d (種別: %s)%n",
-                            ref.file().name(), ref.line(), ref.kind().name());
+                            deps.detailFile(i), deps.detailLine(i), deps.detailKind(i));
                     }
-                    if (refs.length > 3) {
-                        System.out.printf("      ... 他 %d 件%n", refs.length - 3);
+                    if (deps.depCount(d) > DependencyMap.DETAIL_LIMIT) {
+                        System.out.printf("      ... 他 %d 件%n", deps.depCount(d) - DependencyMap.DETAIL_LIMIT);
                     }
                 }
             }
 
             // 逆方向: このクラスに依存しているクラス
-            Map<Entity, Reference[]> depsBy = cls.dependsby();
-            if (!depsBy.isEmpty()) {
-                System.out.println(cls.longname() + " に依存するクラス:");
-                for (Map.Entry<Entity, Reference[]> entry : depsBy.entrySet()) {
-                    System.out.printf("  ← %s (%d箇所)%n",
-                        entry.getKey().longname(), entry.getValue().length);
+            if (deps.byFrom(cls) < deps.byTo(cls)) {
+                System.out.println(deps.name(cls) + " に依存するクラス:");
+                for (int b = deps.byFrom(cls); b < deps.byTo(cls); b++) {
+                    System.out.printf("  ← %s (%d箇所)%n", deps.byName(b), deps.byCount(b));
                 }
             }
             System.out.println();
         }
     }
 
+    /** クラス間の循環依存を、クラス数の多い順に表示 */
+    private static void showClassCycles(ClassGraph graph) {
+        System.out.println("=== クラス間の循環依存 ===");
+        List<int[]> cycles = new ArrayList<>();
+        for (int[] members : graph.members()) {
+            if (members.length > 1) {
+                cycles.add(members);
+            }
+        }
+        cycles.sort((a, b) -> Integer.compare(b.length, a.length));
+
+        int classes = 0;
+        for (int i = 0; i < cycles.size(); i++) {
+            int[] members = cycles.get(i);
+            int component = graph.component(members[0]);
+            int total = 0;
+            int weakest = -1;
+            for (int node : members) {
+                for (int e = graph.depFrom(node); e < graph.depTo(node); e++) {
+                    if (graph.component(graph.target(e)) == component) {
+                        total += graph.weight(e);
+                        if (weakest < 0 || graph.weight(e) < graph.weight(weakest)) {
+                            weakest = e;
+                        }
+                    }
+                }
+            }
+            System.out.printf("循環 %d: %d クラス (循環内の参照 %d箇所)%n", i + 1, members.length, total);
+            for (int node : members) {
+                for (int e = graph.depFrom(node); e < graph.depTo(node); e++) {
+                    if (graph.component(graph.target(e)) == component) {
+                        System.out.printf("  %s → %s (%d箇所)%s%n", graph.name(node),
+                            graph.name(graph.target(e)), graph.weight(e), e == weakest ? " ※参照が最も少ない依存" : "");
+                    }
+                }
+            }
+            classes += members.length;
+        }
+        System.out.println("合計: " + cycles.size() + " 個の循環 (" + classes + " クラス)");
+    }
+
+    /** クラスを依存関係のレイヤーに分けて表示（レイヤー 0 は何にも依存しないクラス） */
+    private static void showLayers(ClassGraph graph) {
+        int[][] members = graph.members();
+        int[] layers = graph.layers();
+        int maxLayer = 0;
+        for (int layer : layers) {
+            maxLayer = Math.max(maxLayer, layer);
+        }
+        // レイヤーごとの成分（成分番号順）
+        List<List<Integer>> byLayer = new ArrayList<>();
+        for (int l = 0; l <= maxLayer; l++) {
+            byLayer.add(new ArrayList<>());
+        }
+        for (int c = 0; c < members.length; c++) {
+            byLayer.get(layers[c]).add(c);
+        }
+
+        System.out.println("=== クラスの依存レイヤー ===");
+        for (int l = 0; l <= maxLayer && graph.nodeCount() > 0; l++) {
+            System.out.println("レイヤー " + l + ":");
+            for (int c : byLayer.get(l)) {
+                if (members[c].length == 1) {
+                    System.out.println("  " + graph.name(members[c][0]));
+                } else {
+                    StringJoiner names = new StringJoiner(", ");
+                    for (int node : members[c]) {
+                        names.add(graph.name(node));
+                    }
+                    System.out.println("  [循環] " + names);
+                }
+            }
+        }
+        System.out.println("合計: " + (graph.nodeCount() > 0 ? maxLayer + 1 : 0) + " レイヤー ("
+            + graph.nodeCount() + " クラス)");
+    }
+
     /** コード構造情報をCSVファイルに一括出力 */
-    private static void exportAllCsv(Database db, String outputDir) throws IOException {
+    private static void exportAllCsv(String outputDir, Map<String, String> options) throws Exception {
         if (outputDir == null) {
             System.err.println("出力ディレクトリを指定してください");
             return;
@@ -109,110 +503,266 @@ public class DependencyAnalyzer {
             dir.mkdirs();
         }
 
-        Entity[] classes = db.ents("class ~unknown ~unresolved");
+        if (options.containsKey("--stream") || options.containsKey("--resume")) {
+            exportAllCsvStreaming(dir, options);
+            return;
+        }
 
-        exportClassesCsv(classes, dir);
-        exportMethodsCsv(classes, dir);
-        exportCallsCsv(classes, dir);
-        exportCalledByCsv(classes, dir);
+        // 1回の走査でクラス・メソッド・呼び出し関係を取り込み、4つのCSVを書き出す
+        CodeSnapshot snapshot = loadSnapshot(options);
+        String format = options.getOrDefault("--format", "csv");
+        if ("columnar".equals(format)) {
+            File file = new File(dir, COLUMNAR_FILE);
+            ApiMetrics.phase("列指向形式の出力", () -> {
+                try (ColumnarFile.Writer w = ColumnarFile.Writer.create(file)) {
+                    snapshot.writeColumns(w);
+                }
+            });
+            System.out.println("列指向形式で出力しました: " + file.getAbsolutePath());
+            System.out.println("  - 表: classes, methods, calls, calledby（" + file.length() + " バイト）");
+        } else if ("csv".equals(format)) {
+            boolean gzip = options.containsKey("--gzip");
+            // 集約した calls・calledby（--aggregate 指定時）
+            boolean aggregate = options.containsKey("--aggregate");
+            CallAggregate calls = aggregate
+                ? ApiMetrics.phase("呼び出し関係の集約", () -> snapshot.aggregateCalls()) : null;
+            CallAggregate calledBy = aggregate
+                ? ApiMetrics.phase("呼び出し関係の集約", () -> snapshot.aggregateCalledBy()) : null;
+            ApiMetrics.phase("CSV 出力", () -> snapshot.writeCsv(dir, gzip, calls, calledBy));
+
+            System.out.println("CSVを出力しました: " + dir.getAbsolutePath());
+            System.out.println("  - " + CsvWriter.fileName("classes.csv", gzip) + "（クラス一覧）");
+            System.out.println("  - " + CsvWriter.fileName("methods.csv", gzip) + "（関数定義一覧）");
+            System.out.println("  - " + CsvWriter.fileName("calls.csv", gzip) + "（関数呼び出し一覧）");
+            System.out.println("  - " + CsvWriter.fileName("calledby.csv", gzip) + "（関数の被呼び出し一覧）");
+            if (calls != null) {
+                System.out.printf("呼び出し関係を集約しました: calls %d → %d 行, calledby %d → %d 行%n",
+                    calls.rowCount(), calls.size(), calledBy.rowCount(), calledBy.size());
+            }
+        } else {
+            System.err.println("不明な出力形式: " + format);
+            return;
+        }
+        if (merged != null) {
+            boolean gzip = options.containsKey("--gzip");
+            try (CsvWriter w = CsvWriter.create(dir, "cross-calls.csv", gzip)) {
+                merged.writeCrossCalls(w);
+            }
+            System.out.println("  - " + CsvWriter.fileName("cross-calls.csv", gzip) + "（プロジェクト間の呼び出し一覧）");
+        } else if (owners != null) {
+            System.out.println(owners.stats());
+        } else {
+            System.out.println("キャッシュから読み込みました: " + cache.file());
+        }
+    }
+
+    /**
+     * コード構造情報をバッチごとにCSVファイルへ追記しながら出力（--stream / --resume）。
+     * スナップショット全体を作らないため、--cache・--aggregate・--format columnar・--gzip・複数の UDB とは併用できない。
+     */
+    private static void exportAllCsvStreaming(File dir, Map<String, String> options) throws Exception {
+        for (String option : new String[] { "--aggregate", "--gzip", "--db-per-worker" }) {
+            if (options.containsKey(option)) {
+                System.err.println("--stream と " + option + " は併用できません");
+                return;
+            }
+        }
+        if (!"csv".equals(options.getOrDefault("--format", "csv"))) {
+            System.err.println("--stream で出力できるのは csv 形式だけです");
+            return;
+        }
+        if (udbPaths != null) {
+            System.err.println("--stream は複数の UDB には対応していません");
+            return;
+        }
+        if (cache != null) {
+            System.err.println("警告: --stream では --cache を使用しません");
+        }
+
+        Database udb = database();
+        Entity[] classes = ApiMetrics.ents(udb, Query.CLASS_KINDS);
+        owners = new OwnerResolver(Integer.parseInt(options.getOrDefault("--owner-cache-size", "0")));
+        StreamingCsvExport export = new StreamingCsvExport(dir, udbPath,
+            Integer.parseInt(options.getOrDefault("--batch", String.valueOf(StreamingCsvExport.DEFAULT_BATCH))),
+            Integer.parseInt(options.getOrDefault("--threads", "1")), owners,
+            options.containsKey("--progress") ? PROGRESS_INTERVAL : 0);
+        int from = ApiMetrics.phase("コード構造の逐次出力",
+            () -> export.export(classes, options.containsKey("--resume")));
 
         System.out.println("CSVを出力しました: " + dir.getAbsolutePath());
+        if (from > 0) {
+            System.out.println("  " + from + " / " + classes.length + " クラス目から再開しました");
+        }
         System.out.println("  - classes.csv（クラス一覧）");
         System.out.println("  - methods.csv（関数定義一覧）");
         System.out.println("  - calls.csv（関数呼び出し一覧）");
         System.out.println("  - calledby.csv（関数の被呼び出し一覧）");
+        System.out.println(owners.stats());
     }
 
-    /** クラス一覧をCSV出力 */
-    private static void exportClassesCsv(Entity[] classes, File dir) throws IOException {
-        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "classes.csv")))) {
-            w.println("クラス名,種別,ファイル名,定義行");
-            for (Entity cls : classes) {
-                // クラス定義の参照を取得
-                Reference[] defRefs = cls.refs("definein", null, true);
-                String fileName = "";
-                int line = 0;
-                if (defRefs.length > 0) {
-                    fileName = defRefs[0].file().name();
-                    line = defRefs[0].line();
-                }
-                w.printf("%s,%s,%s,%d%n",
-                    cls.longname(), cls.kind().name(), fileName, line);
-            }
+    /** HTML ファイルを起点に JavaScript のコード構造をCSVファイルに一括出力 */
+    private static void exportAllJsCsv(String htmlNames, String outputDir, Map<String, String> options)
+            throws Exception {
+        if (htmlNames == null || outputDir == null) {
+            System.err.println("HTML ファイル名と出力ディレクトリを指定してください");
+            return;
         }
+        List<String> names = nameList(htmlNames);
+
+        // ワーカーは1つの Database のハンドルを共有するため、--threads を指定した場合だけ並列に走査する
+        int threads = Integer.parseInt(options.getOrDefault("--threads", "1"));
+        JsExport export = new JsExport(database(), threads);
+        List<String> notFound = new ArrayList<>();
+        Entity[] roots = export.findRoots(names, notFound);
+        for (String name : notFound) {
+            System.err.println("警告: HTML ファイルが見つかりません: " + name);
+        }
+        if (roots.length == 0) {
+            System.err.println("HTML ファイルが見つかりません: " + htmlNames);
+            return;
+        }
+
+        File dir = new File(outputDir);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        boolean gzip = options.containsKey("--gzip");
+        export.export(roots, dir, gzip);
+
+        System.out.println("CSVを出力しました: " + dir.getAbsolutePath());
+        System.out.println("  - " + CsvWriter.fileName("files.csv", gzip) + "（HTML が読み込む JS ファイル一覧）");
+        System.out.println("  - " + CsvWriter.fileName("functions.csv", gzip) + "（関数定義一覧）");
+        System.out.println("  - " + CsvWriter.fileName("calls.csv", gzip) + "（関数呼び出し一覧）");
+        System.out.println("  - " + CsvWriter.fileName("events.csv", gzip) + "（.on() イベントバインド一覧）");
+        System.out.println(export.stats());
     }
 
-    /** メソッド定義一覧をCSV出力 */
-    private static void exportMethodsCsv(Entity[] classes, File dir) throws IOException {
-        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "methods.csv")))) {
-            w.println("クラス名,メソッド名,戻り値型,ファイル名,定義行");
-            for (Entity cls : classes) {
-                // クラスが定義しているメソッドを取得
-                Reference[] methodRefs = cls.refs("define", "method", true);
-                for (Reference ref : methodRefs) {
-                    Entity method = ref.ent();
-                    w.printf("%s,%s,%s,%s,%d%n",
-                        cls.longname(), method.name(), method.type(),
-                        ref.file().name(), ref.line());
-                }
+    /**
+     * 以前のコード構造との差分をCSVファイルに出力。
+     * previous には以前の UDB、または --cache で保存したキャッシュファイルを指定する。
+     * previous が null の場合は --cache のキャッシュファイルに前回保存したスナップショットと比較する
+     * （以前の UDB を取り込み直さない）。キャッシュは今回のスナップショットで置き換わるため、
+     * 毎回同じコマンドを実行すれば前回の実行との差分になる。
+     */
+    private static void exportDiffCsv(String previous, String outputDir, Map<String, String> options)
+            throws Exception {
+        if (outputDir == null) {
+            System.err.println("比較対象（UDB またはキャッシュファイル）と出力ディレクトリを指定してください");
+            return;
+        }
+        CodeSnapshot oldSnapshot;
+        if (previous == null) {
+            if (cache == null) {
+                System.err.println("比較対象（UDB またはキャッシュファイル）を指定するか、"
+                    + "--cache で前回のキャッシュファイルを指定してください");
+                return;
+            }
+            oldSnapshot = previousSnapshot(cache.file());
+            if (oldSnapshot == null) {
+                loadSnapshot(options);
+                System.out.println("前回のスナップショットがないため、今回のコード構造を保存しました: " + cache.file());
+                System.out.println("次回の csv-diff から、このスナップショットとの差分を出力します");
+                return;
+            }
+        } else if (SnapshotCache.isCacheFile(new File(previous))) {
+            File previousFile = new File(previous);
+            oldSnapshot = SnapshotCache.readSnapshot(previousFile);
+            if (oldSnapshot == null) {
+                System.err.println("キャッシュファイルに csv-all のスナップショットがありません: " + previous);
+                return;
+            }
+        } else {
+            Database previousDb = Understand.open(previous);
+            try {
+                oldSnapshot = CodeSnapshot.build(previousDb.ents(Query.CLASS_KINDS));
+            } finally {
+                previousDb.close();
             }
         }
+        CodeSnapshot newSnapshot = loadSnapshot(options);
+
+        File dir = new File(outputDir);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        SnapshotDiff diff = new SnapshotDiff(oldSnapshot, newSnapshot);
+        boolean gzip = options.containsKey("--gzip");
+        diff.writeCsv(dir, gzip);
+
+        System.out.println("差分CSVを出力しました: " + dir.getAbsolutePath());
+        System.out.println("  - " + CsvWriter.fileName("classes-diff.csv", gzip) + "（クラスの追加・削除）");
+        System.out.println("  - " + CsvWriter.fileName("methods-diff.csv", gzip) + "（関数定義の追加・削除）");
+        System.out.println("  - " + CsvWriter.fileName("calls-diff.csv", gzip) + "（関数呼び出しの追加・削除）");
+        System.out.println(diff.stats());
     }
 
-    /** 関数呼び出し一覧をCSV出力 */
-    private static void exportCallsCsv(Entity[] classes, File dir) throws IOException {
-        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "calls.csv")))) {
-            w.println("呼び出し元クラス,呼び出し元メソッド,呼び出し先クラス,呼び出し先メソッド,ファイル名,呼び出し行");
-            for (Entity cls : classes) {
-                Reference[] methodRefs = cls.refs("define", "method", true);
-                for (Reference methodRef : methodRefs) {
-                    Entity method = methodRef.ent();
-                    // このメソッドが呼び出している他のメソッド
-                    Reference[] callRefs = method.refs("call", "method", true);
-                    for (Reference callRef : callRefs) {
-                        Entity calledMethod = callRef.ent();
-                        // 呼び出し先メソッドの所属クラスを取得
-                        String calledClass = getOwnerClassName(calledMethod);
-                        w.printf("%s,%s,%s,%s,%s,%d%n",
-                            cls.longname(), method.name(),
-                            calledClass, calledMethod.name(),
-                            callRef.file().name(), callRef.line());
-                    }
-                }
-            }
+    /**
+     * キャッシュファイルに前回保存したスナップショットを、UDB のサイズ・更新時刻を確認せずに読み込む。
+     * ファイルやセクションがない場合、壊れている場合は null。
+     */
+    private static CodeSnapshot previousSnapshot(File file) throws IOException {
+        if (!SnapshotCache.isCacheFile(file)) {
+            return null;
+        }
+        try {
+            return SnapshotCache.readSnapshot(file);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("警告: 前回のスナップショットを読み込めません: " + file + " (" + e + ")");
+            return null;
         }
     }
 
-    /** 関数の被呼び出し一覧をCSV出力 */
-    private static void exportCalledByCsv(Entity[] classes, File dir) throws IOException {
-        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "calledby.csv")))) {
-            w.println("対象クラス,対象メソッド,呼び出し元クラス,呼び出し元メソッド,ファイル名,呼び出し行");
-            for (Entity cls : classes) {
-                Reference[] methodRefs = cls.refs("define", "method", true);
-                for (Reference methodRef : methodRefs) {
-                    Entity method = methodRef.ent();
-                    // このメソッドを呼び出しているメソッド
-                    Reference[] callByRefs = method.refs("callby", "method", true);
-                    for (Reference callByRef : callByRefs) {
-                        Entity callerMethod = callByRef.ent();
-                        String callerClass = getOwnerClassName(callerMethod);
-                        w.printf("%s,%s,%s,%s,%s,%d%n",
-                            cls.longname(), method.name(),
-                            callerClass, callerMethod.name(),
-                            callByRef.file().name(), callByRef.line());
-                    }
-                }
+    /** メソッドの影響範囲（直接・間接の呼び出し元）を表示 */
+    private static void showImpact(String methodName, Map<String, String> options) throws Exception {
+        if (methodName == null) {
+            System.err.println("メソッド名を指定してください");
+            return;
+        }
+        CallGraph graph = CallGraph.of(loadSnapshot(options));
+        int[] targets = graph.find(methodName);
+        if (targets.length == 0) {
+            System.out.println("メソッドが見つかりません: " + methodName);
+            return;
+        }
+        int maxDepth = Integer.parseInt(options.getOrDefault("--depth", "0"));
+        CallGraph.Traversal impact = graph.traverse(targets, true, maxDepth);
+        System.out.println("=== " + methodName + " の影響範囲 ===");
+        for (int i = 0; i < impact.size(); i++) {
+            int node = impact.node(i);
+            int parent = impact.parent(node);
+            if (parent < 0) {
+                System.out.println(graph.label(node));
+            } else {
+                System.out.printf("  深さ%d: %s (→ %s)%n", impact.depth(node), graph.label(node), graph.label(parent));
             }
         }
+        System.out.println("合計: " + (impact.size() - targets.length) + " メソッド");
     }
 
-    /** メソッドの所属クラス名を取得するヘルパー */
-    private static String getOwnerClassName(Entity method) {
-        // definein 参照でメソッドを定義しているクラスを逆引き
-        Reference[] defInRefs = method.refs("definein", "class", true);
-        if (defInRefs.length > 0) {
-            return defInRefs[0].ent().longname();
+    /** 呼び出し元から呼び出し先までの最短の呼び出し経路を表示 */
+    private static void showCallChain(String fromName, String toName, Map<String, String> options)
+            throws Exception {
+        if (fromName == null || toName == null) {
+            System.err.println("呼び出し元と呼び出し先のメソッド名を指定してください");
+            return;
+        }
+        CallGraph graph = CallGraph.of(loadSnapshot(options));
+        int[] from = graph.find(fromName);
+        int[] to = graph.find(toName);
+        if (from.length == 0 || to.length == 0) {
+            System.out.println("メソッドが見つかりません: " + (from.length == 0 ? fromName : toName));
+            return;
+        }
+        int maxDepth = Integer.parseInt(options.getOrDefault("--depth", "0"));
+        int[] path = graph.shortestPath(from, to, maxDepth);
+        if (path.length == 0) {
+            System.out.println("呼び出し経路が見つかりません: " + fromName + " → " + toName);
+            return;
+        }
+        System.out.println("=== " + fromName + " → " + toName + " の呼び出し経路 ===");
+        System.out.println(graph.label(path[0]));
+        for (int i = 1; i < path.length; i++) {
+            System.out.println("  ".repeat(i) + "→ " + graph.label(path[i]));
         }
-        return "";
     }
 }
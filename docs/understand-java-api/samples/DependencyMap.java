@@ -0,0 +1,194 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * file-deps / class-deps 用の依存関係表。
+ *
+ * {@code depends()} / {@code dependsby()} の結果を、表示に必要な項目だけ int 列に取り込む。
+ * 参照の詳細（ファイル名・行・参照種別）は依存先ごとに先頭 {@link #DETAIL_LIMIT} 件だけ保持し、
+ * 件数は参照の総数を保持する。
+ *
+ * <pre>
+ *   node    : 名前, 依存先の終了位置, 依存元の終了位置
+ *   dep     : 依存先の名前, 参照数, 詳細の終了位置
+ *   detail  : ファイル名, 行, 参照種別
+ *   by      : 依存元の名前, 参照数
+ * </pre>
+ *
+ * node i の依存先は dep[depEnd(i-1), depEnd(i)) の範囲（依存元・詳細も同様）。
+ */
+final class DependencyMap {
+
+    /** 依存先ごとに保持する参照の詳細の件数 */
+    static final int DETAIL_LIMIT = 3;
+
+    private final StringTable strings = new StringTable();
+
+    private final IntList nodeName = new IntList();
+    private final IntList nodeDepEnd = new IntList();
+    private final IntList nodeByEnd = new IntList();
+
+    private final IntList depName = new IntList();
+    private final IntList depCount = new IntList();
+    private final IntList depDetailEnd = new IntList();
+
+    private final IntList detailFile = new IntList();
+    private final IntList detailLine = new IntList();
+    private final IntList detailKind = new IntList();
+
+    private final IntList byName = new IntList();
+    private final IntList byCount = new IntList();
+
+    /** ファイル間の依存関係を取り込む（名前は name()、詳細・依存元は取り込まない） */
+    static DependencyMap ofFiles(Database db) {
+        DependencyMap map = new DependencyMap();
+        for (Entity file : ApiMetrics.ents(db, Query.FILE_KINDS)) {
+            Map<Entity, Reference[]> deps = ApiMetrics.depends(file);
+            map.addNode(deps.isEmpty() ? null : ApiMetrics.name(file));
+            for (Map.Entry<Entity, Reference[]> entry : deps.entrySet()) {
+                map.addDep(ApiMetrics.name(entry.getKey()), entry.getValue().length);
+            }
+            map.endNode();
+        }
+        return map;
+    }
+
+    /** クラス間の依存関係を、依存先・依存元の両方向について取り込む（名前は longname()） */
+    static DependencyMap ofClasses(Database db) {
+        DependencyMap map = new DependencyMap();
+        for (Entity cls : ApiMetrics.ents(db, Query.CLASS_KINDS)) {
+            map.addNode(ApiMetrics.longname(cls));
+            for (Map.Entry<Entity, Reference[]> entry : ApiMetrics.depends(cls).entrySet()) {
+                Reference[] refs = entry.getValue();
+                map.addDep(ApiMetrics.longname(entry.getKey()), refs.length);
+                for (int i = 0; i < Math.min(DETAIL_LIMIT, refs.length); i++) {
+                    Reference ref = refs[i];
+                    map.addDetail(ApiMetrics.name(ApiMetrics.file(ref)), ApiMetrics.line(ref), ApiMetrics.kindName(ref));
+                }
+            }
+            for (Map.Entry<Entity, Reference[]> entry : ApiMetrics.dependsby(cls).entrySet()) {
+                map.addDependedBy(ApiMetrics.longname(entry.getKey()), entry.getValue().length);
+            }
+            map.endNode();
+        }
+        return map;
+    }
+
+    /** ノードを追加する。以降の addDep / addDependedBy は endNode() までこのノードのもの */
+    void addNode(String name) {
+        nodeName.add(strings.intern(name));
+    }
+
+    /** 依存先を追加する。以降の addDetail は次の addDep までこの依存先のもの */
+    void addDep(String name, int count) {
+        depName.add(strings.intern(name));
+        depCount.add(count);
+        depDetailEnd.add(detailLine.size());
+    }
+
+    void addDetail(String file, int line, String kind) {
+        detailFile.add(strings.intern(file));
+        detailLine.add(line);
+        detailKind.add(strings.intern(kind));
+        depDetailEnd.set(depDetailEnd.size() - 1, detailLine.size());
+    }
+
+    void addDependedBy(String name, int count) {
+        byName.add(strings.intern(name));
+        byCount.add(count);
+    }
+
+    void endNode() {
+        nodeDepEnd.add(depName.size());
+        nodeByEnd.add(byName.size());
+    }
+
+    int nodeCount() {
+        return nodeName.size();
+    }
+
+    /** ノードの名前（ファイル間依存で依存先がないファイルは null） */
+    String name(int node) {
+        return strings.get(nodeName.get(node));
+    }
+
+    int depFrom(int node) {
+        return node == 0 ? 0 : nodeDepEnd.get(node - 1);
+    }
+
+    int depTo(int node) {
+        return nodeDepEnd.get(node);
+    }
+
+    String depName(int dep) {
+        return strings.get(depName.get(dep));
+    }
+
+    int depCount(int dep) {
+        return depCount.get(dep);
+    }
+
+    int detailFrom(int dep) {
+        return dep == 0 ? 0 : depDetailEnd.get(dep - 1);
+    }
+
+    int detailTo(int dep) {
+        return depDetailEnd.get(dep);
+    }
+
+    String detailFile(int detail) {
+        return strings.get(detailFile.get(detail));
+    }
+
+    int detailLine(int detail) {
+        return detailLine.get(detail);
+    }
+
+    String detailKind(int detail) {
+        return strings.get(detailKind.get(detail));
+    }
+
+    int byFrom(int node) {
+        return node == 0 ? 0 : nodeByEnd.get(node - 1);
+    }
+
+    int byTo(int node) {
+        return nodeByEnd.get(node);
+    }
+
+    String byName(int by) {
+        return strings.get(byName.get(by));
+    }
+
+    int byCount(int by) {
+        return byCount.get(by);
+    }
+
+    /** キャッシュファイルのセクションとして書き出す */
+    void write(SnapshotCache.Output out) throws IOException {
+        out.writeStrings(strings);
+        for (IntList column : columns()) {
+            out.writeInts(column);
+        }
+    }
+
+    /** {@link #write} で書き出したセクションから読み込む */
+    static DependencyMap read(SnapshotCache.Input in) throws IOException {
+        DependencyMap map = new DependencyMap();
+        in.readStrings(map.strings);
+        for (IntList column : map.columns()) {
+            in.readInts(column);
+        }
+        return map;
+    }
+
+    private IntList[] columns() {
+        return new IntList[] {
+            nodeName, nodeDepEnd, nodeByEnd,
+            depName, depCount, depDetailEnd,
+            detailFile, detailLine, detailKind,
+            byName, byCount,
+        };
+    }
+}
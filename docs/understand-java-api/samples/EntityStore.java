@@ -0,0 +1,131 @@
+import com.scitools.understand.*;
+import java.util.*;
+
+/**
+ * file-matrix 用に、ファイル間の依存（{@code depends()} の依存先と参照数）を int 列に保持する表。
+ *
+ * {@code depends()} の {@code Map<Entity, Reference[]>} を保持し続けると、大きな UDB では
+ * Reference のオブジェクトだけで多くのメモリを使う。この表は Entity.id()・完全修飾名
+ * （文字列テーブルの ID）と、依存先・参照数だけを取り込み、取り込んだ Entity と Reference は
+ * すぐに手放す。行の内容は位置を指定して取得する。
+ *
+ * <pre>
+ *   entity : Entity.id(), 完全修飾名
+ *   node   : 辺の終了位置（依存元のファイルごと）
+ *   edge   : 依存先(エンティティ表の位置), 参照数
+ * </pre>
+ *
+ * 依存元のファイルはエンティティ表の先頭 [0, nodeCount()) に渡した順で並び、依存先としてだけ
+ * 現れたエンティティ（ライブラリのクラスファイルなど）はその後ろに追加される。
+ * node i の辺は edge[edgeFrom(i), edgeTo(i)) の範囲。
+ */
+final class EntityStore {
+
+    private final StringTable strings = new StringTable();
+    // Entity.id() → エンティティ表の位置
+    private final LongIntHashMap index = new LongIntHashMap();
+
+    private final IntList entUid = new IntList();
+    private final IntList entLongname = new IntList();
+
+    private final IntList nodeEdgeEnd = new IntList();
+
+    private final IntList edgeTarget = new IntList();
+    private final IntList edgeValue = new IntList();
+
+    private EntityStore() {
+    }
+
+    /**
+     * files の depends() を取り込んだ表を作成する。
+     * depends() の呼び出しは threads 個のスレッドで並列に行い（{@link ParallelMap}）、
+     * 結果は files の順に1つずつ表へ追加する。名前の取得は新しいエンティティごとに1回だけ行う。
+     */
+    static EntityStore dependencies(Entity[] files, int threads) throws Exception {
+        EntityStore store = new EntityStore();
+        for (Entity file : files) {
+            store.entity(file);
+        }
+        ParallelMap.map(files, threads, file -> {
+            Map<Entity, Reference[]> deps = ApiMetrics.depends(file);
+            List<Entity> targets = new ArrayList<>(deps.size());
+            IntList counts = new IntList(Math.max(deps.size(), 1));
+            for (Map.Entry<Entity, Reference[]> dep : deps.entrySet()) {
+                targets.add(dep.getKey());
+                counts.add(dep.getValue().length);
+            }
+            return new Edges(targets, counts);
+        }, edges -> {
+            for (int i = 0; i < edges.targets.size(); i++) {
+                store.edgeTarget.add(store.entity(edges.targets.get(i)));
+                store.edgeValue.add(edges.counts.get(i));
+            }
+            store.nodeEdgeEnd.add(store.edgeTarget.size());
+        });
+        return store;
+    }
+
+    /** 1つのファイルの依存先と参照数（表に追加したら破棄する） */
+    private static final class Edges {
+        final List<Entity> targets;
+        final IntList counts;
+
+        Edges(List<Entity> targets, IntList counts) {
+            this.targets = targets;
+            this.counts = counts;
+        }
+    }
+
+    /** エンティティを表に登録し、表の位置を返す（登録済みなら名前を取得し直さない） */
+    private int entity(Entity ent) {
+        int uid = ent.id();
+        int row = index.get(uid, -1);
+        if (row < 0) {
+            row = entUid.add(uid);
+            entLongname.add(strings.intern(ApiMetrics.longname(ent)));
+            index.put(uid, row);
+        }
+        return row;
+    }
+
+    /** エンティティ表の行数（依存元と依存先） */
+    int entityCount() {
+        return entUid.size();
+    }
+
+    /** 依存元のファイルの数 */
+    int nodeCount() {
+        return nodeEdgeEnd.size();
+    }
+
+    int edgeCount() {
+        return edgeTarget.size();
+    }
+
+    int longnameId(int ent) {
+        return entLongname.get(ent);
+    }
+
+    int edgeFrom(int node) {
+        return node == 0 ? 0 : nodeEdgeEnd.get(node - 1);
+    }
+
+    int edgeTo(int node) {
+        return nodeEdgeEnd.get(node);
+    }
+
+    /** 依存先（エンティティ表の位置） */
+    int edgeTarget(int edge) {
+        return edgeTarget.get(edge);
+    }
+
+    /** 参照数 */
+    int edgeValue(int edge) {
+        return edgeValue.get(edge);
+    }
+
+    /** 文字列テーブル（{@link #longnameId} の ID に対応する） */
+    StringTable strings() {
+        return strings;
+    }
+}
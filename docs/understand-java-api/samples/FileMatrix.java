@@ -0,0 +1,215 @@
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * file-matrix のファイル間依存行列。
+ *
+ * 行が依存元、列が依存先のファイル（集約した場合はディレクトリ・パッケージ）で、値は参照数。
+ * 値が 0 でない要素だけを CSR 形式で保持するため、メモリは依存の組の数に比例する
+ * （参照の数や、ファイル数の2乗には比例しない）。
+ *
+ * <pre>
+ *   row  : 名前（文字列テーブルの ID）, 要素の開始位置（rowStart[i] 〜 rowStart[i + 1]）
+ *   要素 : 列, 値（行ごとに列の昇順）
+ * </pre>
+ */
+final class FileMatrix {
+
+    private final StringTable strings;
+    private final int[] label;
+    private final int[] rowStart;
+    private final int[] col;
+    private final int[] value;
+
+    private FileMatrix(StringTable strings, int[] label, int[] rowStart, int[] col, int[] value) {
+        this.strings = strings;
+        this.label = label;
+        this.rowStart = rowStart;
+        this.col = col;
+        this.value = value;
+    }
+
+    /** ファイル間の依存の表（{@link EntityStore#dependencies}）から作成する。名前は longname() */
+    static FileMatrix of(EntityStore store) {
+        int[] label = new int[store.entityCount()];
+        for (int i = 0; i < label.length; i++) {
+            label[i] = store.longnameId(i);
+        }
+        int[] rows = new int[store.edgeCount()];
+        int[] cols = new int[rows.length];
+        int[] values = new int[rows.length];
+        for (int node = 0; node < store.nodeCount(); node++) {
+            for (int e = store.edgeFrom(node); e < store.edgeTo(node); e++) {
+                rows[e] = node;
+                cols[e] = store.edgeTarget(e);
+                values[e] = store.edgeValue(e);
+            }
+        }
+        return fromCoo(store.strings(), label, rows, cols, values);
+    }
+
+    /**
+     * (行, 列, 値) の組から作成する。同じ行・列の組は値を合計する。
+     * 行ごとの件数から位置を決めて並べ、行の中は列の昇順にする。
+     */
+    private static FileMatrix fromCoo(StringTable strings, int[] label, int[] rows, int[] cols, int[] values) {
+        int n = label.length;
+        int[] start = new int[n + 1];
+        for (int r : rows) {
+            start[r + 1]++;
+        }
+        for (int r = 0; r < n; r++) {
+            start[r + 1] += start[r];
+        }
+        // 列と値を1つの long に詰めて行ごとに並べる（上位32ビットが列）
+        long[] packed = new long[rows.length];
+        int[] next = Arrays.copyOf(start, n);
+        for (int i = 0; i < rows.length; i++) {
+            packed[next[rows[i]]++] = (long) cols[i] << 32 | (values[i] & 0xFFFFFFFFL);
+        }
+
+        int[] rowStart = new int[n + 1];
+        IntList col = new IntList(rows.length);
+        IntList value = new IntList(rows.length);
+        for (int r = 0; r < n; r++) {
+            Arrays.sort(packed, start[r], start[r + 1]);
+            for (int i = start[r]; i < start[r + 1]; i++) {
+                int c = (int) (packed[i] >>> 32);
+                int v = (int) packed[i];
+                if (col.size() > rowStart[r] && col.get(col.size() - 1) == c) {
+                    value.set(value.size() - 1, value.get(value.size() - 1) + v);
+                } else {
+                    col.add(c);
+                    value.add(v);
+                }
+            }
+            rowStart[r + 1] = col.size();
+        }
+        return new FileMatrix(strings, label, rowStart, col.toArray(), value.toArray());
+    }
+
+    /** 行・列の名前を group で変換した名前ごとにまとめた行列を作成する（同じ名前同士の依存も残す） */
+    FileMatrix rollup(UnaryOperator<String> group) {
+        StringTable groups = new StringTable();
+        int[] groupOf = new int[size()];
+        for (int i = 0; i < groupOf.length; i++) {
+            groupOf[i] = groups.intern(group.apply(name(i)));
+        }
+        int[] label = new int[groups.size()];
+        for (int g = 0; g < label.length; g++) {
+            label[g] = g;
+        }
+        int[] rows = new int[col.length];
+        int[] cols = new int[col.length];
+        for (int r = 0; r < size(); r++) {
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                rows[i] = groupOf[r];
+                cols[i] = groupOf[col[i]];
+            }
+        }
+        return fromCoo(groups, label, rows, cols, value.clone());
+    }
+
+    /** パスのディレクトリ（depth が 1 以上なら先頭から depth 階層まで） */
+    static String directory(String path, int depth) {
+        String p = path.replace('\\', '/');
+        int slash = p.lastIndexOf('/');
+        String dir = slash >= 0 ? p.substring(0, slash) : "";
+        if (depth > 0) {
+            int end = -1;
+            for (int d = 0; d < depth; d++) {
+                end = dir.indexOf('/', end + 1);
+                if (end < 0) {
+                    return dir;
+                }
+            }
+            return dir.substring(0, end);
+        }
+        return dir;
+    }
+
+    /**
+     * パスからパッケージ名を推定する。最初の "java/"（src/main/java など）、なければ最初の "src/"
+     * より後ろのディレクトリを "." でつなぐ。どちらもない場合はディレクトリ全体を使う。
+     */
+    static String javaPackage(String path) {
+        String d = "/" + directory(path, 0) + "/";
+        int java = d.indexOf("/java/");
+        int src = d.indexOf("/src/");
+        int start = java >= 0 ? java + 6 : src >= 0 ? src + 5 : 1;
+        String pkg = start < d.length() ? d.substring(start, d.length() - 1) : "";
+        return pkg.isEmpty() ? "(default)" : pkg.replace('/', '.');
+    }
+
+    /** 行（＝列）の数 */
+    int size() {
+        return label.length;
+    }
+
+    /** 値が 0 でない要素の数 */
+    int nonZeroCount() {
+        return col.length;
+    }
+
+    /** 値の合計（参照の総数） */
+    long total() {
+        long total = 0;
+        for (int v : value) {
+            total += v;
+        }
+        return total;
+    }
+
+    String name(int row) {
+        return strings.get(label[row]);
+    }
+
+    int rowFrom(int row) {
+        return rowStart[row];
+    }
+
+    int rowTo(int row) {
+        return rowStart[row + 1];
+    }
+
+    int col(int i) {
+        return col[i];
+    }
+
+    int value(int i) {
+        return value[i];
+    }
+
+    /** 要素を1行ずつ CSV に出力する（依存元, 依存先, 参照数） */
+    void writeCsv(CsvWriter w) throws IOException {
+        w.row("依存元", "依存先", "参照数");
+        for (int r = 0; r < size(); r++) {
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                w.field(name(r)).field(name(col[i])).field(value[i]).endRow();
+            }
+        }
+    }
+
+    /**
+     * 列指向形式で書き出す。nodes 表は行ごとの名前と要素の開始位置（CSR）、
+     * edges 表は要素ごとの依存元・依存先（nodes の行番号）と参照数（COO）。
+     */
+    void writeColumns(ColumnarFile.Writer w) throws IOException {
+        w.strings(strings);
+        w.table("nodes", size(), 3);
+        w.column("名前", ColumnarFile.STRING, label);
+        w.column("開始位置", ColumnarFile.INT, Arrays.copyOf(rowStart, size()));
+        int[] degree = new int[size()];
+        int[] rows = new int[col.length];
+        for (int r = 0; r < size(); r++) {
+            degree[r] = rowStart[r + 1] - rowStart[r];
+            Arrays.fill(rows, rowStart[r], rowStart[r + 1], r);
+        }
+        w.column("依存先数", ColumnarFile.INT, degree);
+        w.table("edges", col.length, 3);
+        w.column("依存元", ColumnarFile.INT, rows);
+        w.column("依存先", ColumnarFile.INT, col);
+        w.column("参照数", ColumnarFile.INT, value);
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.Arrays;
+
+/**
+ * int 値の可変長リスト。
+ *
+ * {@code List<Integer>} のようなボクシングを避け、スナップショットやグラフの
+ * 列データを int 配列のまま保持するために使う。
+ */
+final class IntList {
+
+    private int[] data;
+    private int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        data = new int[Math.max(capacity, 4)];
+    }
+
+    /** 末尾に値を追加し、その位置を返す */
+    int add(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size] = value;
+        return size++;
+    }
+
+    /** 末尾に values をまとめて追加する */
+    void addAll(int[] values) {
+        if (size + values.length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + values.length));
+        }
+        System.arraycopy(values, 0, data, size, values.length);
+        size += values.length;
+    }
+
+    int get(int index) {
+        return data[index];
+    }
+
+    void set(int index, int value) {
+        data[index] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** 要素数ちょうどの配列にコピーして返す */
+    int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
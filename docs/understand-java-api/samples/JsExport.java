@@ -0,0 +1,364 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * csv-all-js の出力。HTML ファイルを起点に、読み込まれている JavaScript ファイルの
+ * 関数定義・関数呼び出し・jQuery の .on() イベントバインドを CSV に出力する。
+ *
+ * 複数の HTML を1回で処理する。各 HTML が読み込む JS ファイルを先に集め、複数の HTML が
+ * 共有する JS ファイルも関数・呼び出し・イベントの取り込みは1回だけ行う。そのため処理量は
+ * HTML 数 × JS ファイル数ではなく、JS ファイルの種類数に比例する。HTML・JS ファイルの走査は
+ * {@link ParallelMap} で threads 個のスレッドに分け、JS ファイルごとの結果は順に
+ * CSV へ書き出して保持しない。呼び出し先の関数の所属ファイルと名前空間はファイルをまたいで
+ * キャッシュする。
+ *
+ * <pre>
+ *   files.csv     : HTMLファイル名, JSファイル名, 関数数, ファイルパス（HTML × 読み込む JS）
+ *   functions.csv : JSファイル名, 名前空間, 関数名, ファイルパス, 定義行
+ *   calls.csv     : 呼び出し元ファイル, 呼び出し元名前空間, 呼び出し元関数,
+ *                   呼び出し先ファイル, 呼び出し先名前空間, 呼び出し先関数, ファイル名, 呼び出し行
+ *   events.csv    : セレクタ, イベント, 呼び出し先ファイル, 呼び出し先名前空間, 呼び出し先関数,
+ *                   ファイル名, 呼び出し行
+ * </pre>
+ *
+ * 設計は docs/plans/2026-02-16-csv-all-js-design.md を参照。
+ */
+final class JsExport {
+
+    static final String[] FILES_HEADER = { "HTMLファイル名", "JSファイル名", "関数数", "ファイルパス" };
+    static final String[] FUNCTIONS_HEADER = { "JSファイル名", "名前空間", "関数名", "ファイルパス", "定義行" };
+    static final String[] CALLS_HEADER = { "呼び出し元ファイル", "呼び出し元名前空間", "呼び出し元関数",
+        "呼び出し先ファイル", "呼び出し先名前空間", "呼び出し先関数", "ファイル名", "呼び出し行" };
+    static final String[] EVENTS_HEADER = { "セレクタ", "イベント", "呼び出し先ファイル", "呼び出し先名前空間",
+        "呼び出し先関数", "ファイル名", "呼び出し行" };
+
+    private final Database db;
+    private final int threads;
+    // 関数の Entity.id() → {所属ファイル名, 名前空間, 関数名}（JS ファイルをまたいで共有する）
+    private final Map<Integer, String[]> functions = new ConcurrentHashMap<>();
+    // JS ファイルの Entity.id() → 関数数
+    private final Map<Integer, Integer> functionCounts = new HashMap<>();
+    // UDB 内のファイルとその短縮名（最初に必要になったときに1回だけ取得する）
+    private Entity[] files;
+    private String[] fileNames;
+    private int roots;
+    private int rootFiles;
+    private int jsFiles;
+    private int callRows;
+    private int eventRows;
+
+    JsExport(Database db, int threads) {
+        this.db = db;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * 名前に一致する HTML ファイルを返す。名前はファイルの短縮名で、"*" / "?" を含む場合は
+     * パターンとして扱う（例: "*.html"）。見つからない名前は notFound に追加する。
+     */
+    Entity[] findRoots(List<String> names, List<String> notFound) {
+        loadFiles();
+        NameIndex.Keys keys = new NameIndex.Keys(fileNames);
+        Map<Integer, Entity> found = new LinkedHashMap<>();
+        for (String name : names) {
+            boolean pattern = name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+            IntList hits = pattern ? keys.glob(name) : keys.exact(name);
+            if (hits.size() == 0) {
+                notFound.add(name);
+            }
+            for (int i = 0; i < hits.size(); i++) {
+                found.putIfAbsent(files[hits.get(i)].id(), files[hits.get(i)]);
+            }
+        }
+        return found.values().toArray(new Entity[0]);
+    }
+
+    /** htmlFiles を起点に4つの CSV を出力ディレクトリに書き出す（gzip の場合は *.csv.gz） */
+    void export(Entity[] htmlFiles, File dir, boolean gzip) throws Exception {
+        // 1. HTML ごとに読み込む JS ファイルを集める（JS ファイルは最初に現れた順に1回だけ登録する）
+        List<Entity[]> imports = new ArrayList<>();
+        Map<Integer, Entity> unique = new LinkedHashMap<>();
+        ApiMetrics.phase("HTML の読み込み対象", () ->
+            ParallelMap.map(htmlFiles, threads, this::importedJsFiles, files -> {
+                imports.add(files);
+                for (Entity js : files) {
+                    unique.putIfAbsent(js.id(), js);
+                }
+            }));
+        roots = htmlFiles.length;
+        jsFiles = unique.size();
+
+        // 2. JS ファイルごとに関数・呼び出し・イベントを取り込み、取り込んだ順に書き出す
+        ApiMetrics.phase("JS ファイルの取り込み", () -> writeJsFiles(unique.values().toArray(new Entity[0]), dir, gzip));
+
+        // 3. HTML × JS ファイルの一覧
+        try (CsvWriter w = CsvWriter.create(dir, "files.csv", gzip)) {
+            w.row(FILES_HEADER);
+            for (int i = 0; i < htmlFiles.length; i++) {
+                String html = ApiMetrics.name(htmlFiles[i]);
+                for (Entity js : imports.get(i)) {
+                    w.field(html)
+                        .field(ApiMetrics.name(js))
+                        .field(functionCounts.get(js.id()))
+                        .field(ApiMetrics.longname(js))
+                        .endRow();
+                    rootFiles++;
+                }
+            }
+        }
+    }
+
+    /** files（JS ファイル）の関数・呼び出し・イベントを取り込み、取り込んだ順に3つの CSV に書き出す */
+    private void writeJsFiles(Entity[] files, File dir, boolean gzip) throws Exception {
+        try (CsvWriter functionsCsv = CsvWriter.create(dir, "functions.csv", gzip);
+             CsvWriter callsCsv = CsvWriter.create(dir, "calls.csv", gzip);
+             CsvWriter eventsCsv = CsvWriter.create(dir, "events.csv", gzip)) {
+            functionsCsv.row(FUNCTIONS_HEADER);
+            callsCsv.row(CALLS_HEADER);
+            eventsCsv.row(EVENTS_HEADER);
+            ParallelMap.map(files, threads, this::analyze, js -> {
+                try {
+                    js.write(functionsCsv, callsCsv, eventsCsv);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                functionCounts.put(js.id, js.functions.size());
+                callRows += js.calls.size();
+                eventRows += js.events.size();
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** 件数を1行で返す */
+    String stats() {
+        return String.format("HTML %d 件 → 読み込み %d 件（JS ファイル %d 種類を取り込み）、関数 %d 件、呼び出し %d 件、イベント %d 件",
+            roots, rootFiles, jsFiles, functionCounts.values().stream().mapToInt(Integer::intValue).sum(),
+            callRows, eventRows);
+    }
+
+    /**
+     * HTML が読み込んでいる JS ファイル（ファイルパス順）。
+     * depends() が JS ファイルを返さない場合は、字句解析で &lt;script src&gt; を探す。
+     */
+    private Entity[] importedJsFiles(Entity html) throws UnderstandException {
+        List<Entity> result = new ArrayList<>();
+        for (Entity dep : ApiMetrics.depends(html).keySet()) {
+            if (ApiMetrics.name(dep).endsWith(".js")) {
+                result.add(dep);
+            }
+        }
+        if (result.isEmpty()) {
+            result = scriptSources(html);
+        }
+        result.sort(Comparator.comparing(ApiMetrics::longname));
+        return result.toArray(new Entity[0]);
+    }
+
+    /** HTML の字句から &lt;script src="..."&gt; を探し、同じ名前の JS ファイルを返す */
+    private List<Entity> scriptSources(Entity html) throws UnderstandException {
+        Set<String> names = new HashSet<>();
+        boolean inScript = false;
+        boolean foundSrc = false;
+        for (Lexeme lex = ApiMetrics.lexer(html, false).first(); lex != null; lex = ApiMetrics.next(lex)) {
+            String text = ApiMetrics.text(lex);
+            if ("<script".equalsIgnoreCase(text) || "script".equalsIgnoreCase(text)) {
+                inScript = true;
+            } else if (inScript && "src".equalsIgnoreCase(text)) {
+                foundSrc = true;
+            } else if (foundSrc && "String".equals(ApiMetrics.token(lex))) {
+                String path = stripQuotes(text);
+                names.add(path.substring(path.lastIndexOf('/') + 1));
+                inScript = false;
+                foundSrc = false;
+            } else if (">".equals(text)) {
+                inScript = false;
+                foundSrc = false;
+            }
+        }
+        List<Entity> result = new ArrayList<>();
+        if (!names.isEmpty()) {
+            loadFiles();
+            for (int i = 0; i < files.length; i++) {
+                if (names.contains(fileNames[i])) {
+                    result.add(files[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    private synchronized void loadFiles() {
+        if (files == null) {
+            Entity[] all = ApiMetrics.ents(db, Query.FILE_KINDS);
+            String[] names = new String[all.length];
+            for (int i = 0; i < all.length; i++) {
+                names[i] = ApiMetrics.name(all[i]);
+            }
+            fileNames = names;
+            files = all;
+        }
+    }
+
+    /** 1つの JS ファイルの関数定義・呼び出し・イベントバインドを取り込む */
+    private JsFile analyze(Entity file) throws UnderstandException {
+        String fileName = ApiMetrics.name(file);
+        String path = ApiMetrics.longname(file);
+        JsFile js = new JsFile(file.id());
+        for (Reference def : ApiMetrics.refs(file, "define", "function", true)) {
+            Entity func = ApiMetrics.ent(def);
+            // 定義しているファイルがわかっているため、definein で逆引きせずに登録する
+            String[] caller = functions.computeIfAbsent(func.id(), k -> describe(func, fileName));
+            js.functions.add(new String[] { fileName, caller[1], caller[2], path, Integer.toString(ApiMetrics.line(def)) });
+            for (Reference call : ApiMetrics.refs(func, "call", "function", true)) {
+                String[] callee = function(ApiMetrics.ent(call));
+                js.calls.add(new String[] { caller[0], caller[1], caller[2], callee[0], callee[1], callee[2],
+                    ApiMetrics.name(ApiMetrics.file(call)), Integer.toString(ApiMetrics.line(call)) });
+            }
+        }
+        captureEvents(file, fileName, js);
+        return js;
+    }
+
+    /** 関数の {所属ファイル名, 名前空間, 関数名}。所属ファイルは definein で逆引きする */
+    private String[] function(Entity func) {
+        return functions.computeIfAbsent(func.id(), k -> {
+            Reference[] defIn = ApiMetrics.refs(func, "definein", "file", true);
+            return describe(func, defIn.length > 0 ? ApiMetrics.name(ApiMetrics.ent(defIn[0])) : "");
+        });
+    }
+
+    private static String[] describe(Entity func, String fileName) {
+        String name = ApiMetrics.name(func);
+        return new String[] { fileName, namespace(ApiMetrics.longname(func), name), name };
+    }
+
+    /**
+     * 関数の名前空間（longname() から name() を除いた部分）。
+     * longname() の先頭にファイルパスが付く場合（"js/taskManager.js.TaskManager.save"）は除く。
+     */
+    static String namespace(String longname, String name) {
+        if (!longname.endsWith("." + name)) {
+            return "";
+        }
+        String ns = longname.substring(0, longname.length() - name.length() - 1);
+        int js = ns.lastIndexOf(".js.");
+        if (js >= 0) {
+            return ns.substring(js + 4);
+        }
+        return ns.endsWith(".js") ? "" : ns;
+    }
+
+    /**
+     * ファイル内の .on() 呼び出しを探し、セレクタ・イベント名と、ハンドラ内の関数呼び出しを取り込む。
+     * 字句解析は .on() の呼び出しがあるファイルだけで行う。
+     */
+    private void captureEvents(Entity file, String fileName, JsFile js) throws UnderstandException {
+        Lexer lexer = null;
+        for (Reference ref : ApiMetrics.filerefs(file, "call", "function", false)) {
+            if (!"on".equals(ApiMetrics.name(ApiMetrics.ent(ref)))) {
+                continue;
+            }
+            if (lexer == null) {
+                lexer = ApiMetrics.lexer(file, true);
+            }
+            Lexeme on = ApiMetrics.lexeme(lexer, ApiMetrics.line(ref), ApiMetrics.column(ref));
+            if (on == null) {
+                continue;
+            }
+            // .on('click', function() { ... }) / .on('click', '.item', function() { ... }) のみ対象とする
+            Lexeme open = nextCode(on);
+            Lexeme event = open != null && "(".equals(ApiMetrics.text(open)) ? nextCode(open) : null;
+            if (event == null || !"String".equals(ApiMetrics.token(event))) {
+                continue;
+            }
+            String selector = selector(on);
+            Lexeme comma = nextCode(event);
+            Lexeme delegated = comma != null && ",".equals(ApiMetrics.text(comma)) ? nextCode(comma) : null;
+            if (delegated != null && "String".equals(ApiMetrics.token(delegated))) {
+                String child = stripQuotes(ApiMetrics.text(delegated));
+                selector = selector.isEmpty() ? child : selector + " " + child;
+            }
+            String eventName = stripQuotes(ApiMetrics.text(event));
+
+            // 括弧が閉じるまでの呼び出し参照をハンドラ内の呼び出しとする
+            int depth = 0;
+            for (Lexeme lex = open; lex != null; lex = ApiMetrics.next(lex)) {
+                String text = ApiMetrics.text(lex);
+                if ("(".equals(text)) {
+                    depth++;
+                } else if (")".equals(text) && --depth == 0) {
+                    break;
+                }
+                Reference call = ApiMetrics.reference(lex);
+                Entity callee = call != null ? ApiMetrics.entity(lex) : null;
+                if (callee != null && ApiMetrics.kindName(call).contains("Call")
+                        && ApiMetrics.kindName(callee).contains("Function")) {
+                    String[] c = function(callee);
+                    js.events.add(new String[] { selector, eventName, c[0], c[1], c[2], fileName,
+                        Integer.toString(ApiMetrics.lineBegin(lex)) });
+                }
+            }
+        }
+    }
+
+    /** .on() の前の $('...') のセレクタ（同じ行の直前の文字列。なければ空） */
+    private static String selector(Lexeme on) {
+        int line = ApiMetrics.lineBegin(on);
+        for (Lexeme lex = ApiMetrics.previous(on); lex != null && ApiMetrics.lineBegin(lex) == line;
+                lex = ApiMetrics.previous(lex)) {
+            if ("String".equals(ApiMetrics.token(lex))) {
+                return stripQuotes(ApiMetrics.text(lex));
+            }
+        }
+        return "";
+    }
+
+    /** 空白・改行・コメントを飛ばした次の字句 */
+    private static Lexeme nextCode(Lexeme lex) {
+        Lexeme next = ApiMetrics.next(lex);
+        while (next != null && isBlank(ApiMetrics.token(next))) {
+            next = ApiMetrics.next(next);
+        }
+        return next;
+    }
+
+    private static boolean isBlank(String token) {
+        return "Whitespace".equals(token) || "Newline".equals(token) || "Comment".equals(token);
+    }
+
+    /** 文字列リテラルの前後の引用符を除く */
+    static String stripQuotes(String s) {
+        if (s.length() >= 2 && (s.startsWith("'") && s.endsWith("'") || s.startsWith("\"") && s.endsWith("\""))) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    /** 1つの JS ファイルの取り込み結果（書き出したら破棄する） */
+    private static final class JsFile {
+        final int id;
+        final List<String[]> functions = new ArrayList<>();
+        final List<String[]> calls = new ArrayList<>();
+        final List<String[]> events = new ArrayList<>();
+
+        JsFile(int id) {
+            this.id = id;
+        }
+
+        void write(CsvWriter functionsCsv, CsvWriter callsCsv, CsvWriter eventsCsv) throws IOException {
+            for (String[] row : functions) {
+                functionsCsv.row(row);
+            }
+            for (String[] row : calls) {
+                callsCsv.row(row);
+            }
+            for (String[] row : events) {
+                eventsCsv.row(row);
+            }
+        }
+    }
+}
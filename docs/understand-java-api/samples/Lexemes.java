@@ -0,0 +1,77 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * 字句（Lexeme）の走査ユーティリティ。
+ *
+ * {@link #stream(Lexer, Predicate)} は {@code lexer.first()} から {@code next()} を1つずつ
+ * たどる遅延ストリームを返す。トークン種別の絞り込みは Spliterator の中で行うため、
+ * 対象外の字句はストリームの要素にならず、{@code limit()} で打ち切れば残りの字句はたどらない。
+ * {@code next()}・{@code token()} は {@link ApiMetrics} を経由して呼ぶ。
+ *
+ * 複数のファイルを並列に走査する場合は {@link ParallelMap} でファイルごとに Lexer を作り、
+ * 走査が終わった時点で参照を手放す。
+ */
+final class Lexemes {
+
+    private Lexemes() {
+    }
+
+    /** tokens のいずれかに一致するトークン種別だけを通す */
+    static Predicate<String> only(String... tokens) {
+        Set<String> set = new HashSet<>(Arrays.asList(tokens));
+        return set::contains;
+    }
+
+    /** tokens のいずれにも一致しないトークン種別だけを通す */
+    static Predicate<String> except(String... tokens) {
+        Set<String> set = new HashSet<>(Arrays.asList(tokens));
+        return token -> !set.contains(token);
+    }
+
+    /** lexer の字句のうち、トークン種別が tokens を満たすものを先頭から順に返す */
+    static Stream<Lexeme> stream(Lexer lexer, Predicate<String> tokens) {
+        return StreamSupport.stream(new LexemeSpliterator(lexer.first(), tokens), false);
+    }
+
+    /** 字句の連結リストを next() でたどる Spliterator（分割はしない） */
+    private static final class LexemeSpliterator implements Spliterator<Lexeme> {
+        private Lexeme next;
+        private final Predicate<String> tokens;
+
+        LexemeSpliterator(Lexeme first, Predicate<String> tokens) {
+            this.next = first;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Lexeme> action) {
+            while (next != null) {
+                Lexeme lex = next;
+                next = ApiMetrics.next(lex);
+                if (tokens.test(ApiMetrics.token(lex))) {
+                    action.accept(lex);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Lexeme> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
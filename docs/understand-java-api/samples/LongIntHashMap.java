@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * long キー → int 値のハッシュマップ（オープンアドレス法）。
+ *
+ * {@code Map<Long, Integer>} のようなボクシングを避け、キーと値を配列のまま保持する。
+ * キーに {@link Long#MIN_VALUE} は使えない（空きスロットの印に使う）。削除はできない。
+ */
+final class LongIntHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    LongIntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /** key の値を返す。ない場合は missing */
+    int get(long key, int missing) {
+        int slot = find(key);
+        return keys[slot] == EMPTY ? missing : values[slot];
+    }
+
+    /** key に value を設定する */
+    void put(long key, int value) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            insert(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /** key の値に delta を加え、加えた後の値を返す（ない場合は 0 に加える） */
+    int add(long key, int delta) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            insert(slot, key, delta);
+            return delta;
+        }
+        return values[slot] += delta;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** key のスロット、またはキーがない場合に挿入すべき空きスロット */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insert(int slot, long key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
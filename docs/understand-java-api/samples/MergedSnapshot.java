@@ -0,0 +1,233 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 複数の UDB（サービスごとのプロジェクト）のコード構造を1つにまとめたスナップショット。
+ *
+ * UDB はそれぞれ専用のスレッドで同時に開いて取り込むため、全体の所要時間は最も時間のかかる
+ * UDB とほぼ同じになる。取り込んだスナップショットはプロジェクトの順に連結し
+ * （{@link CodeSnapshot#mergeProjects}）、プロジェクト内で定義されていない呼び出し先・呼び出し元を
+ * 他のプロジェクトの定義と照合して付け替える。照合にはエンティティ自身の完全修飾名（longname）を使い、
+ * パラメータ（parameters()）が分かる場合は「完全修飾名(パラメータ)」が一致する定義を優先する
+ * （所属クラスが逆引きできない未解決のエンティティも照合でき、オーバーロードはパラメータで区別する）。
+ *
+ * 付け替えた呼び出し（プロジェクト間の呼び出し）は、呼び出し先のメソッドの callby にも追加する。
+ * 照合できる定義が複数ある場合（パラメータの分からないオーバーロードや、複数のプロジェクトにある
+ * 同名クラス）は最初に見つかった定義に付け替え、件数を {@link #stats()} に含める。
+ */
+final class MergedSnapshot {
+
+    static final String[] CROSS_CALLS_HEADER = { "呼び出し元プロジェクト", "呼び出し元クラス", "呼び出し元メソッド",
+        "呼び出し先プロジェクト", "呼び出し先クラス", "呼び出し先メソッド", "ファイル名", "呼び出し行" };
+
+    private final String[] projects;
+    private final CodeSnapshot snapshot;
+    // プロジェクト p のメソッド行は methodStart[p] 〜 methodStart[p + 1]（エンティティ表も同様）
+    private final int[] methodStart;
+    private final int[] entStart;
+    // プロジェクト間の呼び出し: calls 行, 呼び出し先のメソッド行
+    private final IntList crossCall = new IntList();
+    private final IntList crossTarget = new IntList();
+    private int ambiguous;
+    private int unmatched;
+
+    private MergedSnapshot(String[] projects, List<CodeSnapshot> parts) {
+        this.projects = projects;
+        methodStart = new int[parts.size() + 1];
+        entStart = new int[parts.size() + 1];
+        for (int p = 0; p < parts.size(); p++) {
+            methodStart[p + 1] = methodStart[p] + parts.get(p).methodCount();
+            entStart[p + 1] = entStart[p] + parts.get(p).entityCount();
+        }
+        snapshot = CodeSnapshot.mergeProjects(parts);
+        resolve();
+    }
+
+    /**
+     * paths の UDB を同時に開いて取り込み、1つにまとめる。
+     * threads が 2 以上なら各 UDB を {@link ParallelSnapshotBuilder} で取り込む。
+     */
+    static MergedSnapshot build(String[] paths, int threads, boolean dbPerWorker, int ownerCacheSize)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(paths.length, new ThreadFactory() {
+            private int next;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "udb-" + next++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<CodeSnapshot>> futures = new ArrayList<>();
+        try {
+            for (String path : paths) {
+                futures.add(pool.submit(() -> capture(path, threads, dbPerWorker, ownerCacheSize)));
+            }
+            List<CodeSnapshot> parts = new ArrayList<>();
+            for (Future<CodeSnapshot> future : futures) {
+                try {
+                    parts.add(future.get());
+                } catch (ExecutionException e) {
+                    for (Future<CodeSnapshot> f : futures) {
+                        f.cancel(true);
+                    }
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+            String[] projects = new String[paths.length];
+            for (int p = 0; p < paths.length; p++) {
+                projects[p] = projectName(paths[p]);
+            }
+            return new MergedSnapshot(projects, parts);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** 1つの UDB を開いて取り込み、閉じる（UDB ごとのスレッドで呼ばれる） */
+    private static CodeSnapshot capture(String path, int threads, boolean dbPerWorker, int ownerCacheSize)
+            throws Exception {
+        Database db = Understand.open(path);
+        try {
+            Entity[] classes = ApiMetrics.ents(db, Query.CLASS_KINDS);
+            OwnerResolver owners = new OwnerResolver(ownerCacheSize);
+            if (threads > 1) {
+                try (ParallelSnapshotBuilder builder = new ParallelSnapshotBuilder(path, threads, dbPerWorker, owners)) {
+                    return builder.build(classes);
+                }
+            }
+            return CodeSnapshot.build(classes, owners);
+        } finally {
+            db.close();
+        }
+    }
+
+    /** UDB のパスからプロジェクト名（拡張子を除いたファイル名）を求める */
+    static String projectName(String path) {
+        String name = new File(path).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /** プロジェクト内で定義されていないメソッドを、他のプロジェクトの同じ名前の定義に付け替える */
+    private void resolve() {
+        // "完全修飾名(パラメータ)"・"完全修飾名" → 最初に見つかった定義のメソッド行
+        Map<String, Integer> definitions = new HashMap<>();
+        Set<String> duplicated = new HashSet<>();
+        BitSet defined = new BitSet(snapshot.entityCount());
+        for (int m = 0; m < snapshot.methodCount(); m++) {
+            int ent = snapshot.methodEntity(m);
+            defined.set(ent);
+            for (String key : new String[] { signature(ent), snapshot.entityLongname(ent) }) {
+                if (key != null && definitions.putIfAbsent(key, m) != null) {
+                    duplicated.add(key);
+                }
+            }
+        }
+
+        int[] target = new int[snapshot.entityCount()];
+        int[] targetRow = new int[target.length];
+        Arrays.fill(target, -1);
+        for (int e = 0; e < target.length; e++) {
+            if (defined.get(e)) {
+                continue;
+            }
+            String key = signature(e);
+            Integer m = key != null ? definitions.get(key) : null;
+            if (m == null) {
+                key = snapshot.entityLongname(e);
+                m = key != null ? definitions.get(key) : null;
+            }
+            if (m == null) {
+                unmatched++;
+            } else if (project(methodStart, m) != project(entStart, e)) {
+                target[e] = snapshot.methodEntity(m);
+                targetRow[e] = m;
+                // 呼び出し先として現れていなかった定義は、calls.csv の呼び出し先クラスを所属クラスにする
+                if (snapshot.entityOwnerId(target[e]) == CodeSnapshot.NULL_STRING) {
+                    snapshot.setEntityOwner(target[e], snapshot.classNameId(snapshot.methodClassRow(m)));
+                }
+                if (duplicated.contains(key)) {
+                    ambiguous++;
+                }
+            }
+        }
+
+        int calls = snapshot.callCount();
+        for (int i = 0; i < calls; i++) {
+            int callee = snapshot.callCallee(i);
+            if (target[callee] >= 0) {
+                crossCall.add(i);
+                crossTarget.add(targetRow[callee]);
+            }
+        }
+        snapshot.redirectEntities(target);
+        for (int c = 0; c < crossCall.size(); c++) {
+            int i = crossCall.get(c);
+            snapshot.addCallBy(crossTarget.get(c), snapshot.callCaller(i), snapshot.intern(snapshot.callFile(i)),
+                snapshot.callLine(i));
+        }
+    }
+
+    /** エンティティの "完全修飾名(パラメータ)"（パラメータが分からない場合は null） */
+    private String signature(int ent) {
+        String longname = snapshot.entityLongname(ent);
+        String params = snapshot.entityParameters(ent);
+        return longname == null || params == null ? null : longname + "(" + params + ")";
+    }
+
+    /** start で区切った行の範囲のうち、row を含むプロジェクトの番号 */
+    private static int project(int[] start, int row) {
+        int p = Arrays.binarySearch(start, row);
+        if (p < 0) {
+            return -p - 2;
+        }
+        // 行のないプロジェクトは飛ばす
+        while (p + 1 < start.length - 1 && start[p + 1] == row) {
+            p++;
+        }
+        return p;
+    }
+
+    /** まとめたスナップショット（csv-all・impact・chain などに使う） */
+    CodeSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /** プロジェクト間の呼び出しを1行ずつ CSV に出力する */
+    void writeCrossCalls(CsvWriter w) throws IOException {
+        w.row(CROSS_CALLS_HEADER);
+        for (int c = 0; c < crossCall.size(); c++) {
+            int i = crossCall.get(c);
+            int caller = snapshot.callMethodRow(i);
+            int callee = crossTarget.get(c);
+            w.field(projects[project(methodStart, caller)])
+                .field(snapshot.methodClassName(caller))
+                .field(snapshot.entityName(snapshot.methodEntity(caller)))
+                .field(projects[project(methodStart, callee)])
+                .field(snapshot.methodClassName(callee))
+                .field(snapshot.entityName(snapshot.methodEntity(callee)))
+                .field(snapshot.callFile(i))
+                .field(snapshot.callLine(i))
+                .endRow();
+        }
+    }
+
+    /** プロジェクトごとのメソッド数と、プロジェクト間の呼び出しの件数を返す */
+    String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (int p = 0; p < projects.length; p++) {
+            sb.append(String.format("  %s: メソッド %d 件%n", projects[p], methodStart[p + 1] - methodStart[p]));
+        }
+        sb.append(String.format("プロジェクト間の呼び出し: %d 件（同名の定義が複数あるもの %d 件、"
+            + "どのプロジェクトにも定義のない呼び出し先 %d 件）", crossCall.size(), ambiguous, unmatched));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,184 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * エンティティの名前索引。
+ *
+ * {@code db.ents(kinds)} を1回だけ走査し、短縮名（name）の索引を作る。完全修飾名（longname）の
+ * 索引は最初に必要になったときに作る。索引は次の2つからなる。
+ *
+ * <pre>
+ *   ハッシュ   : 名前 → エンティティ番号の配列（完全一致）
+ *   ソート済み : 重複を除いた名前の昇順配列（前方一致は二分探索で範囲を求める）
+ * </pre>
+ *
+ * 同名のエンティティ（オーバーロードされたメソッドや、別パッケージの同名クラスなど）は
+ * すべて返す。glob（{@code *} と {@code ?}）はワイルドカードより前の固定部分で範囲を
+ * 絞ってから照合する。
+ *
+ * 検索は常に name から照合し、一致しなかった場合に限って "." を含む名前を longname と照合する。
+ * ファイル名（{@code SampleProject.java}）やメソッド名に "." を含む場合も name で見つかる。
+ */
+final class NameIndex {
+
+    private final Entity[] entities;
+    private final Keys names;
+    private Keys longnames;
+
+    private NameIndex(Entity[] entities) {
+        this.entities = entities;
+        String[] keys = new String[entities.length];
+        for (int i = 0; i < entities.length; i++) {
+            keys[i] = ApiMetrics.name(entities[i]);
+        }
+        this.names = new Keys(keys);
+    }
+
+    /** db.ents(kinds) の名前索引を作成する */
+    static NameIndex build(Database db, String kinds) {
+        return new NameIndex(ApiMetrics.ents(db, kinds));
+    }
+
+    /** 索引対象のエンティティ数 */
+    int size() {
+        return entities.length;
+    }
+
+    /**
+     * 名前に一致するエンティティをすべて返す。
+     * name と照合し、一致せず query に "." を含む場合は longname と照合する。
+     * query に {@code *} または {@code ?} を含む場合は glob として扱う。
+     */
+    List<Entity> find(String query) {
+        boolean glob = query.indexOf('*') >= 0 || query.indexOf('?') >= 0;
+        IntList hits = glob ? names.glob(query) : names.exact(query);
+        if (hits.size() == 0 && query.indexOf('.') >= 0) {
+            hits = glob ? longnames().glob(query) : longnames().exact(query);
+        }
+        return toEntities(hits);
+    }
+
+    /** 名前が prefix で始まるエンティティをすべて返す（照合の順序は {@link #find(String)} と同じ） */
+    List<Entity> findByPrefix(String prefix) {
+        IntList hits = names.prefix(prefix);
+        if (hits.size() == 0 && prefix.indexOf('.') >= 0) {
+            hits = longnames().prefix(prefix);
+        }
+        return toEntities(hits);
+    }
+
+    private synchronized Keys longnames() {
+        if (longnames == null) {
+            String[] keys = new String[entities.length];
+            for (int i = 0; i < entities.length; i++) {
+                keys[i] = ApiMetrics.longname(entities[i]);
+            }
+            longnames = new Keys(keys);
+        }
+        return longnames;
+    }
+
+    private List<Entity> toEntities(IntList hits) {
+        List<Entity> result = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            result.add(entities[hits.get(i)]);
+        }
+        return result;
+    }
+
+    /** 1種類の名前（name または longname）に対する索引。値は keys 配列の位置 */
+    static final class Keys {
+        private final Map<String, int[]> postings = new HashMap<>();
+        private final String[] sorted;
+
+        Keys(String[] keys) {
+            Map<String, IntList> lists = new HashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    lists.computeIfAbsent(keys[i], k -> new IntList(1)).add(i);
+                }
+            }
+            for (Map.Entry<String, IntList> entry : lists.entrySet()) {
+                postings.put(entry.getKey(), entry.getValue().toArray());
+            }
+            sorted = postings.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+        }
+
+        IntList exact(String key) {
+            IntList hits = new IntList(1);
+            addAll(hits, key);
+            return hits;
+        }
+
+        IntList prefix(String prefix) {
+            IntList hits = new IntList();
+            for (int i = lowerBound(prefix); i < sorted.length && sorted[i].startsWith(prefix); i++) {
+                addAll(hits, sorted[i]);
+            }
+            return hits;
+        }
+
+        IntList glob(String glob) {
+            String literal = literalPrefix(glob);
+            Pattern pattern = toPattern(glob);
+            IntList hits = new IntList();
+            for (int i = lowerBound(literal); i < sorted.length && sorted[i].startsWith(literal); i++) {
+                if (pattern.matcher(sorted[i]).matches()) {
+                    addAll(hits, sorted[i]);
+                }
+            }
+            return hits;
+        }
+
+        private void addAll(IntList hits, String key) {
+            int[] ids = postings.get(key);
+            if (ids != null) {
+                for (int id : ids) {
+                    hits.add(id);
+                }
+            }
+        }
+
+        /** key 以上となる最初の位置を二分探索で求める */
+        private int lowerBound(String key) {
+            int lo = 0;
+            int hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid].compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** glob の最初のワイルドカードより前の部分 */
+        private static String literalPrefix(String glob) {
+            int end = glob.length();
+            int star = glob.indexOf('*');
+            int question = glob.indexOf('?');
+            if (star >= 0) end = Math.min(end, star);
+            if (question >= 0) end = Math.min(end, question);
+            return glob.substring(0, end);
+        }
+
+        private static Pattern toPattern(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                    regex.append(c == '*' ? ".*" : ".");
+                    start = i + 1;
+                }
+            }
+            regex.append(Pattern.quote(glob.substring(start)));
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
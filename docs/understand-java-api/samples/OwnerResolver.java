@@ -0,0 +1,102 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * メソッドの所属クラス名を逆引きするキャッシュ。
+ *
+ * 所属クラスは {@code method.refs("definein", "class", true)} の先頭要素で求める
+ * （ネストクラス・匿名クラス・enum のメソッドも同じ扱い）。結果は Entity.id() をキーに
+ * 保持し、calls / calledby の両方で共有する。上限件数を指定すると、最も長く使われていない
+ * エントリから破棄する。
+ *
+ * クラス一覧の走査中に {@link #seed(int, String)} で「クラスが定義しているメソッド」を
+ * 事前登録しておけば、プロジェクト内のメソッドは definein の逆引きなしで解決できる。
+ *
+ * 並列出力（--threads）のワーカーから同時に呼ばれてもよい。逆引きの実行中はロックを
+ * 保持しないため、同じメソッドが同時にミスした場合は逆引きが重複することがある。
+ */
+final class OwnerResolver {
+
+    private final Map<Integer, String> owners;
+    // クラスエンティティ ID → クラス名（longname）
+    private final Map<Integer, String> classNames = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** 件数無制限のキャッシュを作成する */
+    OwnerResolver() {
+        this(0);
+    }
+
+    /** 最大 maxEntries 件のキャッシュを作成する（0 以下は無制限） */
+    OwnerResolver(int maxEntries) {
+        if (maxEntries > 0) {
+            owners = Collections.synchronizedMap(new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+        } else {
+            owners = new ConcurrentHashMap<>();
+        }
+    }
+
+    /** メソッドの所属クラス名を返す。uid は method.id() の値 */
+    String ownerOf(int uid, Entity method) {
+        String owner = owners.get(uid);
+        if (owner != null) {
+            hits.increment();
+            return owner;
+        }
+        misses.increment();
+        owner = lookup(method);
+        owners.put(uid, owner);
+        return owner;
+    }
+
+    /** クラスが定義しているメソッドの所属クラスを事前登録する */
+    void seed(int methodUid, String owner) {
+        owners.putIfAbsent(methodUid, owner);
+    }
+
+    /** クラス名（longname）を、クラスエンティティごとに1回だけ取得する */
+    String className(Entity cls) {
+        int uid = cls.id();
+        String name = classNames.get(uid);
+        if (name == null) {
+            name = ApiMetrics.longname(cls);
+            classNames.put(uid, name);
+        }
+        return name;
+    }
+
+    /** definein 参照でメソッドを定義しているクラスを逆引き */
+    private String lookup(Entity method) {
+        Reference[] defInRefs = ApiMetrics.refs(method, "definein", "class", true);
+        if (defInRefs.length > 0) {
+            return className(ApiMetrics.ent(defInRefs[0]));
+        }
+        return "";
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /** ヒット数・ミス数を1行で返す */
+    String stats() {
+        long hits = hits();
+        long misses = misses();
+        long total = hits + misses;
+        double rate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("所属クラス逆引き: %d 件 (キャッシュヒット %d / definein 参照 %d, ヒット率 %.1f%%)",
+            total, hits, misses, rate);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * 配列の要素ごとの処理を複数のスレッドで行い、結果を元の順序で受け取る。
+ *
+ * 同時に処理する要素数をスレッド数の2倍までに抑え、先頭の要素の結果を受け取ってから
+ * 次の要素の処理を始める。各要素の結果は受け取った時点で手放せるため、保持する結果は
+ * 全要素ではなく処理中の分だけになる（ファイルごとの Lexer や depends() の結果など）。
+ * 結果は常に items の順序で渡すため、スレッド数を変えても出力は同じになる。
+ */
+final class ParallelMap {
+
+    private ParallelMap() {
+    }
+
+    /** 1要素分の処理（複数のスレッドから呼ばれる） */
+    interface Task<S, T> {
+        T apply(S item) throws Exception;
+    }
+
+    /**
+     * items を threads 個のスレッドで task に渡し、要素ごとの結果を items の順序で sink に渡す。
+     * sink は呼び出し元のスレッドで呼ばれる。threads が 1 以下の場合は呼び出し元のスレッドだけで処理する。
+     */
+    static <S, T> void map(S[] items, int threads, Task<S, T> task, Consumer<T> sink) throws Exception {
+        if (threads <= 1) {
+            for (S item : items) {
+                sink.accept(task.apply(item));
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "parallel-map");
+            t.setDaemon(true);
+            return t;
+        });
+        Deque<Future<T>> inFlight = new ArrayDeque<>();
+        int window = threads * 2;
+        int submitted = 0;
+        try {
+            while (submitted < items.length || !inFlight.isEmpty()) {
+                while (submitted < items.length && inFlight.size() < window) {
+                    S item = items[submitted++];
+                    inFlight.add(pool.submit(() -> task.apply(item)));
+                }
+                try {
+                    sink.accept(inFlight.poll().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * クラス一覧をチャンクに分け、複数のワーカースレッドで {@link CodeSnapshot} を作成する。
+ *
+ * 各チャンクは「クラス定義・メソッド定義（1段目）」と「call / callby 参照（2段目）」の
+ * 2段階で取り込む。全チャンクの1段目が終わってから2段目を始めるため、所属クラスの
+ * 事前登録は1スレッドの場合と同じく全クラス分がそろった状態で呼び出し関係を解決できる。
+ * チャンクの結果は元のクラス順に連結するので、出力は1スレッドの場合とバイト単位で一致する。
+ *
+ * チャンク i は常にワーカー i % threads が担当する。Understand のハンドルをスレッド間で
+ * 共有できない場合に備え、dbPerWorker を指定するとワーカーごとに UDB を開き直し、
+ * 各ワーカーは自分のハンドルから取得した Entity だけを扱う。
+ *
+ * ワーカーのスレッドと、dbPerWorker で開いたハンドルは {@link #close()} まで保持し、{@link #build}
+ * を繰り返し呼ぶ場合（csv-all --stream のバッチごとの取り込み）も作り直さない。
+ */
+final class ParallelSnapshotBuilder implements AutoCloseable {
+
+    /** 1ワーカーあたりのチャンク数の目安（負荷の偏りをならすため細かめに分ける） */
+    private static final int CHUNKS_PER_WORKER = 8;
+
+    private final String udbPath;
+    private final int threads;
+    private final boolean dbPerWorker;
+    private final OwnerResolver owners;
+    private final ExecutorService[] workers;
+    // dbPerWorker の場合にワーカーごとに開いたハンドルと、そのハンドルから取得したクラス一覧（最初の build で開く）
+    private Database[] handles;
+    private Entity[][] handleClasses;
+
+    ParallelSnapshotBuilder(String udbPath, int threads, boolean dbPerWorker, OwnerResolver owners) {
+        this.udbPath = udbPath;
+        this.threads = threads;
+        this.dbPerWorker = dbPerWorker;
+        this.owners = owners;
+        workers = new ExecutorService[threads];
+        for (int w = 0; w < threads; w++) {
+            String name = "csv-all-worker-" + w;
+            workers[w] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** classes を並列に走査してスナップショットを作成する */
+    CodeSnapshot build(Entity[] classes) throws Exception {
+        return build(classes, 0, classes.length);
+    }
+
+    /** classes[from, to) を並列に走査してスナップショットを作成する */
+    CodeSnapshot build(Entity[] classes, int from, int to) throws Exception {
+        int count = to - from;
+        int targetChunks = threads * CHUNKS_PER_WORKER;
+        int chunkSize = Math.max(1, (count + targetChunks - 1) / targetChunks);
+        int chunkCount = (count + chunkSize - 1) / chunkSize;
+        Map<Integer, String> sharedNames = new ConcurrentHashMap<>();
+        Map<Integer, String[]> sharedSignatures = new ConcurrentHashMap<>();
+        List<CodeSnapshot> parts = new ArrayList<>();
+        for (int c = 0; c < chunkCount; c++) {
+            parts.add(new CodeSnapshot(sharedNames, sharedSignatures));
+        }
+
+        Entity[][] workerClasses = dbPerWorker ? openHandles(classes.length) : new Entity[threads][];
+        if (!dbPerWorker) {
+            Arrays.fill(workerClasses, classes);
+        }
+        // 1段目: クラス定義とメソッド定義（所属クラスの事前登録）
+        runChunks(chunkCount, c -> {
+            int chunkFrom = from + c * chunkSize;
+            int chunkTo = Math.min(to, chunkFrom + chunkSize);
+            parts.get(c).captureDefinitions(workerClasses[c % threads], chunkFrom, chunkTo, owners);
+        });
+        // 2段目: call / callby 参照
+        runChunks(chunkCount, c -> parts.get(c).captureCalls(owners));
+        return CodeSnapshot.merge(parts);
+    }
+
+    /** ワーカーごとに UDB を開き（開いていなければ）、各ハンドルのクラス一覧を返す */
+    private Entity[][] openHandles(int classCount) throws Exception {
+        if (handles == null) {
+            handles = new Database[threads];
+            handleClasses = new Entity[threads][];
+            runOnWorkers(w -> {
+                handles[w] = Understand.open(udbPath);
+                handleClasses[w] = ApiMetrics.ents(handles[w], Query.CLASS_KINDS);
+            });
+        }
+        for (int w = 0; w < threads; w++) {
+            if (handleClasses[w].length != classCount) {
+                throw new IllegalStateException("ワーカー " + w + " のクラス数が一致しません: "
+                    + handleClasses[w].length + " / " + classCount);
+            }
+        }
+        return handleClasses;
+    }
+
+    /** dbPerWorker で開いたハンドルを（開いたワーカーのスレッドで）閉じ、ワーカーのスレッドを終了する */
+    @Override
+    public void close() {
+        try {
+            if (handles != null) {
+                runOnWorkers(w -> {
+                    if (handles[w] != null) handles[w].close();
+                });
+                handles = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            throw new IllegalStateException("ワーカーの UDB を閉じられません: " + udbPath, e);
+        } finally {
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+        }
+    }
+
+    /** ワーカー単位の処理 */
+    private interface WorkerTask {
+        void run(int index) throws Exception;
+    }
+
+    /** 各ワーカーのスレッドで task を1回ずつ実行する */
+    private void runOnWorkers(WorkerTask task) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < workers.length; w++) {
+            int index = w;
+            futures.add(workers[w].submit(() -> {
+                task.run(index);
+                return null;
+            }));
+        }
+        await(futures);
+    }
+
+    /** チャンク c を担当ワーカー（c % threads）で実行し、すべて終わるまで待つ */
+    private void runChunks(int chunkCount, WorkerTask task) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < chunkCount; c++) {
+            int chunk = c;
+            futures.add(workers[c % threads].submit(() -> {
+                task.run(chunk);
+                return null;
+            }));
+        }
+        await(futures);
+    }
+
+    private static void await(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 長い処理の進捗を一定間隔で表示する。
+ *
+ * 処理側は {@link #advance(int, long)} で完了した件数と出力した行数を加算するだけで、
+ * 表示は別のデーモンスレッドが interval 秒ごとに行う（件数の加算のたびに時刻の取得や出力はしない）。
+ * 1行には処理段階・完了件数・行数と1秒あたりの行数・経過時間・残り時間の見込みを表示する。
+ * 残り時間は、この実行で完了した件数の平均速度から求める。
+ */
+final class Progress implements Closeable {
+
+    private final String unit;
+    private final long total;
+    // 再開した場合に、開始時点で完了していた件数
+    private final long initial;
+    private final PrintStream out;
+    private final long start = System.nanoTime();
+    private final AtomicLong done;
+    private final AtomicLong rows = new AtomicLong();
+    private volatile String phase = "";
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "progress");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** total 件のうち done 件が完了した状態から、interval 秒ごとに out へ表示する。unit は件数の単位（"クラス" など） */
+    Progress(String unit, long total, long done, int interval, PrintStream out) {
+        this.unit = unit;
+        this.total = total;
+        this.initial = done;
+        this.done = new AtomicLong(done);
+        this.out = out;
+        timer.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /** 現在の処理段階（"取り込み" など）を設定する */
+    void phase(String phase) {
+        this.phase = phase;
+    }
+
+    /** items 件が完了し、rows 行を出力したことを記録する */
+    void advance(int items, long rows) {
+        done.addAndGet(items);
+        this.rows.addAndGet(rows);
+    }
+
+    /** 進捗を1行表示する */
+    void report() {
+        long elapsed = System.nanoTime() - start;
+        long finished = done.get();
+        long written = rows.get();
+        double seconds = elapsed / 1e9;
+        String eta = "-";
+        if (finished > initial && finished < total) {
+            double perItem = seconds / (finished - initial);
+            eta = duration((long) (perItem * (total - finished)));
+        }
+        out.printf("[進捗] %s: %s %d/%d (%.1f%%), %d 行 (%.0f 行/秒), 経過 %s, 残り約 %s%n",
+            phase, unit, finished, total, total == 0 ? 100.0 : 100.0 * finished / total,
+            written, seconds > 0 ? written / seconds : 0, duration((long) seconds), eta);
+    }
+
+    /** 表示を止め、最後の進捗を表示する */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        report();
+    }
+
+    private static String duration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
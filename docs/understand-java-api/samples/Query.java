@@ -0,0 +1,252 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * 参照の問い合わせ（参照種別・エンティティ種別・関連エンティティ名・ファイル名・行の範囲）。
+ *
+ * 種別の条件は {@code refs()} の引数に渡して Understand 側で絞り込み、残りの条件（名前・ファイル・行）は
+ * 返された配列を順にたどりながら確かめる。問い合わせは変更できないオブジェクトで、よく使うものは
+ * 定数として1回だけ作る。{@link #stream(Entity)} は終端操作が始まった時点で {@code refs()} を
+ * 1回だけ呼ぶ遅延ストリームを返し、条件に合わない参照はストリームの要素にならない。
+ * {@link RefCache} を渡すと、refs() の結果はキャッシュから取得する（名前などの条件は毎回確かめる）。
+ *
+ * {@code db.ents()} の問い合わせは {@link Entities} で同じように組み立てる（種別は db.ents() の引数に
+ * 付け足し、名前は返された配列をたどりながら確かめる）。
+ *
+ * <pre>
+ *   Query.CALLS.stream(method)                        // call, method, unique
+ *   Query.ALL.file("TaskManager.java").lines(10, 50)  // 参照種別を問わず、ファイルと行で絞る
+ *   Query.CLASSES.kind("abstract").stream(db)         // 抽象クラスだけ
+ * </pre>
+ */
+final class Query {
+
+    /** db.ents() のエンティティ種別 */
+    static final String CLASS_KINDS = "class ~unknown ~unresolved";
+    static final String FILE_KINDS = "file ~unknown ~unresolved";
+
+    /** UDB 内のクラス */
+    static final Entities CLASSES = new Entities(CLASS_KINDS, null);
+
+    /** クラスが定義するメソッド */
+    static final Query METHODS = new Query("define", "method", true);
+    /** メソッドが呼び出すメソッド */
+    static final Query CALLS = new Query("call", "method", true);
+    /** メソッドを呼び出すメソッド */
+    static final Query CALLED_BY = new Query("callby", "method", true);
+    /** すべての参照 */
+    static final Query ALL = new Query(null, null, false);
+
+    private final String refkinds;
+    private final String entkinds;
+    private final boolean unique;
+    private final String name;
+    private final String file;
+    private final int lineFrom;
+    private final int lineTo;
+
+    private Query(String refkinds, String entkinds, boolean unique) {
+        this(refkinds, entkinds, unique, null, null, 0, Integer.MAX_VALUE);
+    }
+
+    private Query(String refkinds, String entkinds, boolean unique, String name, String file,
+            int lineFrom, int lineTo) {
+        this.refkinds = refkinds;
+        this.entkinds = entkinds;
+        this.unique = unique;
+        this.name = name;
+        this.file = file;
+        this.lineFrom = lineFrom;
+        this.lineTo = lineTo;
+    }
+
+    /** 参照種別・エンティティ種別（null は条件なし）で refs() を呼ぶ問い合わせ */
+    static Query refs(String refkinds, String entkinds, boolean unique) {
+        return new Query(refkinds, entkinds, unique);
+    }
+
+    /** 関連エンティティの name() が一致する参照だけに絞る */
+    Query name(String name) {
+        return new Query(refkinds, entkinds, unique, name, file, lineFrom, lineTo);
+    }
+
+    /** 参照のあるファイルの name() が一致する参照だけに絞る */
+    Query file(String file) {
+        return new Query(refkinds, entkinds, unique, name, file, lineFrom, lineTo);
+    }
+
+    /** 行が from 以上 to 以下の参照だけに絞る */
+    Query lines(int from, int to) {
+        return new Query(refkinds, entkinds, unique, name, file, from, to);
+    }
+
+    /**
+     * 行の範囲を "10-50"・"10-"・"-50"・"10" の形式で指定する。
+     * 形式が正しくない場合は、入力の誤りとして IllegalArgumentException を投げる。
+     */
+    Query lines(String range) {
+        try {
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                int line = Integer.parseInt(range.trim());
+                return lines(line, line);
+            }
+            String from = range.substring(0, dash).trim();
+            String to = range.substring(dash + 1).trim();
+            return lines(from.isEmpty() ? 0 : Integer.parseInt(from),
+                to.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(to));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("行の範囲が正しくありません: " + range
+                + "（10-50・10-・-50・10 の形式で指定してください）", e);
+        }
+    }
+
+    /** refs() で取り出したあと、Java 側で確かめる条件があるか */
+    private boolean filtered() {
+        return name != null || file != null || lineFrom > 0 || lineTo < Integer.MAX_VALUE;
+    }
+
+    /** ent の参照のうち条件に合うものを順に返す（refs() は終端操作の開始時に1回だけ呼ぶ） */
+    Stream<Reference> stream(Entity ent) {
+        return stream(ent, null);
+    }
+
+    /** {@link #stream(Entity)} と同じ。cache が null でなければ refs() の結果をキャッシュから取得する */
+    Stream<Reference> stream(Entity ent, RefCache cache) {
+        return StreamSupport.stream(() -> spliterator(fetch(ent, cache)),
+            filtered() ? Spliterator.ORDERED | Spliterator.NONNULL
+                : Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED,
+            false);
+    }
+
+    /** 複数のエンティティの参照を順に返す */
+    Stream<Reference> stream(Collection<Entity> ents) {
+        return ents.stream().flatMap(this::stream);
+    }
+
+    /** ent の参照のうち条件に合うものを順に action に渡す */
+    void forEach(Entity ent, Consumer<Reference> action) {
+        forEach(ent, null, action);
+    }
+
+    /** {@link #forEach(Entity, Consumer)} と同じ。cache が null でなければ refs() の結果をキャッシュから取得する */
+    void forEach(Entity ent, RefCache cache, Consumer<Reference> action) {
+        for (Reference ref : fetch(ent, cache)) {
+            if (test(ref)) {
+                action.accept(ref);
+            }
+        }
+    }
+
+    private Reference[] fetch(Entity ent, RefCache cache) {
+        return cache != null ? cache.refs(ent, refkinds, entkinds, unique)
+            : ApiMetrics.refs(ent, refkinds, entkinds, unique);
+    }
+
+    private Spliterator<Reference> spliterator(Reference[] refs) {
+        return filtered() ? new RefSpliterator(refs) : Spliterators.spliterator(refs,
+            Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /** 名前・ファイル・行の条件を確かめる（安い条件から順に確かめる） */
+    private boolean test(Reference ref) {
+        if (lineFrom > 0 || lineTo < Integer.MAX_VALUE) {
+            int line = ApiMetrics.line(ref);
+            if (line < lineFrom || line > lineTo) {
+                return false;
+            }
+        }
+        if (file != null && !file.equals(ApiMetrics.name(ApiMetrics.file(ref)))) {
+            return false;
+        }
+        return name == null || name.equals(ApiMetrics.name(ApiMetrics.ent(ref)));
+    }
+
+    /**
+     * エンティティの問い合わせ（db.ents() のエンティティ種別・名前）。
+     *
+     * 種別の条件は db.ents() の引数に付け足して Understand 側で絞り込み、名前は返された配列を
+     * たどりながら確かめる。{@link Query} と同じく変更できないオブジェクトで、{@link #stream(Database)} は
+     * 終端操作が始まった時点で db.ents() を1回だけ呼ぶ。
+     */
+    static final class Entities {
+        private final String kinds;
+        private final String name;
+
+        private Entities(String kinds, String name) {
+            this.kinds = kinds;
+            this.name = name;
+        }
+
+        /** db.ents() の種別（null はすべて）で問い合わせる */
+        static Entities ents(String kinds) {
+            return new Entities(kinds, null);
+        }
+
+        /**
+         * 種別の条件を足す（"abstract"・"public" など。空白で区切った語はすべて満たすものに絞る）。
+         * null・空文字列の場合は条件を変えない。
+         */
+        Entities kind(String kind) {
+            if (kind == null || kind.trim().isEmpty()) {
+                return this;
+            }
+            if (kind.indexOf(',') >= 0) {
+                throw new IllegalArgumentException("種別の条件に \",\" は指定できません: " + kind);
+            }
+            return new Entities(kinds == null ? kind.trim() : kinds + " " + kind.trim(), name);
+        }
+
+        /** name() が一致するエンティティだけに絞る */
+        Entities name(String name) {
+            return new Entities(kinds, name);
+        }
+
+        /** 条件に合うエンティティを db.ents() の順に返す（db.ents() は終端操作の開始時に1回だけ呼ぶ） */
+        Stream<Entity> stream(Database db) {
+            Stream<Entity> ents = StreamSupport.stream(
+                () -> Spliterators.spliterator(ApiMetrics.ents(db, kinds), Spliterator.ORDERED | Spliterator.NONNULL),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED, false);
+            return name == null ? ents : ents.filter(ent -> name.equals(ApiMetrics.name(ent)));
+        }
+    }
+
+    /** 配列を先頭からたどり、条件に合う参照だけを返す Spliterator（分割はしない） */
+    private final class RefSpliterator implements Spliterator<Reference> {
+        private final Reference[] refs;
+        private int next;
+
+        RefSpliterator(Reference[] refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Reference> action) {
+            while (next < refs.length) {
+                Reference ref = refs[next++];
+                if (test(ref)) {
+                    action.accept(ref);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Reference> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return refs.length - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
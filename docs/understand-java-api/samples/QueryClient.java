@@ -0,0 +1,92 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * {@link QueryServer}（CodeExplorer serve）に問い合わせを送るクライアント。
+ *
+ * 使い方:
+ *   java -cp . QueryClient [--port N] <コマンド> [対象名] [オプション]
+ *   java -cp . QueryClient [--port N] < 問い合わせファイル
+ *
+ * コマンドを指定しない場合は、標準入力の各行を1件の問い合わせとして同じ接続で順に送る。
+ * Understand.jar は不要（UDB はサーバー側で開いている）。
+ */
+public class QueryClient implements Closeable {
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    /** 127.0.0.1 の port で待ち受けているサーバーに接続する */
+    QueryClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = QueryServer.DEFAULT_PORT;
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                words.add(args[i]);
+            }
+        }
+
+        try (QueryClient client = new QueryClient(port)) {
+            if (!words.isEmpty()) {
+                client.query(String.join(" ", words), System.out::println);
+                return;
+            }
+            BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String request;
+            while ((request = requests.readLine()) != null) {
+                if (!request.trim().isEmpty()) {
+                    client.query(request, System.out::println);
+                }
+            }
+        } catch (ConnectException e) {
+            System.err.println("サーバーに接続できません (ポート " + port + "): " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** 問い合わせを1件送り、応答の各行を返す */
+    List<String> query(String request) throws IOException {
+        List<String> lines = new ArrayList<>();
+        query(request, lines::add);
+        return lines;
+    }
+
+    /** 問い合わせを1件送り、応答を終わりの行まで1行ずつ lines に渡す（先頭に重ねた "." は取り除く） */
+    void query(String request, Consumer<String> lines) throws IOException {
+        out.write(request);
+        out.write('\n');
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(QueryServer.END)) {
+                return;
+            }
+            lines.accept(line.startsWith(QueryServer.END) ? line.substring(1) : line);
+        }
+        throw new EOFException("応答の途中で接続が閉じられました");
+    }
+
+    /** "quit" を送って接続を閉じる */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write("quit\n");
+            out.flush();
+        } catch (IOException e) {
+            // サーバー側で既に閉じている
+        }
+        socket.close();
+    }
+}
@@ -0,0 +1,146 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * UDB を開いたまま CodeExplorer のコマンドを受け付けるサーバー。
+ *
+ * 127.0.0.1 の指定ポートで待ち受け、1行に1つの問い合わせを受け取る。問い合わせは
+ * コマンドラインと同じく "コマンド [対象名] [オプション]" を空白で区切ったもの。
+ * 応答は出力の各行に続けて "." だけの行で終わる。"." で始まる出力行は先頭に "." を
+ * もう1つ付けて送る。1つの接続で複数の問い合わせを順に送ることができ、"quit" で接続を閉じる。
+ *
+ * 接続ごとにスレッドを割り当てるが、Database を使う処理を同時に実行するのは
+ * threads 件までに制限する。名前索引と file-deps の依存関係表は最初の問い合わせで作成し、
+ * 以降の問い合わせで使い回す。Database は Understand.open() で開いたものに限らず、
+ * メモリ上に用意したサブクラスを渡してもよい。
+ */
+final class QueryServer implements Closeable {
+
+    static final int DEFAULT_PORT = 7070;
+    /** 応答の終わりを示す行 */
+    static final String END = ".";
+    /** 問い合わせがないまま接続を保持する時間 */
+    private static final int IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private final Database db;
+    private final ServerSocket socket;
+    private final Semaphore permits;
+    private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "query-connection");
+        t.setDaemon(true);
+        return t;
+    });
+    // file-deps の依存関係表（最初の問い合わせで作成する）
+    private DependencyMap fileDeps;
+
+    QueryServer(Database db, int port, int threads) throws IOException {
+        this.db = db;
+        this.socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.permits = new Semaphore(Math.max(1, threads));
+    }
+
+    /** 待ち受けているポート番号（port に 0 を指定した場合は割り当てられた番号） */
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    /** close() されるまで接続を受け付ける */
+    void serve() throws IOException {
+        try {
+            while (true) {
+                Socket client = socket.accept();
+                connections.execute(() -> handle(client));
+            }
+        } catch (SocketException e) {
+            if (!socket.isClosed()) {
+                throw e;
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("警告: 待ち受けを終了できませんでした: " + e.getMessage());
+        }
+    }
+
+    /** 1つの接続の問い合わせを順に処理する */
+    private void handle(Socket client) {
+        try (Socket s = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setSoTimeout(IDLE_TIMEOUT_MS);
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if ("quit".equals(line)) {
+                    break;
+                }
+                String result = execute(line);
+                if (!result.isEmpty()) {
+                    for (String row : result.split("\r?\n", -1)) {
+                        out.write(row.startsWith(END) ? END + row : row);
+                        out.write('\n');
+                    }
+                }
+                out.write(END);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            // 一定時間問い合わせがない接続は閉じる
+        } catch (IOException e) {
+            System.err.println("警告: 接続を処理できませんでした: " + e.getMessage());
+        }
+    }
+
+    /** 問い合わせを1件実行し、出力をまとめて返す */
+    String execute(String request) {
+        Map<String, String> options = new HashMap<>();
+        String[] params = CodeExplorer.parseOptions(request.split("\\s+"), options);
+        String command = params.length > 0 ? params[0] : "";
+        String target = params.length > 1 ? params[1] : null;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        try {
+            permits.acquire();
+            try {
+                if ("file-deps".equals(command)) {
+                    DependencyAnalyzer.showFileDependencies(fileDependencies(), out);
+                } else if (!CodeExplorer.run(db, command, target, options, out, out)) {
+                    out.println("不明なコマンド: " + command);
+                }
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("エラー: 中断されました");
+        } catch (Exception e) {
+            out.println("エラー: " + e);
+        }
+        out.flush();
+        String result = buffer.toString(StandardCharsets.UTF_8);
+        return result.endsWith("\n") ? result.substring(0, result.length() - 1) : result;
+    }
+
+    private synchronized DependencyMap fileDependencies() {
+        if (fileDeps == null) {
+            fileDeps = DependencyMap.ofFiles(db);
+        }
+        return fileDeps;
+    }
+}
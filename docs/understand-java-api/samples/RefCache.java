@@ -0,0 +1,240 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * エンティティごとの {@code refs()} の結果を保持するキャッシュ。
+ *
+ * 同じ JVM で長く問い合わせを受け付ける場合（CodeExplorer serve など）に、取得した Reference[] を
+ * すべて保持するとヒープが足りなくなり、毎回手放すと同じ JNI 呼び出しを繰り返すことになる。
+ * このキャッシュは推定バイト数の上限を持ち、上限を超えると最も長く使われていないエントリから破棄する。
+ * 推定バイト数は Reference の件数から求める。
+ *
+ * {@link #pin(int)} で固定したエンティティのエントリと、ヒット数が {@link #HOT_HITS} 回に達したエントリは
+ * 破棄の順番が来ても1回だけ見送る（固定を外し、ヒット数を 0 に戻して最も新しい位置に移す）。
+ * 見送ったエントリは、再び固定されないまま次に順番が来たときに破棄する（固定が原因で上限を超え続けたり、
+ * 一度よく使われたエントリが残り続けたりすることはない）。固定するエンティティは最近固定したものから
+ * {@link #MAX_PINS} 件までとし、エントリを破棄したエンティティの固定は外す。
+ *
+ * 所属クラスの逆引き（{@link OwnerResolver}）と依存関係の取り込み（csv-all・class-deps・複数 UDB の
+ * {@link MergedSnapshot}）では使わない。OwnerResolver は逆引きの結果（クラス名）を Entity.id() ごとに
+ * 保持しており、取り込みは各エンティティの refs()・depends() を1回ずつしか呼ばないため、Reference[] を
+ * 保持してもヒットせずメモリだけが増える。
+ *
+ * 複数のスレッドから呼ばれてもよい。取得の実行中はロックを保持しないため、同じエントリが同時に
+ * ミスした場合は取得が重複することがある（先に登録された結果を使う）。Entity は UDB ごとのものなので、
+ * UDB を閉じる前に {@link #clear()} する。
+ */
+final class RefCache {
+
+    /** このヒット数に達したエントリは固定する */
+    static final int HOT_HITS = 4;
+    /** 固定するエンティティの上限（超えた場合は最も前に固定したものから外す） */
+    static final int MAX_PINS = 1024;
+
+    // 推定バイト数（エントリ1件の管理領域、Reference 1件と配列の要素）
+    private static final int ENTRY_BYTES = 96;
+    private static final int REF_BYTES = 40;
+
+    /** キャッシュの1エントリ */
+    private static final class Entry {
+        final long key;
+        final Object value;
+        final int uid;
+        final long weight;
+        int hits;
+        boolean pinned;
+
+        Entry(long key, Object value, int uid, long weight) {
+            this.key = key;
+            this.value = value;
+            this.uid = uid;
+            this.weight = weight;
+        }
+    }
+
+    private final long maxBytes;
+    // (refs() の引数の組の ID, Entity.id()) → エントリ（アクセス順）
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // "refkinds|entkinds|unique" → ID
+    private final Map<String, Integer> kinds = new HashMap<>();
+    // 固定したエンティティの Entity.id()（固定した順。MAX_PINS 件まで）
+    private final Set<Integer> pinned = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > MAX_PINS;
+        }
+    });
+    private long bytes;
+    private long pinnedBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+
+    /** 推定 maxBytes バイトまで保持するキャッシュを作成する */
+    RefCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** ent.refs(refkinds, entkinds, unique) の結果を返す */
+    Reference[] refs(Entity ent, String refkinds, String entkinds, boolean unique) {
+        int uid = ent.id();
+        long key = key(kindsId(refkinds, entkinds, unique), uid);
+        Reference[] refs = (Reference[]) get(key);
+        if (refs == null) {
+            refs = ApiMetrics.refs(ent, refkinds, entkinds, unique);
+            refs = (Reference[]) put(key, uid, refs, ENTRY_BYTES + (long) REF_BYTES * refs.length);
+        }
+        return refs;
+    }
+
+    private static long key(int kind, int uid) {
+        return (long) kind << 32 | (uid & 0xFFFFFFFFL);
+    }
+
+    private synchronized int kindsId(String refkinds, String entkinds, boolean unique) {
+        String name = refkinds + "|" + entkinds + "|" + unique;
+        Integer id = kinds.get(name);
+        if (id == null) {
+            id = kinds.size();
+            kinds.put(name, id);
+        }
+        return id;
+    }
+
+    /** キャッシュ済みの値を返す（ない場合は null） */
+    private synchronized Object get(long key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!e.pinned && (++e.hits >= HOT_HITS || pinned.contains(e.uid))) {
+            e.pinned = true;
+            pinnedBytes += e.weight;
+        }
+        return e.value;
+    }
+
+    /** 値を登録して返す。同時に登録された値がある場合はそちらを返す */
+    private synchronized Object put(long key, int uid, Object value, long weight) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            return e.value;
+        }
+        if (weight > maxBytes) {
+            return value;
+        }
+        e = new Entry(key, value, uid, weight);
+        if (pinned.contains(uid)) {
+            e.pinned = true;
+            pinnedBytes += weight;
+        }
+        entries.put(key, e);
+        bytes += weight;
+        evict();
+        return value;
+    }
+
+    /** 上限を下回るまで、古いエントリから破棄する（固定したエントリは固定を外して1回だけ見送る） */
+    private void evict() {
+        List<Entry> spared = new ArrayList<>();
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes) {
+            if (!it.hasNext()) {
+                // 残りはすべて見送ったエントリ。最も新しい位置に戻して、古いものから破棄する
+                restore(spared);
+                it = entries.values().iterator();
+                continue;
+            }
+            Entry e = it.next();
+            it.remove();
+            if (e.pinned) {
+                e.pinned = false;
+                e.hits = 0;
+                pinnedBytes -= e.weight;
+                spared.add(e);
+                continue;
+            }
+            bytes -= e.weight;
+            pinned.remove(e.uid);
+            evictions.increment();
+            evictedBytes.add(e.weight);
+        }
+        restore(spared);
+    }
+
+    private void restore(List<Entry> spared) {
+        for (Entry e : spared) {
+            entries.put(e.key, e);
+        }
+        spared.clear();
+    }
+
+    /**
+     * uid のエンティティ（Entity.id()）のエントリを固定する（破棄の順番が来ても1回だけ見送る）。
+     * 固定は、エントリを登録したとき・ヒットしたときに反映する。
+     */
+    synchronized void pin(int uid) {
+        pinned.add(uid);
+    }
+
+    /** 固定しているエンティティの数 */
+    synchronized int pinCount() {
+        return pinned.size();
+    }
+
+    /** すべてのエントリと固定を破棄する（統計は残す） */
+    synchronized void clear() {
+        entries.clear();
+        pinned.clear();
+        bytes = 0;
+        pinnedBytes = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /** 保持しているエントリの推定バイト数 */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    /** 件数・推定バイト数・ヒット数・ミス数・破棄数を1行で返す */
+    String stats() {
+        int size;
+        long used;
+        long pinnedUsed;
+        synchronized (this) {
+            size = entries.size();
+            used = bytes;
+            pinnedUsed = pinnedBytes;
+        }
+        long hits = hits();
+        long misses = misses();
+        long total = hits + misses;
+        double rate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("参照キャッシュ: %d 件 %.1f MB / %.1f MB（固定 %.1f MB）"
+                + " (ヒット %d / ミス %d, ヒット率 %.1f%%, 破棄 %d 件 %.1f MB)",
+            size, mb(used), mb(maxBytes), mb(pinnedUsed), hits, misses, rate, evictions(), mb(evictedBytes.sum()));
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,377 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+ * スナップショットをバイナリ形式で保存するキャッシュファイル。
+ *
+ * UDB のサイズと更新時刻をヘッダに記録し、どちらかが変わっていればキャッシュ全体を
+ * 無効とみなす（UDB がディレクトリの場合は、配下の全ファイルのサイズ合計と最新の更新時刻）。
+ * 開くときはヘッダとセクションの位置だけを読み、本体は必要になったセクションだけを
+ * ファイルから順に読み込む（int 列はまとめて配列へ取り込む）。ファイルをマップしたまま
+ * 保持しないため、保存時に開いているキャッシュファイルを置き換えられる（Windows を含む）。
+ *
+ * <pre>
+ *   ヘッダ
+ *     int    MAGIC（"USNP"）
+ *     int    VERSION
+ *     long   UDB のサイズ
+ *     long   UDB の更新時刻（ミリ秒）
+ *     int    セクション数
+ *   セクション（セクション数だけ繰り返す）
+ *     int    種別（1: CodeSnapshot, 2: ファイル間依存, 3: クラス間依存, 4: クラス間依存グラフ）
+ *     long   本体のバイト数
+ *     byte[] 本体
+ *
+ *   本体で使う要素
+ *     文字列表 : int 件数, 各文字列は int UTF-8 バイト数 + バイト列
+ *     int 列   : int 件数 + int[件数]
+ * </pre>
+ *
+ * 数値はすべてビッグエンディアン。セクションはコマンドごとに必要になったものだけ作成し、
+ * 既存のセクションは元のファイルから写したうえでファイル全体を書き直す。
+ */
+final class SnapshotCache {
+
+    static final int CODE = 1;
+    static final int FILE_DEPS = 2;
+    static final int CLASS_DEPS = 3;
+    static final int CLASS_GRAPH = 4;
+
+    private static final int MAGIC = 0x55534E50;
+    private static final int VERSION = 3;
+
+    private final File file;
+    private final long udbSize;
+    private final long udbModified;
+    // 種別 → 本体のファイル内の位置とバイト数
+    private final Map<Integer, long[]> sections = new TreeMap<>();
+
+    private SnapshotCache(File file, long udbSize, long udbModified) {
+        this.file = file;
+        this.udbSize = udbSize;
+        this.udbModified = udbModified;
+    }
+
+    /**
+     * キャッシュファイルを開く。ファイルがない場合や、UDB のサイズ・更新時刻が
+     * 記録と異なる場合は空のキャッシュを返す。
+     */
+    static SnapshotCache open(File udb, File file) throws IOException {
+        long[] stamp = stamp(udb.toPath());
+        SnapshotCache cache = new SnapshotCache(file, stamp[0], stamp[1]);
+        if (file.isFile()) {
+            try {
+                cache.load(true);
+            } catch (IOException | RuntimeException e) {
+                // 壊れたキャッシュは使わない（次の保存で書き直す）
+                System.err.println("警告: キャッシュを読み込めないため作り直します: " + file + " (" + e + ")");
+                cache.sections.clear();
+            }
+        }
+        return cache;
+    }
+
+    /** UDB のサイズと更新時刻を返す */
+    static long[] stamp(Path udb) throws IOException {
+        if (!Files.isDirectory(udb)) {
+            BasicFileAttributes attrs = Files.readAttributes(udb, BasicFileAttributes.class);
+            return new long[] { attrs.size(), attrs.lastModifiedTime().toMillis() };
+        }
+        long[] stamp = new long[2];
+        Files.walkFileTree(udb, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                stamp[0] += attrs.size();
+                stamp[1] = Math.max(stamp[1], attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return stamp;
+    }
+
+    /** file が キャッシュファイルかどうかを、先頭の MAGIC で判定する */
+    static boolean isCacheFile(File file) throws IOException {
+        if (!file.isFile() || file.length() < Integer.BYTES) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * UDB のサイズ・更新時刻を確認せずに、キャッシュファイルの CodeSnapshot を読み込む
+     * （csv-diff で以前のスナップショットと比較する場合など）。セクションがない場合は null。
+     */
+    static CodeSnapshot readSnapshot(File file) throws IOException {
+        SnapshotCache cache = new SnapshotCache(file, -1, -1);
+        cache.load(false);
+        return cache.sections.containsKey(CODE) ? cache.readSection(CODE, CodeSnapshot::read) : null;
+    }
+
+    /**
+     * ヘッダを読み、UDB のサイズ・更新時刻が記録と一致すればセクションの位置を記録する。
+     * 本体は読み飛ばす（読み込むのは {@link #read} で必要になったときだけ）。
+     */
+    private void load(boolean checkStamp) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            long size = in.readLong();
+            long modified = in.readLong();
+            if (checkStamp && (size != udbSize || modified != udbModified)) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int kind = in.readInt();
+                long length = in.readLong();
+                long offset = channel.position();
+                if (length < 0 || offset + length > channel.size()) {
+                    throw new EOFException("セクションがファイルの終わりを超えています: " + file);
+                }
+                sections.put(kind, new long[] { offset, length });
+                channel.position(offset + length);
+            }
+        }
+    }
+
+    /** 指定した種別のセクションがあるか */
+    boolean contains(int kind) {
+        return sections.containsKey(kind);
+    }
+
+    /**
+     * 指定した種別のセクションを reader で読み込む。ない場合は null。
+     * 本体が壊れていて読み込めない場合も、警告を表示してそのセクションを捨て、null を返す
+     * （呼び出し側で取り込み直し、次の保存で書き直す）。
+     */
+    <T> T read(int kind, SectionReader<T> reader) {
+        if (!sections.containsKey(kind)) {
+            return null;
+        }
+        try {
+            return readSection(kind, reader);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("警告: キャッシュを読み込めないため作り直します: " + file + " (" + e + ")");
+            sections.remove(kind);
+            return null;
+        }
+    }
+
+    private <T> T readSection(int kind, SectionReader<T> reader) throws IOException {
+        long[] body = sections.get(kind);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return reader.read(new Input(channel, body[0], body[1]));
+        }
+    }
+
+    /** セクションを追加（または置き換え）して、キャッシュファイル全体を書き直す */
+    void store(int kind, Section section) throws IOException {
+        Set<Integer> kinds = new TreeSet<>(sections.keySet());
+        kinds.add(kind);
+        Map<Integer, long[]> written = new TreeMap<>();
+
+        // 一時ファイルに書き出してから置き換える（書き込み中に中断しても壊れたキャッシュを残さない）
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 FileChannel old = sections.isEmpty() ? null : FileChannel.open(target, StandardOpenOption.READ)) {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeLong(udbSize);
+                data.writeLong(udbModified);
+                data.writeInt(kinds.size());
+                for (int k : kinds) {
+                    data.writeInt(k);
+                    data.writeLong(0);
+                    data.flush();
+                    long offset = out.position();
+                    if (k == kind) {
+                        section.write(new Output(data));
+                        data.flush();
+                    } else {
+                        long[] body = sections.get(k);
+                        for (long done = 0; done < body[1]; ) {
+                            done += old.transferTo(body[0] + done, body[1] - done, out);
+                        }
+                    }
+                    // 本体を書き終えてから、先頭のバイト数を書き込む
+                    long length = out.position() - offset;
+                    ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(0, length);
+                    out.write(header, offset - Long.BYTES);
+                    written.put(k, new long[] { offset, length });
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            System.err.println("キャッシュを更新できませんでした: " + file + " (" + e.getMessage() + ")");
+            return;
+        }
+        sections.clear();
+        sections.putAll(written);
+    }
+
+    /** キャッシュファイルのパス */
+    File file() {
+        return file;
+    }
+
+    /** セクションの本体を書き出す処理 */
+    interface Section {
+        void write(Output out) throws IOException;
+    }
+
+    /** セクションの本体を読み込む処理 */
+    interface SectionReader<T> {
+        T read(Input in) throws IOException;
+    }
+
+    /** セクション本体の書き出し */
+    static final class Output {
+        private final DataOutputStream out;
+
+        Output(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        void writeStrings(StringTable strings) throws IOException {
+            out.writeInt(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                byte[] utf8 = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+        }
+
+        void writeInts(IntList values) throws IOException {
+            out.writeInt(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                out.writeInt(values.get(i));
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * セクション本体の読み込み。
+     * ファイルから読み込む場合は、本体を先頭から {@link #CHUNK} バイトずつバッファに読み込む。
+     */
+    static final class Input {
+        static final int CHUNK = 1 << 20;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        // まだバッファに読み込んでいない部分のファイル内の位置と終わり
+        private long position;
+        private final long end;
+
+        /** メモリ上の本体から読み込む */
+        Input(ByteBuffer buffer) {
+            this.channel = null;
+            this.buffer = buffer;
+            this.position = 0;
+            this.end = 0;
+        }
+
+        /** channel の offset から length バイトの本体を読み込む */
+        Input(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect((int) Math.min(CHUNK, Math.max(length, Long.BYTES)));
+            this.buffer.limit(0);
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        int readInt() throws IOException {
+            fill(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        /** 文字列表を strings の末尾に読み込む */
+        void readStrings(StringTable strings) throws IOException {
+            int count = readCount(Integer.BYTES);
+            for (int i = 0; i < count; i++) {
+                byte[] utf8 = new byte[readCount(1)];
+                for (int done = 0; done < utf8.length; ) {
+                    int n = Math.min(utf8.length - done, buffer.capacity());
+                    fill(n);
+                    buffer.get(utf8, done, n);
+                    done += n;
+                }
+                strings.append(new String(utf8, StandardCharsets.UTF_8));
+            }
+        }
+
+        /** int 列を values の末尾に読み込む */
+        void readInts(IntList values) throws IOException {
+            int[] array = new int[readCount(Integer.BYTES)];
+            for (int done = 0; done < array.length; ) {
+                int n = Math.min(array.length - done, buffer.capacity() / Integer.BYTES);
+                fill(n * Integer.BYTES);
+                buffer.asIntBuffer().get(array, done, n);
+                buffer.position(buffer.position() + n * Integer.BYTES);
+                done += n;
+            }
+            values.addAll(array);
+        }
+
+        /**
+         * 件数を読み込む。各要素が少なくとも elementBytes バイトを使うとして、セクションの残りに
+         * 収まらない件数は壊れているとみなす（大きな配列を確保する前に検出する）。
+         */
+        private int readCount(int elementBytes) throws IOException {
+            int count = readInt();
+            long remaining = buffer.remaining() + (end - position);
+            if (count < 0 || (long) count * elementBytes > remaining) {
+                throw new IOException("セクションの件数が不正です: " + count);
+            }
+            return count;
+        }
+
+        /** バッファに bytes バイト以上が残るように、続きをファイルから読み込む */
+        private void fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            if (channel == null) {
+                throw new EOFException("セクションの終わりを超えて読み込もうとしました");
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                long left = end - position;
+                if (left <= 0) {
+                    throw new EOFException("セクションの終わりを超えて読み込もうとしました");
+                }
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + left));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("キャッシュファイルが途中で終わっています");
+                }
+                position += n;
+            }
+            buffer.flip();
+        }
+    }
+}
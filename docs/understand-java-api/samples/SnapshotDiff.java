@@ -0,0 +1,185 @@
+import java.io.*;
+
+/**
+ * 2つの {@link CodeSnapshot} の差分（追加・削除されたクラス・メソッド・呼び出し関係）。
+ *
+ * 両方のスナップショットの文字列を1つの文字列テーブルにまとめ、各行を次のキーで識別する。
+ * 定義行や呼び出し行はコードの編集でずれやすいため、キーには含めない。
+ *
+ * <pre>
+ *   クラス     : クラス名
+ *   メソッド   : (クラス名, メソッド名, 戻り値型)
+ *   呼び出し   : (呼び出し元クラス, 呼び出し元メソッド, 呼び出し先クラス, 呼び出し先メソッド)
+ * </pre>
+ *
+ * 複数の値からなるキーは、2つの int の組に連番を割り当てる表（{@link LongIntHashMap}）で
+ * 1つの int にまとめる。同じキーの行が複数ある場合（戻り値型が同じオーバーロードなど）は
+ * 件数の差だけを追加・削除とする。
+ */
+final class SnapshotDiff {
+
+    static final String ADDED = "追加";
+    static final String REMOVED = "削除";
+
+    private final CodeSnapshot oldSnapshot;
+    private final CodeSnapshot newSnapshot;
+    private final StringTable pool = new StringTable();
+    private final LongIntHashMap tuples = new LongIntHashMap();
+
+    // 追加・削除された行（追加は新しいスナップショット、削除は古いスナップショットの行番号）
+    private final IntList addedClasses = new IntList();
+    private final IntList removedClasses = new IntList();
+    private final IntList addedMethods = new IntList();
+    private final IntList removedMethods = new IntList();
+    private final IntList addedCalls = new IntList();
+    private final IntList removedCalls = new IntList();
+
+    SnapshotDiff(CodeSnapshot oldSnapshot, CodeSnapshot newSnapshot) {
+        this.oldSnapshot = oldSnapshot;
+        this.newSnapshot = newSnapshot;
+        Keys oldKeys = new Keys(oldSnapshot);
+        Keys newKeys = new Keys(newSnapshot);
+        match(oldKeys.classes, newKeys.classes, addedClasses, removedClasses);
+        match(oldKeys.methods, newKeys.methods, addedMethods, removedMethods);
+        match(oldKeys.calls, newKeys.calls, addedCalls, removedCalls);
+    }
+
+    /** 1つのスナップショットの各行のキー */
+    private final class Keys {
+        final int[] classes;
+        final int[] methods;
+        final int[] calls;
+
+        Keys(CodeSnapshot snapshot) {
+            // スナップショットの文字列 ID → 共通の文字列 ID
+            int[] strings = new int[snapshot.stringCount()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = pool.intern(snapshot.string(i));
+            }
+
+            classes = new int[snapshot.classCount()];
+            for (int row = 0; row < classes.length; row++) {
+                classes[row] = remap(strings, snapshot.classNameId(row));
+            }
+            methods = new int[snapshot.methodCount()];
+            int[] methodNames = new int[methods.length];
+            for (int row = 0; row < methods.length; row++) {
+                int owner = classes[snapshot.methodClassRow(row)];
+                int name = remap(strings, snapshot.entityNameId(snapshot.methodEntity(row)));
+                methodNames[row] = tuple(owner, name);
+                methods[row] = tuple(methodNames[row], remap(strings, snapshot.methodTypeId(row)));
+            }
+            calls = new int[snapshot.callCount()];
+            for (int i = 0; i < calls.length; i++) {
+                int callee = snapshot.callCallee(i);
+                int calleeName = tuple(remap(strings, snapshot.entityOwnerId(callee)),
+                    remap(strings, snapshot.entityNameId(callee)));
+                calls[i] = tuple(methodNames[snapshot.callMethodRow(i)], calleeName);
+            }
+        }
+    }
+
+    private static int remap(int[] strings, int id) {
+        return id == StringTable.NULL ? StringTable.NULL : strings[id];
+    }
+
+    /** 2つの int の組に連番を割り当てる */
+    private int tuple(int a, int b) {
+        long key = ((long) a << 32) | (b & 0xffffffffL);
+        int id = tuples.get(key, -1);
+        if (id < 0) {
+            id = tuples.size();
+            tuples.put(key, id);
+        }
+        return id;
+    }
+
+    /** 件数の差から、追加された新しい行と削除された古い行を求める */
+    private static void match(int[] oldKeys, int[] newKeys, IntList added, IntList removed) {
+        LongIntHashMap remaining = new LongIntHashMap(oldKeys.length);
+        for (int key : oldKeys) {
+            remaining.add(key, 1);
+        }
+        for (int row = 0; row < newKeys.length; row++) {
+            if (remaining.get(newKeys[row], 0) > 0) {
+                remaining.add(newKeys[row], -1);
+            } else {
+                added.add(row);
+            }
+        }
+        for (int row = 0; row < oldKeys.length; row++) {
+            if (remaining.get(oldKeys[row], 0) > 0) {
+                remaining.add(oldKeys[row], -1);
+                removed.add(row);
+            }
+        }
+    }
+
+    /** 差分の CSV を出力ディレクトリに書き出す（gzip の場合は *.csv.gz） */
+    void writeCsv(File dir, boolean gzip) throws IOException {
+        try (CsvWriter w = CsvWriter.create(dir, "classes-diff.csv", gzip)) {
+            w.row("変更", "クラス名", "種別", "ファイル名", "定義行");
+            writeClasses(w, ADDED, newSnapshot, addedClasses);
+            writeClasses(w, REMOVED, oldSnapshot, removedClasses);
+        }
+        try (CsvWriter w = CsvWriter.create(dir, "methods-diff.csv", gzip)) {
+            w.row("変更", "クラス名", "メソッド名", "戻り値型", "ファイル名", "定義行");
+            writeMethods(w, ADDED, newSnapshot, addedMethods);
+            writeMethods(w, REMOVED, oldSnapshot, removedMethods);
+        }
+        try (CsvWriter w = CsvWriter.create(dir, "calls-diff.csv", gzip)) {
+            w.row("変更", "呼び出し元クラス", "呼び出し元メソッド", "呼び出し先クラス", "呼び出し先メソッド", "ファイル名", "呼び出し行");
+            writeCalls(w, ADDED, newSnapshot, addedCalls);
+            writeCalls(w, REMOVED, oldSnapshot, removedCalls);
+        }
+    }
+
+    private static void writeClasses(CsvWriter w, String change, CodeSnapshot s, IntList rows) throws IOException {
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            w.field(change)
+                .field(s.string(s.classNameId(row)))
+                .field(s.classKind(row))
+                .field(s.classFile(row))
+                .field(s.classLine(row))
+                .endRow();
+        }
+    }
+
+    private static void writeMethods(CsvWriter w, String change, CodeSnapshot s, IntList rows) throws IOException {
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            w.field(change)
+                .field(s.methodClassName(row))
+                .field(s.entityName(s.methodEntity(row)))
+                .field(s.string(s.methodTypeId(row)))
+                .field(s.methodFile(row))
+                .field(s.methodLine(row))
+                .endRow();
+        }
+    }
+
+    private static void writeCalls(CsvWriter w, String change, CodeSnapshot s, IntList rows) throws IOException {
+        for (int i = 0; i < rows.size(); i++) {
+            int call = rows.get(i);
+            int method = s.callMethodRow(call);
+            int callee = s.callCallee(call);
+            w.field(change)
+                .field(s.methodClassName(method))
+                .field(s.entityName(s.methodEntity(method)))
+                .field(s.entityOwner(callee))
+                .field(s.entityName(callee))
+                .field(s.callFile(call))
+                .field(s.callLine(call))
+                .endRow();
+        }
+    }
+
+    /** 追加・削除の件数を1行で返す */
+    String stats() {
+        return String.format("クラス: +%d / -%d, メソッド: +%d / -%d, 呼び出し: +%d / -%d",
+            addedClasses.size(), removedClasses.size(),
+            addedMethods.size(), removedMethods.size(),
+            addedCalls.size(), removedCalls.size());
+    }
+}
@@ -0,0 +1,206 @@
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * csv-all の逐次出力（--stream）。
+ *
+ * クラス一覧を batch 件ずつ取り込み、取り込んだ分の行を4つのCSVの末尾に追記してディスクに書き出す。
+ * 全クラスの取り込みを待たずに行が出力されるため、出力中のCSVを後続の処理で読み始められる。
+ * 保持するのは処理中のバッチの分だけで、行の内容と順序は一括で出力した場合と同じになる。
+ *
+ * バッチを書き出すたびに、完了したクラス数と各CSVのバイト数をチェックポイントファイル
+ * （出力ディレクトリの {@value #CHECKPOINT_FILE}）に記録する。再開を指定すると、CSV を記録した
+ * バイト数に切り詰め（書きかけのバッチを捨て）、記録したクラスの続きから出力する。UDB のサイズ・
+ * 更新時刻、クラス数、CSV のサイズのいずれかが記録と合わない場合は最初から出力し直す。
+ * すべてのクラスを出力したらチェックポイントファイルは削除する。
+ *
+ * threads が 2 以上の場合は {@link ParallelSnapshotBuilder} を1つだけ作り、ワーカーのスレッドを
+ * すべてのバッチで使い回す。
+ */
+final class StreamingCsvExport {
+
+    static final String CHECKPOINT_FILE = "csv-all.checkpoint";
+    /** 1バッチのクラス数の既定値 */
+    static final int DEFAULT_BATCH = 500;
+
+    private static final String[] FILES = { "classes.csv", "methods.csv", "calls.csv", "calledby.csv" };
+    private static final String[][] HEADERS = {
+        CodeSnapshot.CLASSES_HEADER, CodeSnapshot.METHODS_HEADER, CodeSnapshot.CALLS_HEADER,
+        CodeSnapshot.CALLED_BY_HEADER,
+    };
+
+    private final File dir;
+    private final String udbPath;
+    private final int batch;
+    private final int threads;
+    private final OwnerResolver owners;
+    private final int progressInterval;
+
+    /**
+     * threads が 2 以上ならバッチごとの取り込みを {@link ParallelSnapshotBuilder} で並列に行う。
+     * progressInterval が 1 以上なら、その秒数ごとに進捗を標準エラー出力に表示する。
+     */
+    StreamingCsvExport(File dir, String udbPath, int batch, int threads, OwnerResolver owners, int progressInterval) {
+        this.dir = dir;
+        this.udbPath = udbPath;
+        this.batch = Math.max(1, batch);
+        this.threads = threads;
+        this.owners = owners;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * classes の4つのCSVを出力する。resume が true で有効なチェックポイントがあれば続きから出力する。
+     * 戻り値は出力を始めたクラスの位置（最初から出力した場合は 0）。
+     */
+    int export(Entity[] classes, boolean resume) throws Exception {
+        long[] stamp = SnapshotCache.stamp(new File(udbPath).toPath());
+        File checkpoint = new File(dir, CHECKPOINT_FILE);
+        long[] lengths = resume ? readCheckpoint(checkpoint, stamp, classes.length) : null;
+        int from = lengths != null ? (int) lengths[FILES.length] : 0;
+
+        FileChannel[] channels = new FileChannel[FILES.length];
+        CsvWriter[] writers = new CsvWriter[FILES.length];
+        Progress progress = progressInterval > 0
+            ? new Progress("クラス", classes.length, from, progressInterval, System.err) : null;
+        ParallelSnapshotBuilder builder = threads > 1 ? new ParallelSnapshotBuilder(udbPath, threads, false, owners) : null;
+        try {
+            for (int i = 0; i < FILES.length; i++) {
+                Path path = new File(dir, FILES[i]).toPath();
+                if (lengths != null) {
+                    channels[i] = FileChannel.open(path, StandardOpenOption.WRITE);
+                    channels[i].truncate(lengths[i]);
+                    channels[i].position(lengths[i]);
+                } else {
+                    channels[i] = FileChannel.open(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                }
+                writers[i] = new CsvWriter(channels[i], Charset.defaultCharset(), false);
+                if (lengths == null) {
+                    writers[i].row(HEADERS[i]);
+                }
+            }
+            if (lengths == null) {
+                commit(writers, channels, checkpoint, stamp, classes.length, 0);
+            }
+
+            for (int start = from; start < classes.length; start += batch) {
+                int end = Math.min(classes.length, start + batch);
+                if (progress != null) {
+                    progress.phase("取り込み");
+                }
+                CodeSnapshot part = capture(builder, classes, start, end);
+                if (progress != null) {
+                    progress.phase("CSV 出力");
+                }
+                part.writeClassRows(writers[0]);
+                part.writeMethodRows(writers[1]);
+                part.writeCallRows(writers[2]);
+                part.writeCalledByRows(writers[3]);
+                commit(writers, channels, checkpoint, stamp, classes.length, end);
+                if (progress != null) {
+                    progress.advance(end - start,
+                        part.classCount() + part.methodCount() + part.callCount() + part.callByCount());
+                }
+            }
+        } finally {
+            if (progress != null) {
+                progress.phase("完了");
+                progress.close();
+            }
+            for (int i = 0; i < FILES.length; i++) {
+                if (writers[i] != null) {
+                    writers[i].close();
+                } else if (channels[i] != null) {
+                    channels[i].close();
+                }
+            }
+            if (builder != null) {
+                builder.close();
+            }
+        }
+        Files.deleteIfExists(checkpoint.toPath());
+        return from;
+    }
+
+    /** classes[from, to) を取り込む（builder が null なら呼び出し元のスレッドで取り込む） */
+    private CodeSnapshot capture(ParallelSnapshotBuilder builder, Entity[] classes, int from, int to)
+            throws Exception {
+        if (builder != null) {
+            return builder.build(classes, from, to);
+        }
+        CodeSnapshot part = new CodeSnapshot();
+        part.captureDefinitions(classes, from, to, owners);
+        part.captureCalls(owners);
+        return part;
+    }
+
+    /** CSV をディスクまで書き出してから、done 件のクラスが完了したことをチェックポイントに記録する */
+    private static void commit(CsvWriter[] writers, FileChannel[] channels, File checkpoint, long[] stamp,
+            int classes, int done) throws IOException {
+        Properties p = new Properties();
+        for (int i = 0; i < FILES.length; i++) {
+            writers[i].flush();
+            channels[i].force(false);
+            p.setProperty(FILES[i], String.valueOf(channels[i].position()));
+        }
+        p.setProperty("udbSize", String.valueOf(stamp[0]));
+        p.setProperty("udbModified", String.valueOf(stamp[1]));
+        p.setProperty("classes", String.valueOf(classes));
+        p.setProperty("done", String.valueOf(done));
+
+        // 途中で止まっても壊れたチェックポイントが残らないよう、一時ファイルから置き換える
+        Path temp = new File(checkpoint.getPath() + ".tmp").toPath();
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            p.store(out, "csv-all --stream");
+        }
+        try {
+            Files.move(temp, checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * チェックポイントを読み込み、各CSVのバイト数と完了したクラス数（末尾の要素）を返す。
+     * ない場合や記録が合わない場合は null（最初から出力する）。
+     */
+    private static long[] readCheckpoint(File checkpoint, long[] stamp, int classes) throws IOException {
+        if (!checkpoint.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            p.load(in);
+        }
+        try {
+            if (Long.parseLong(p.getProperty("udbSize")) != stamp[0]
+                    || Long.parseLong(p.getProperty("udbModified")) != stamp[1]) {
+                System.err.println("警告: UDB が更新されているため、最初から出力します");
+                return null;
+            }
+            if (Integer.parseInt(p.getProperty("classes")) != classes) {
+                System.err.println("警告: クラス数が記録と異なるため、最初から出力します");
+                return null;
+            }
+            long[] lengths = new long[FILES.length + 1];
+            for (int i = 0; i < FILES.length; i++) {
+                lengths[i] = Long.parseLong(p.getProperty(FILES[i]));
+                File file = new File(checkpoint.getParentFile(), FILES[i]);
+                if (!file.isFile() || file.length() < lengths[i]) {
+                    System.err.println("警告: " + FILES[i] + " が記録より短いため、最初から出力します");
+                    return null;
+                }
+            }
+            lengths[FILES.length] = Integer.parseInt(p.getProperty("done"));
+            return lengths;
+        } catch (NumberFormatException e) {
+            System.err.println("警告: チェックポイントを読み込めないため、最初から出力します: " + checkpoint);
+            return null;
+        }
+    }
+}
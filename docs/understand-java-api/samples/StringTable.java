@@ -0,0 +1,52 @@
+import java.util.*;
+
+/**
+ * 文字列テーブル。
+ *
+ * 同じ文字列を1回だけ登録し、0 から始まる連番の ID を割り当てる。スナップショットや
+ * 依存関係表は文字列そのものではなく ID を int 列に持たせる。null は {@link #NULL} で表す。
+ */
+final class StringTable {
+
+    /** null を表す ID */
+    static final int NULL = -1;
+
+    private final List<String> strings = new ArrayList<>();
+    // キャッシュから読み込んだ場合は、最初に intern() が呼ばれたときに作成する
+    private Map<String, Integer> ids = new HashMap<>();
+
+    /** 文字列を登録し、その ID を返す */
+    int intern(String s) {
+        if (s == null) {
+            return NULL;
+        }
+        if (ids == null) {
+            ids = new HashMap<>(strings.size() * 2);
+            for (int i = 0; i < strings.size(); i++) {
+                ids.put(strings.get(i), i);
+            }
+        }
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            ids.put(s, id);
+        }
+        return id;
+    }
+
+    /** ID から文字列を取得する */
+    String get(int id) {
+        return id == NULL ? null : strings.get(id);
+    }
+
+    int size() {
+        return strings.size();
+    }
+
+    /** 登録済みかどうかを確認せずに末尾へ追加する（キャッシュからの読み込み用） */
+    void append(String s) {
+        strings.add(s);
+        ids = null;
+    }
+}
@@ -0,0 +1,115 @@
+import com.scitools.understand.*;
+import java.io.*;
+
+/**
+ * 単一走査のスナップショット（CodeSnapshot）を導入する前の exportAllCsv。
+ *
+ * 出力の比較と API の呼び出し回数の比較に使うため、クラス一覧を4回走査する元の実装を
+ * そのまま残している。
+ */
+final class BaselineCsvExport {
+
+    private BaselineCsvExport() {
+    }
+
+    /** 4つのCSVを dir に出力する */
+    static void exportAll(Entity[] classes, File dir) throws IOException {
+        exportClassesCsv(classes, dir);
+        exportMethodsCsv(classes, dir);
+        exportCallsCsv(classes, dir);
+        exportCalledByCsv(classes, dir);
+    }
+
+    /** クラス一覧をCSV出力 */
+    private static void exportClassesCsv(Entity[] classes, File dir) throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "classes.csv")))) {
+            w.println("クラス名,種別,ファイル名,定義行");
+            for (Entity cls : classes) {
+                // クラス定義の参照を取得
+                Reference[] defRefs = cls.refs("definein", null, true);
+                String fileName = "";
+                int line = 0;
+                if (defRefs.length > 0) {
+                    fileName = defRefs[0].file().name();
+                    line = defRefs[0].line();
+                }
+                w.printf("%s,%s,%s,%d%n",
+                    cls.longname(), cls.kind().name(), fileName, line);
+            }
+        }
+    }
+
+    /** メソッド定義一覧をCSV出力 */
+    private static void exportMethodsCsv(Entity[] classes, File dir) throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "methods.csv")))) {
+            w.println("クラス名,メソッド名,戻り値型,ファイル名,定義行");
+            for (Entity cls : classes) {
+                // クラスが定義しているメソッドを取得
+                Reference[] methodRefs = cls.refs("define", "method", true);
+                for (Reference ref : methodRefs) {
+                    Entity method = ref.ent();
+                    w.printf("%s,%s,%s,%s,%d%n",
+                        cls.longname(), method.name(), method.type(),
+                        ref.file().name(), ref.line());
+                }
+            }
+        }
+    }
+
+    /** 関数呼び出し一覧をCSV出力 */
+    private static void exportCallsCsv(Entity[] classes, File dir) throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "calls.csv")))) {
+            w.println("呼び出し元クラス,呼び出し元メソッド,呼び出し先クラス,呼び出し先メソッド,ファイル名,呼び出し行");
+            for (Entity cls : classes) {
+                Reference[] methodRefs = cls.refs("define", "method", true);
+                for (Reference methodRef : methodRefs) {
+                    Entity method = methodRef.ent();
+                    // このメソッドが呼び出している他のメソッド
+                    Reference[] callRefs = method.refs("call", "method", true);
+                    for (Reference callRef : callRefs) {
+                        Entity calledMethod = callRef.ent();
+                        // 呼び出し先メソッドの所属クラスを取得
+                        String calledClass = getOwnerClassName(calledMethod);
+                        w.printf("%s,%s,%s,%s,%s,%d%n",
+                            cls.longname(), method.name(),
+                            calledClass, calledMethod.name(),
+                            callRef.file().name(), callRef.line());
+                    }
+                }
+            }
+        }
+    }
+
+    /** 関数の被呼び出し一覧をCSV出力 */
+    private static void exportCalledByCsv(Entity[] classes, File dir) throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(new File(dir, "calledby.csv")))) {
+            w.println("対象クラス,対象メソッド,呼び出し元クラス,呼び出し元メソッド,ファイル名,呼び出し行");
+            for (Entity cls : classes) {
+                Reference[] methodRefs = cls.refs("define", "method", true);
+                for (Reference methodRef : methodRefs) {
+                    Entity method = methodRef.ent();
+                    // このメソッドを呼び出しているメソッド
+                    Reference[] callByRefs = method.refs("callby", "method", true);
+                    for (Reference callByRef : callByRefs) {
+                        Entity callerMethod = callByRef.ent();
+                        String callerClass = getOwnerClassName(callerMethod);
+                        w.printf("%s,%s,%s,%s,%s,%d%n",
+                            cls.longname(), method.name(),
+                            callerClass, callerMethod.name(),
+                            callByRef.file().name(), callByRef.line());
+                    }
+                }
+            }
+        }
+    }
+
+    /** メソッドの所属クラス名を取得するヘルパー */
+    private static String getOwnerClassName(Entity method) {
+        // definein 参照でメソッドを定義しているクラスを逆引き
+        Reference[] defInRefs = method.refs("definein", "class", true);
+        if (defInRefs.length > 0) {
+            return defInRefs[0].ent().longname();
+        }
+        return "";
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.scitools.understand.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * クラス間依存グラフ（{@link ClassGraph}）のテスト。
+ */
+class ClassGraphTest {
+
+    /**
+     * depends() だけを呼び、dependsby() や参照の詳細は取得しないこと。依存先は Entity.id() で引くため、
+     * クラス一覧と同じ名前のライブラリのクラスへの依存は辺にならないこと。
+     */
+    @Test
+    void capturesDependsCountsOnly() {
+        FakeDatabase db = new FakeDatabase("cycle.udb");
+        FakeDatabase.FakeEntity file = db.file("C:/work/p/A.java");
+        FakeDatabase.FakeEntity a = db.entity("A", "p.A", "Java Class Type Public Member", null);
+        FakeDatabase.FakeEntity b = db.entity("B", "p.B", "Java Class Type Public Member", null);
+        FakeDatabase.FakeEntity c = db.entity("C", "p.C", "Java Class Type Public Member", null);
+        FakeDatabase.FakeEntity library = db.entity("A", "p.A", "Java Class Type Public Member Unknown", null);
+        db.depend(a, b, db.ref(a, "Java Call", b, file, 3, 1), db.ref(a, "Java Use", b, file, 4, 1));
+        db.depend(b, a, db.ref(b, "Java Call", a, file, 7, 1));
+        db.depend(c, a, db.ref(c, "Java Call", a, file, 9, 1));
+        db.depend(c, library, db.ref(c, "Java Call", library, file, 10, 1));
+        db.depend(a, a, db.ref(a, "Java Call", a, file, 11, 1));
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        db.resetCalls();
+
+        ClassGraph graph = ClassGraph.capture(classes);
+
+        assertEquals(classes.length, db.calls("Entity.depends"));
+        assertEquals(0, db.calls("Entity.dependsby"));
+        assertEquals(0, db.calls("Reference.file") + db.calls("Reference.line") + db.calls("Reference.kind"));
+        assertEquals(0, db.calls("Entity.name"));
+
+        assertEquals(3, graph.nodeCount());
+        assertEquals(Arrays.asList("p.B (2)"), targets(graph, 0));
+        assertEquals(Arrays.asList("p.A (1)"), targets(graph, 1));
+        assertEquals(Arrays.asList("p.A (1)"), targets(graph, 2));
+        // A と B が循環し、C はその上のレイヤー
+        assertEquals(2, graph.componentCount());
+        assertEquals(graph.component(0), graph.component(1));
+        int[] layers = graph.layers();
+        assertEquals(0, layers[graph.component(0)]);
+        assertEquals(1, layers[graph.component(2)]);
+    }
+
+    private static List<String> targets(ClassGraph graph, int node) {
+        List<String> result = new ArrayList<>();
+        for (int e = graph.depFrom(node); e < graph.depTo(node); e++) {
+            result.add(graph.name(graph.target(e)) + " (" + graph.weight(e) + ")");
+        }
+        return result;
+    }
+}
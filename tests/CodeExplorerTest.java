@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * {@link CodeExplorer} の名前検索・コマンドの絞り込みのテスト。
+ */
+class CodeExplorerTest {
+
+    /** 名前索引は UDB ごとに作成し、別の UDB の検索に使い回さないこと */
+    @Test
+    void findKeepsOneIndexPerDatabase() {
+        FakeDatabase first = TestDatabases.sample();
+        FakeDatabase second = new FakeDatabase("other.udb");
+        FakeDatabase.FakeEntity file = second.file("C:/work/other/Other.java");
+        FakeDatabase.FakeEntity other = second.entity("TaskManager", "other.TaskManager",
+            "Java Class Type Public Member", null);
+        second.ref(other, "Java Definein", file, file, 3, 1);
+
+        List<Entity> inFirst = CodeExplorer.find(first, "class", "TaskManager");
+        List<Entity> inSecond = CodeExplorer.find(second, "class", "TaskManager");
+
+        assertEquals(1, inFirst.size());
+        assertEquals("sample.TaskManager", inFirst.get(0).longname());
+        assertEquals(Collections.singletonList(other), inSecond);
+        assertEquals(Collections.emptyList(), CodeExplorer.find(second, "class", "Task"));
+    }
+
+    /** classes の --kind は db.ents() の種別に付け足し、対象名は name() の一致で絞ること */
+    @Test
+    void classesFiltersByKindAndName() throws Exception {
+        FakeDatabase db = TestDatabases.sample();
+
+        assertEquals(Arrays.asList(
+            "=== クラス一覧 ===",
+            "  sample.BaseItem (種別: Java Abstract Class Type Default Member)",
+            "合計: 1 クラス"),
+            run(db, "classes", null, Map.of("--kind", "abstract")).get(0));
+        assertEquals(1, db.calls("Database.ents"));
+        assertEquals(Arrays.asList(
+            "=== クラス一覧 ===",
+            "  sample.Task (種別: Java Class Type Default Member)",
+            "合計: 1 クラス"),
+            run(db, "classes", "Task", Map.of()).get(0));
+        assertEquals(Collections.singletonList("種別の条件に \",\" は指定できません: abstract,enum"),
+            run(db, "classes", null, Map.of("--kind", "abstract,enum")).get(1));
+    }
+
+    /** --lines の形式が正しくない場合は例外で止まらず、入力の誤りとして出力すること */
+    @Test
+    void refsReportsMalformedLines() throws Exception {
+        List<List<String>> output = run(TestDatabases.sample(), "refs", "tasks", Map.of("--lines", "10-x"));
+
+        assertEquals(Collections.emptyList(), output.get(0));
+        assertEquals(1, output.get(1).size());
+        assertTrue(output.get(1).get(0).startsWith("行の範囲が正しくありません: 10-x"), output.get(1).get(0));
+    }
+
+    /** コマンドを実行し、標準出力とエラー出力の行を返す */
+    private static List<List<String>> run(Database db, String command, String target, Map<String, String> options)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertTrue(CodeExplorer.run(db, command, target, options,
+            new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8)));
+        return Arrays.asList(lines(out), lines(err));
+    }
+
+    private static List<String> lines(ByteArrayOutputStream bytes) {
+        String text = bytes.toString(StandardCharsets.UTF_8);
+        return text.isEmpty() ? Collections.emptyList() : Arrays.asList(text.split("\\R"));
+    }
+}
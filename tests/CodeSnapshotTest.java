@@ -0,0 +1,205 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * csv-all のスナップショット（{@link CodeSnapshot}）のテスト。
+ *
+ * メモリ上の {@link FakeDatabase} から作成した4つのCSVが、クラス一覧を4回走査していた
+ * 元の exportAllCsv（{@link BaselineCsvExport}）の出力とバイト単位で一致すること、
+ * 取り込みで同じエンティティ・参照に対する API の呼び出しが重複しないことを確かめる。
+ */
+class CodeSnapshotTest {
+
+    private static final String[] FILES = { "classes.csv", "methods.csv", "calls.csv", "calledby.csv" };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesSameCsvAsBaselineExport() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 1);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        File expected = dir.resolve("baseline").toFile();
+        File actual = dir.resolve("snapshot").toFile();
+        BaselineCsvExport.exportAll(classes, mkdirs(expected));
+
+        CodeSnapshot.build(classes).writeCsv(mkdirs(actual), false);
+
+        assertSameFiles(expected, actual);
+    }
+
+    @Test
+    void parallelBuildWritesSameCsvAsBaselineExport() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 2);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        File expected = dir.resolve("baseline").toFile();
+        File actual = dir.resolve("parallel").toFile();
+        BaselineCsvExport.exportAll(classes, mkdirs(expected));
+
+        try (ParallelSnapshotBuilder builder = new ParallelSnapshotBuilder(db.name(), 4, false, new OwnerResolver())) {
+            builder.build(classes).writeCsv(mkdirs(actual), false);
+        }
+
+        assertSameFiles(expected, actual);
+    }
+
+    /** Entity.id() はエンティティを見分けるキーとして毎回使うため対象外 */
+    @Test
+    void callsEachApiAtMostOncePerEntityAndReference() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 3);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        db.resetCalls();
+
+        CodeSnapshot snapshot = CodeSnapshot.build(classes);
+        snapshot.writeCsv(mkdirs(dir.toFile()), false);
+
+        Map<String, Integer> calls = db.calls();
+        List<String> repeated = new ArrayList<>();
+        calls.forEach((call, count) -> {
+            if (count > 1 && !call.startsWith("Entity.id(")) {
+                repeated.add(call + " x" + count);
+            }
+        });
+        assertEquals(Collections.emptyList(), repeated);
+        // クラスごとに definein と define を1回ずつ、メソッドごとに call と callby を1回ずつ
+        assertEquals(2 * classes.length + 2 * snapshot.methodCount(), refsCalls(calls));
+    }
+
+    /**
+     * カウンタが重複を検出できること
+     * （元の実装は define の refs() を methods・calls・calledby でクラスごとに3回呼ぶ）
+     */
+    @Test
+    void baselineExportRepeatsApiCalls() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 3);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        db.resetCalls();
+
+        BaselineCsvExport.exportAll(classes, mkdirs(dir.toFile()));
+
+        for (Entity cls : classes) {
+            String call = "Entity.refs(define,method,true)@" + cls.longname() + "#" + cls.id();
+            assertEquals(3, db.calls().get(call), call);
+        }
+    }
+
+    /** 小さいバッチで逐次出力しても、1スレッド・複数スレッドとも一括で出力した CSV と一致すること */
+    @Test
+    void streamingWritesSameCsvAsOneShot() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 4);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        File expected = mkdirs(dir.resolve("one-shot").toFile());
+        CodeSnapshot.build(classes).writeCsv(expected, false);
+        String udb = udbFile().getPath();
+
+        for (int threads : new int[] { 1, 3 }) {
+            File actual = mkdirs(dir.resolve("stream-" + threads).toFile());
+            int from = new StreamingCsvExport(actual, udb, 7, threads, new OwnerResolver(), 0).export(classes, false);
+
+            assertEquals(0, from);
+            assertSameFiles(expected, actual);
+            assertFalse(new File(actual, StreamingCsvExport.CHECKPOINT_FILE).exists());
+        }
+    }
+
+    /** チェックポイントの後で止まった出力を --resume で再開すると、一括で出力した CSV と一致すること */
+    @Test
+    void streamingResumesAfterCheckpoint() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 5);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        File expected = mkdirs(dir.resolve("one-shot").toFile());
+        CodeSnapshot.build(classes).writeCsv(expected, false);
+        String udb = udbFile().getPath();
+        File actual = mkdirs(dir.resolve("stream").toFile());
+
+        interruptAt(20, actual, udb, classes);
+        // 書きかけのバッチの行は、再開時にチェックポイントのバイト数まで切り詰めること
+        Files.write(new File(actual, "calls.csv").toPath(), "書きかけの行\n".getBytes(Charset.defaultCharset()),
+            StandardOpenOption.APPEND);
+
+        int from = new StreamingCsvExport(actual, udb, 7, 1, new OwnerResolver(), 0).export(classes, true);
+
+        assertEquals(14, from, "完了した2バッチ（14クラス）の続きから出力すること");
+        assertSameFiles(expected, actual);
+        assertFalse(new File(actual, StreamingCsvExport.CHECKPOINT_FILE).exists());
+    }
+
+    /** UDB の更新時刻・クラス数が記録と合わないチェックポイントでは、最初から出力し直すこと */
+    @Test
+    void streamingRestartsFromStaleCheckpoint() throws Exception {
+        FakeDatabase db = TestDatabases.generated(60, 5, 4, 6);
+        Entity[] classes = db.ents(Query.CLASS_KINDS);
+        File udb = udbFile();
+        File actual = mkdirs(dir.resolve("stream").toFile());
+
+        interruptAt(20, actual, udb.getPath(), classes);
+        assertTrue(udb.setLastModified(udb.lastModified() - 60_000));
+        assertEquals(0, new StreamingCsvExport(actual, udb.getPath(), 7, 1, new OwnerResolver(), 0)
+            .export(classes, true));
+        File expected = mkdirs(dir.resolve("one-shot").toFile());
+        CodeSnapshot.build(classes).writeCsv(expected, false);
+        assertSameFiles(expected, actual);
+
+        interruptAt(20, actual, udb.getPath(), classes);
+        Entity[] fewer = Arrays.copyOf(classes, classes.length - 1);
+        assertEquals(0, new StreamingCsvExport(actual, udb.getPath(), 7, 1, new OwnerResolver(), 0)
+            .export(fewer, true));
+        File expectedFewer = mkdirs(dir.resolve("one-shot-fewer").toFile());
+        CodeSnapshot.build(fewer).writeCsv(expectedFewer, false);
+        assertSameFiles(expectedFewer, actual);
+    }
+
+    /** classes[index] の取り込みで失敗させ、7件ずつのバッチの逐次出力を途中で止める */
+    private static void interruptAt(int index, File out, String udb, Entity[] classes) {
+        Entity[] broken = classes.clone();
+        broken[index] = new Entity() {
+            @Override
+            public Reference[] refs(String refkinds, String entkinds, boolean unique) {
+                throw new IllegalStateException("取り込みの中断");
+            }
+        };
+        assertThrows(IllegalStateException.class,
+            () -> new StreamingCsvExport(out, udb, 7, 1, new OwnerResolver(), 0).export(broken, false));
+        assertTrue(new File(out, StreamingCsvExport.CHECKPOINT_FILE).isFile());
+    }
+
+    /** チェックポイントに記録する UDB のサイズ・更新時刻の元になるファイル */
+    private File udbFile() throws IOException {
+        return Files.write(dir.resolve("stream.udb"), new byte[] { 1, 2, 3 }).toFile();
+    }
+
+    /** definein・define・call・callby の refs() の呼び出し回数（所属クラスの逆引き以外） */
+    private static int refsCalls(Map<String, Integer> calls) {
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : calls.entrySet()) {
+            String call = entry.getKey();
+            if (call.startsWith("Entity.refs(") && !call.startsWith("Entity.refs(definein,class,true)")) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    private static File mkdirs(File dir) {
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws IOException {
+        for (String name : FILES) {
+            byte[] want = Files.readAllBytes(new File(expected, name).toPath());
+            byte[] got = Files.readAllBytes(new File(actual, name).toPath());
+            assertTrue(want.length > 0, name);
+            // 一致しない場合に差分を表示する
+            assertEquals(new String(want, Charset.defaultCharset()), new String(got, Charset.defaultCharset()), name);
+            assertArrayEquals(want, got, name);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * 列指向形式（{@link ColumnarFile}）のテスト。
+ */
+class ColumnarFileTest {
+
+    @TempDir
+    Path dir;
+
+    /** csv-all の4つの表を書き出し、行数・文字列・列の値をそのまま読み戻せること */
+    @Test
+    void readsWhatWasWritten() throws IOException {
+        CodeSnapshot snapshot = CodeSnapshot.build(TestDatabases.sample().ents(Query.CLASS_KINDS));
+        File file = dir.resolve("code-structure.cols").toFile();
+        try (ColumnarFile.Writer w = ColumnarFile.Writer.create(file)) {
+            snapshot.writeColumns(w);
+        }
+
+        ColumnarFile.Reader reader = ColumnarFile.Reader.open(file);
+
+        assertEquals(snapshot.stringCount(), reader.stringCount());
+        assertEquals(snapshot.classCount(), reader.table("classes").rowCount());
+        assertEquals(snapshot.methodCount(), reader.table("methods").rowCount());
+        assertEquals(snapshot.callCount(), reader.table("calls").rowCount());
+        ColumnarFile.Table calls = reader.table("calls");
+        IntBuffer callee = calls.ints("呼び出し先メソッド");
+        IntBuffer line = calls.ints("呼び出し行");
+        assertEquals(snapshot.callCount(), callee.remaining());
+        for (int row = 0; row < snapshot.callCount(); row++) {
+            assertEquals(snapshot.entityName(snapshot.callCallee(row)), reader.string(callee.get(row)));
+            assertEquals(snapshot.callLine(row), line.get(row));
+        }
+        assertNull(reader.string(StringTable.NULL));
+    }
+
+    /** 途中で切れたファイル・フッタの位置が範囲外のファイルは、例外で読み込みを止めること */
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        File file = dir.resolve("broken.cols").toFile();
+        try (ColumnarFile.Writer w = ColumnarFile.Writer.create(file)) {
+            w.strings(new StringTable());
+            w.table("t", 2, 1);
+            w.column("c", ColumnarFile.INT, new int[] { 1, 2 });
+        }
+        long size = file.length();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            // 末尾の「フッタのファイル内位置」をファイルの外に向ける
+            channel.write(ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 1L << 40),
+                size - Long.BYTES - 4);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ColumnarFile.Reader.open(file));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(size / 2);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ColumnarFile.Reader.open(file));
+    }
+}
@@ -0,0 +1,602 @@
+import com.scitools.understand.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * テスト用のメモリ上の Database。
+ *
+ * エンティティと参照をテストコードで組み立てて使う。Entity / Reference / Kind のメソッドが
+ * 呼ばれるたびに「メソッド(引数)@呼び出し先」ごとの回数を数えるため、同じエンティティに対する
+ * API の呼び出しが重複していないかを確かめられる（エンティティは "longname#id"、参照・種別は
+ * 作成した順の番号で区別する）。
+ *
+ * 種別の条件（"class ~unknown ~unresolved"、"call, callby" など）は Understand と同じく、
+ * カンマ区切りのいずれかに一致すればよく、空白で区切った各語が種別名の語に含まれる
+ * （"~" 付きの語は含まれない）場合に一致とみなす。kind() は呼ぶたびに新しい Kind を返す。
+ *
+ * ファイルの字句は {@link #source(FakeEntity, String...)} でソースコードの行から作る
+ * （識別子・文字列・コメント・空白・改行と、それ以外の1文字ずつの記号に分ける簡易な字句解析）。
+ * 字句が指すエンティティ・参照は {@link #bind} で設定する。
+ */
+final class FakeDatabase extends Database {
+
+    private final String name;
+    private final List<FakeEntity> entities = new ArrayList<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRef = new AtomicInteger();
+    private final AtomicInteger nextKind = new AtomicInteger();
+    private volatile boolean counting = true;
+
+    FakeDatabase(String name) {
+        this.name = name;
+    }
+
+    // --- 組み立て ---
+
+    /** エンティティを追加する。id は追加した順に 1 から振る */
+    FakeEntity entity(String name, String longname, String kind, String type) {
+        FakeEntity ent = new FakeEntity(entities.size() + 1, name, longname, kind, type);
+        entities.add(ent);
+        return ent;
+    }
+
+    /** ファイルエンティティを追加する（name は longname の最後の要素） */
+    FakeEntity file(String path) {
+        return entity(path.substring(path.lastIndexOf('/') + 1), path, "Java File", null);
+    }
+
+    /** scope の refs() に、ent への参照を追加する */
+    FakeReference ref(FakeEntity scope, String kind, FakeEntity ent, FakeEntity file, int line, int column) {
+        FakeReference ref = new FakeReference(kind, scope, ent, file, line, column);
+        scope.refs.add(ref);
+        return ref;
+    }
+
+    /** owner が member を定義する（Define と、逆向きの Definein） */
+    void define(FakeEntity owner, FakeEntity member, FakeEntity file, int line) {
+        ref(owner, "Java Define", member, file, line, 1);
+        ref(member, "Java Definein", owner, file, line, 1);
+    }
+
+    /** caller が callee を呼び出す（Call と、逆向きの Callby） */
+    void call(FakeEntity caller, FakeEntity callee, FakeEntity file, int line) {
+        ref(caller, "Java Call", callee, file, line, 5);
+        ref(callee, "Java Callby", caller, file, line, 5);
+    }
+
+    /**
+     * file の字句を、ソースコードの行（1行目から順）から作る。列は 1 から数える。
+     * 字句の種別は Identifier・String（'...' / "..."）・Comment（// 以降）・Whitespace・Newline・
+     * Punctuation（それ以外の1文字）。
+     */
+    void source(FakeEntity file, String... lines) {
+        file.lexemes.clear();
+        for (int l = 0; l < lines.length; l++) {
+            String text = lines[l];
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                int end = i + 1;
+                String token;
+                if (Character.isWhitespace(c)) {
+                    while (end < text.length() && Character.isWhitespace(text.charAt(end))) {
+                        end++;
+                    }
+                    token = "Whitespace";
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    while (end < text.length() && Character.isJavaIdentifierPart(text.charAt(end))) {
+                        end++;
+                    }
+                    token = "Identifier";
+                } else if (c == '\'' || c == '"') {
+                    while (end < text.length() && text.charAt(end) != c) {
+                        end++;
+                    }
+                    end = Math.min(end + 1, text.length());
+                    token = "String";
+                } else if (text.startsWith("//", i)) {
+                    end = text.length();
+                    token = "Comment";
+                } else {
+                    token = "Punctuation";
+                }
+                file.lexemes.add(new FakeLexeme(file, token, text.substring(i, end), l + 1, i + 1));
+                i = end;
+            }
+            if (l + 1 < lines.length) {
+                file.lexemes.add(new FakeLexeme(file, "Newline", "\n", l + 1, text.length() + 1));
+            }
+        }
+    }
+
+    /** file の line 行目で text に一致する最初の字句に、エンティティと参照（null 可）を設定して返す */
+    FakeLexeme bind(FakeEntity file, int line, String text, FakeEntity ent, FakeReference ref) {
+        for (FakeLexeme lex : file.lexemes) {
+            if (lex.line == line && lex.text.equals(text)) {
+                lex.ent = ent;
+                lex.ref = ref;
+                return lex;
+            }
+        }
+        throw new IllegalArgumentException(line + "行目に字句がありません: " + text);
+    }
+
+    /** from が to に依存する（depends() / dependsby() の両方に refs を追加する） */
+    void depend(FakeEntity from, FakeEntity to, FakeReference... refs) {
+        from.depends.merge(to, refs, FakeDatabase::concat);
+        to.dependsby.merge(from, refs, FakeDatabase::concat);
+    }
+
+    private static Reference[] concat(Reference[] a, Reference[] b) {
+        Reference[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    // --- 呼び出し回数 ---
+
+    /** 「メソッド(引数)@呼び出し先」ごとの呼び出し回数 */
+    Map<String, Integer> calls() {
+        Map<String, Integer> result = new TreeMap<>();
+        calls.forEach((key, count) -> result.put(key, count.get()));
+        return result;
+    }
+
+    /** method（"Entity.refs" など）の呼び出し回数の合計 */
+    int calls(String method) {
+        int total = 0;
+        for (Map.Entry<String, AtomicInteger> entry : calls.entrySet()) {
+            if (entry.getKey().startsWith(method + "(")) {
+                total += entry.getValue().get();
+            }
+        }
+        return total;
+    }
+
+    void resetCalls() {
+        calls.clear();
+    }
+
+    /** 呼び出し回数を数えるかどうか（ベンチマークでは数えず、キーの組み立てを計測に含めない） */
+    void countCalls(boolean counting) {
+        this.counting = counting;
+    }
+
+    private void count(String method, String args, String target) {
+        if (!counting) {
+            return;
+        }
+        calls.computeIfAbsent(method + "(" + args + ")@" + target, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    // --- Database ---
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String[] language() {
+        return new String[] { "Java" };
+    }
+
+    @Override
+    public Entity[] ents(String kinds) {
+        count("Database.ents", kinds, name);
+        List<Entity> result = new ArrayList<>();
+        for (FakeEntity ent : entities) {
+            if (matches(ent.kind, kinds)) {
+                result.add(ent);
+            }
+        }
+        return result.toArray(new Entity[0]);
+    }
+
+    @Override
+    public Entity lookup_uniquename(String uniquename) {
+        for (FakeEntity ent : entities) {
+            if (ent.longname.equals(uniquename)) {
+                return ent;
+            }
+        }
+        return null;
+    }
+
+    /** 種別名 kind が条件 kinds（null は条件なし）に一致するか */
+    static boolean matches(String kind, String kinds) {
+        if (kinds == null) {
+            return true;
+        }
+        Set<String> words = new HashSet<>(Arrays.asList(kind.toLowerCase(Locale.ROOT).split(" ")));
+        for (String alternative : kinds.split(",")) {
+            boolean match = true;
+            for (String word : alternative.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                boolean negate = word.startsWith("~");
+                if (words.contains(negate ? word.substring(1) : word) == negate) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** メモリ上のエンティティ */
+    final class FakeEntity extends Entity {
+        final int id;
+        final String name;
+        final String longname;
+        final String kind;
+        final String type;
+        String parameters;
+        final List<FakeReference> refs = new ArrayList<>();
+        final Map<Entity, Reference[]> depends = new LinkedHashMap<>();
+        final Map<Entity, Reference[]> dependsby = new LinkedHashMap<>();
+        final List<FakeLexeme> lexemes = new ArrayList<>();
+
+        FakeEntity(int id, String name, String longname, String kind, String type) {
+            this.id = id;
+            this.name = name;
+            this.longname = longname;
+            this.kind = kind;
+            this.type = type;
+        }
+
+        private void count(String method, String args) {
+            if (counting) {
+                FakeDatabase.this.count("Entity." + method, args, longname + "#" + id);
+            }
+        }
+
+        @Override
+        public int id() {
+            count("id", "");
+            return id;
+        }
+
+        @Override
+        public String name() {
+            count("name", "");
+            return name;
+        }
+
+        @Override
+        public String longname() {
+            count("longname", "");
+            return longname;
+        }
+
+        @Override
+        public String uniquename() {
+            count("uniquename", "");
+            return longname;
+        }
+
+        @Override
+        public Kind kind() {
+            count("kind", "");
+            return new FakeKind(kind);
+        }
+
+        @Override
+        public String type() {
+            count("type", "");
+            return type;
+        }
+
+        @Override
+        public String parameters() {
+            count("parameters", "");
+            return parameters;
+        }
+
+        /** unique の場合は、同じエンティティへの参照は最初の1件だけを返す */
+        @Override
+        public Reference[] refs(String refkinds, String entkinds, boolean unique) {
+            count("refs", refkinds + "," + entkinds + "," + unique);
+            List<Reference> result = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            for (FakeReference ref : refs) {
+                if (matches(ref.kind, refkinds) && matches(ref.ent.kind, entkinds)
+                        && (!unique || seen.add(ref.ent.id))) {
+                    result.add(ref);
+                }
+            }
+            return result.toArray(new Reference[0]);
+        }
+
+        /** このファイルにある参照（すべてのエンティティの refs() のうち、file() がこのエンティティのもの） */
+        @Override
+        public Reference[] filerefs(String refkinds, String entkinds, boolean unique) {
+            count("filerefs", refkinds + "," + entkinds + "," + unique);
+            List<Reference> result = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            for (FakeEntity scope : entities) {
+                for (FakeReference ref : scope.refs) {
+                    if (ref.file == this && matches(ref.kind, refkinds) && matches(ref.ent.kind, entkinds)
+                            && (!unique || seen.add(ref.ent.id))) {
+                        result.add(ref);
+                    }
+                }
+            }
+            return result.toArray(new Reference[0]);
+        }
+
+        /** lookupEnts が false の場合、字句の entity() / reference() は null を返す */
+        @Override
+        public Lexer lexer(boolean lookupEnts, boolean showInactive, boolean expandMacros) {
+            count("lexer", lookupEnts + "," + showInactive + "," + expandMacros);
+            return new FakeLexer(this, lookupEnts);
+        }
+
+        @Override
+        public Map<Entity, Reference[]> depends() {
+            count("depends", "");
+            return new LinkedHashMap<>(depends);
+        }
+
+        @Override
+        public Map<Entity, Reference[]> dependsby() {
+            count("dependsby", "");
+            return new LinkedHashMap<>(dependsby);
+        }
+
+        @Override
+        public String toString() {
+            return longname;
+        }
+    }
+
+    /** メモリ上の参照（scope の refs() が返す、ent への参照） */
+    final class FakeReference extends Reference {
+        final String target;
+        final String kind;
+        final FakeEntity scope;
+        final FakeEntity ent;
+        final FakeEntity file;
+        final int line;
+        final int column;
+
+        FakeReference(String kind, FakeEntity scope, FakeEntity ent, FakeEntity file, int line, int column) {
+            this.target = "ref" + nextRef.incrementAndGet();
+            this.kind = kind;
+            this.scope = scope;
+            this.ent = ent;
+            this.file = file;
+            this.line = line;
+            this.column = column;
+        }
+
+        private void count(String method) {
+            FakeDatabase.this.count("Reference." + method, "", target);
+        }
+
+        @Override
+        public Entity ent() {
+            count("ent");
+            return ent;
+        }
+
+        @Override
+        public Entity scope() {
+            count("scope");
+            return scope;
+        }
+
+        @Override
+        public Entity file() {
+            count("file");
+            return file;
+        }
+
+        @Override
+        public Kind kind() {
+            count("kind");
+            return new FakeKind(kind);
+        }
+
+        @Override
+        public int line() {
+            count("line");
+            return line;
+        }
+
+        @Override
+        public int column() {
+            count("column");
+            return column;
+        }
+    }
+
+    /** メモリ上の字句（{@link FakeDatabase#source} で作る） */
+    final class FakeLexeme {
+        final FakeEntity file;
+        final String token;
+        final String text;
+        final int line;
+        final int column;
+        FakeEntity ent;
+        FakeReference ref;
+
+        FakeLexeme(FakeEntity file, String token, String text, int line, int column) {
+            this.file = file;
+            this.token = token;
+            this.text = text;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    /** メモリ上の Lexer（lexer() を呼ぶたびに作られ、字句もそのたびに作る） */
+    final class FakeLexer extends Lexer {
+        private final FakeEntity file;
+        private final boolean lookupEnts;
+        private final Lexeme[] lexemes;
+
+        FakeLexer(FakeEntity file, boolean lookupEnts) {
+            this.file = file;
+            this.lookupEnts = lookupEnts;
+            this.lexemes = new Lexeme[file.lexemes.size()];
+        }
+
+        private Lexeme at(int index) {
+            if (index < 0 || index >= lexemes.length) {
+                return null;
+            }
+            if (lexemes[index] == null) {
+                lexemes[index] = new Lex(index);
+            }
+            return lexemes[index];
+        }
+
+        @Override
+        public Lexeme first() {
+            count("Lexer.first", "", file.longname);
+            return at(0);
+        }
+
+        /** line 行目で column 列を含む字句 */
+        @Override
+        public Lexeme lexeme(int line, int column) {
+            count("Lexer.lexeme", line + "," + column, file.longname);
+            for (int i = 0; i < lexemes.length; i++) {
+                FakeLexeme lex = file.lexemes.get(i);
+                if (lex.line == line && lex.column <= column && column < lex.column + Math.max(1, lex.text.length())) {
+                    return at(i);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Lexeme[] lexemes(int startLine, int endLine) {
+            count("Lexer.lexemes", startLine + "," + endLine, file.longname);
+            List<Lexeme> result = new ArrayList<>();
+            for (int i = 0; i < lexemes.length; i++) {
+                int line = file.lexemes.get(i).line;
+                if (startLine <= line && line <= endLine) {
+                    result.add(at(i));
+                }
+            }
+            return result.toArray(new Lexeme[0]);
+        }
+
+        @Override
+        public int lines() {
+            count("Lexer.lines", "", file.longname);
+            return lexemes.length == 0 ? 0 : file.lexemes.get(lexemes.length - 1).line;
+        }
+
+        /** 字句（前後の字句は位置でたどる） */
+        private final class Lex extends Lexeme {
+            private final int index;
+            private final FakeLexeme lex;
+
+            Lex(int index) {
+                this.index = index;
+                this.lex = file.lexemes.get(index);
+            }
+
+            private void count(String method) {
+                FakeDatabase.this.count("Lexeme." + method, "", file.longname + ":" + lex.line + ":" + lex.column);
+            }
+
+            @Override
+            public String text() {
+                count("text");
+                return lex.text;
+            }
+
+            @Override
+            public String token() {
+                count("token");
+                return lex.token;
+            }
+
+            @Override
+            public Lexeme next() {
+                count("next");
+                return at(index + 1);
+            }
+
+            @Override
+            public Lexeme previous() {
+                count("previous");
+                return at(index - 1);
+            }
+
+            @Override
+            public Entity entity() {
+                count("entity");
+                return lookupEnts ? lex.ent : null;
+            }
+
+            @Override
+            public Reference reference() {
+                count("reference");
+                return lookupEnts ? lex.ref : null;
+            }
+
+            @Override
+            public int lineBegin() {
+                count("lineBegin");
+                return lex.line;
+            }
+
+            @Override
+            public int lineEnd() {
+                count("lineEnd");
+                return lex.line;
+            }
+
+            @Override
+            public int columnBegin() {
+                count("columnBegin");
+                return lex.column;
+            }
+
+            @Override
+            public int columnEnd() {
+                count("columnEnd");
+                return lex.column + lex.text.length() - 1;
+            }
+
+            @Override
+            public boolean inactive() {
+                count("inactive");
+                return false;
+            }
+        }
+    }
+
+    /** メモリ上の種別（kind() を呼ぶたびに作られる） */
+    final class FakeKind extends Kind {
+        final String target;
+        final String name;
+
+        FakeKind(String name) {
+            this.target = "kind" + nextKind.incrementAndGet();
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            count("Kind.name", "", target);
+            return name;
+        }
+
+        @Override
+        public boolean check(String kinds) {
+            count("Kind.check", kinds, target);
+            return matches(name, kinds);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * csv-all-js の出力（{@link JsExport}）のテスト。
+ *
+ * HTML・JS ファイルの字句は {@link FakeDatabase#source} で作る。index.html は depends() を持たないため、
+ * 読み込む JS ファイルは &lt;script src&gt; の字句から探す。
+ */
+class JsExportTest {
+
+    private static final String[] APP_JS = {
+        "function init() {",
+        "  $('#form').on('submit', function() { save(); });",
+        "  $(document).on('click', '.item', function() { remove(); });",
+        "  $(window).on(handler);",
+        "}",
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void namespace() {
+        assertEquals("TaskManager", JsExport.namespace("TaskManager.save", "save"));
+        assertEquals("TaskManager", JsExport.namespace("js/taskManager.js.TaskManager.save", "save"));
+        assertEquals("", JsExport.namespace("js/app.js.init", "init"));
+        assertEquals("", JsExport.namespace("init", "init"));
+        assertEquals("", JsExport.namespace("other", "save"));
+    }
+
+    @Test
+    void stripQuotes() {
+        assertEquals("a", JsExport.stripQuotes("'a'"));
+        assertEquals("#list .item", JsExport.stripQuotes("\"#list .item\""));
+        assertEquals("", JsExport.stripQuotes("''"));
+        assertEquals("'", JsExport.stripQuotes("'"));
+        assertEquals("'a\"", JsExport.stripQuotes("'a\""));
+        assertEquals("plain", JsExport.stripQuotes("plain"));
+    }
+
+    /** depends() がない HTML は &lt;script src&gt; から JS ファイルを探し、.on() のイベントバインドを取り込むこと */
+    @Test
+    void exportsScriptSourcesAndEventBindings() throws Exception {
+        FakeDatabase db = new FakeDatabase("web.udb");
+        FakeDatabase.FakeEntity html = db.file("C:/work/web/index.html");
+        FakeDatabase.FakeEntity app = db.file("C:/work/web/js/app.js");
+        FakeDatabase.FakeEntity lib = db.file("C:/work/web/js/lib.js");
+        db.file("C:/work/web/js/unused.js");
+        db.source(html,
+            "<html>",
+            "<script src=\"js/lib.js\"></script>",
+            "<script src='js/app.js'></script>",
+            "</html>");
+        db.source(app, APP_JS);
+
+        FakeDatabase.FakeEntity init = db.entity("init", "js/app.js.App.init", "Javascript Function", null);
+        FakeDatabase.FakeEntity save = db.entity("save", "js/lib.js.Store.save", "Javascript Function", null);
+        FakeDatabase.FakeEntity remove = db.entity("remove", "remove", "Javascript Function", null);
+        FakeDatabase.FakeEntity on = db.entity("on", "jQuery.on", "Javascript Function Unresolved", null);
+        db.define(app, init, app, 1);
+        db.define(lib, save, lib, 1);
+        db.define(lib, remove, lib, 2);
+        for (int line = 2; line <= 4; line++) {
+            call(db, init, on, app, line, "on");
+        }
+        db.bind(app, 2, "save", save, call(db, init, save, app, 2, "save"));
+        db.bind(app, 3, "remove", remove, call(db, init, remove, app, 3, "remove"));
+
+        JsExport export = new JsExport(db, 1);
+        List<String> notFound = new ArrayList<>();
+        Entity[] roots = export.findRoots(Arrays.asList("index.html", "missing.html"), notFound);
+        assertEquals(1, roots.length);
+        assertEquals(Collections.singletonList("missing.html"), notFound);
+
+        export.export(roots, dir.toFile(), false);
+
+        assertEquals(Arrays.asList(
+            "index.html,app.js,1,C:/work/web/js/app.js",
+            "index.html,lib.js,2,C:/work/web/js/lib.js"),
+            read("files.csv"));
+        assertEquals(Arrays.asList(
+            "app.js,App,init,C:/work/web/js/app.js,1",
+            "lib.js,Store,save,C:/work/web/js/lib.js,1",
+            "lib.js,,remove,C:/work/web/js/lib.js,2"),
+            read("functions.csv"));
+        assertEquals(Arrays.asList(
+            "#form,submit,lib.js,Store,save,app.js,2",
+            ".item,click,lib.js,,remove,app.js,3"),
+            read("events.csv"));
+        assertEquals(Arrays.asList(
+            "app.js,App,init,,jQuery,on,app.js,2",
+            "app.js,App,init,lib.js,Store,save,app.js,2",
+            "app.js,App,init,lib.js,,remove,app.js,3"),
+            read("calls.csv"));
+    }
+
+    /** caller から callee への呼び出し参照（と逆向きの Callby）を、APP_JS の text の位置に追加する */
+    private static FakeDatabase.FakeReference call(FakeDatabase db, FakeDatabase.FakeEntity caller,
+            FakeDatabase.FakeEntity callee, FakeDatabase.FakeEntity file, int line, String text) {
+        int column = APP_JS[line - 1].indexOf(text) + 1;
+        db.ref(callee, "Javascript Callby", caller, file, line, column);
+        return db.ref(caller, "Javascript Call", callee, file, line, column);
+    }
+
+    /** CSV の見出しを除いた行（見出しは OS の既定の文字コードで表せない場合があるため比較しない） */
+    private List<String> read(String name) throws IOException {
+        List<String> lines = Files.readAllLines(dir.resolve(name), Charset.defaultCharset());
+        return lines.subList(1, lines.size());
+    }
+}
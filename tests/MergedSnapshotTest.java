@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.scitools.understand.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * 複数の UDB をまとめたスナップショット（{@link MergedSnapshot}）のテスト。
+ *
+ * order.udb の Order.total() が、common.udb の Money のメソッドを未解決のエンティティとして呼び出す。
+ * 未解決のエンティティには definein がなく、所属クラスは逆引きできない。
+ */
+class MergedSnapshotTest {
+
+    private static final String ORDER = "order.udb";
+    private static final String COMMON = "common.udb";
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void registerProjects() {
+        FakeDatabase common = new FakeDatabase(COMMON);
+        FakeDatabase.FakeEntity moneyFile = common.file("C:/work/common/Money.java");
+        FakeDatabase.FakeEntity money = common.entity("Money", "common.Money", "Java Class Type Public Member", null);
+        common.ref(money, "Java Definein", moneyFile, moneyFile, 3, 1);
+        method(common, moneyFile, money, "add", "int", 10);
+        method(common, moneyFile, money, "add", "Money", 14);
+        method(common, moneyFile, money, "format", "", 18);
+
+        FakeDatabase order = new FakeDatabase(ORDER);
+        FakeDatabase.FakeEntity orderFile = order.file("C:/work/order/Order.java");
+        FakeDatabase.FakeEntity orderClass = order.entity("Order", "order.Order", "Java Class Type Public Member", null);
+        order.ref(orderClass, "Java Definein", orderFile, orderFile, 5, 1);
+        FakeDatabase.FakeEntity total = method(order, orderFile, orderClass, "total", "", 7);
+        FakeDatabase.FakeEntity helper = method(order, orderFile, orderClass, "helper", "", 20);
+        // 2つ目のオーバーロード（Money）を、パラメータ付きの未解決のエンティティとして呼び出す
+        FakeDatabase.FakeEntity add = unresolved(order, "add", "common.Money.add", "Money");
+        // パラメータの分からない呼び出し先は完全修飾名だけで照合する
+        FakeDatabase.FakeEntity format = unresolved(order, "format", "common.Money.format", null);
+        FakeDatabase.FakeEntity missing = unresolved(order, "call", "missing.Lib.call", null);
+        order.call(total, add, orderFile, 8);
+        order.call(total, format, orderFile, 9);
+        order.call(total, missing, orderFile, 10);
+        order.call(total, helper, orderFile, 11);
+
+        Understand.register(ORDER, order);
+        Understand.register(COMMON, common);
+    }
+
+    @AfterEach
+    void unregisterProjects() {
+        Understand.unregister(ORDER);
+        Understand.unregister(COMMON);
+    }
+
+    @Test
+    void resolvesCrossProjectCallsByLongnameAndParameters() throws Exception {
+        MergedSnapshot merged = MergedSnapshot.build(new String[] { ORDER, COMMON }, 1, false, 0);
+        CodeSnapshot snapshot = merged.snapshot();
+
+        assertTrue(merged.stats().endsWith("プロジェクト間の呼び出し: 2 件（同名の定義が複数あるもの 0 件、"
+            + "どのプロジェクトにも定義のない呼び出し先 1 件）"), merged.stats());
+
+        // redirectEntities で、calls の呼び出し先が common のメソッド定義に置き換わること
+        Map<String, String> callees = new LinkedHashMap<>();
+        for (int i = 0; i < snapshot.callCount(); i++) {
+            int callee = snapshot.callCallee(i);
+            callees.put(snapshot.entityLongname(callee) + "(" + snapshot.entityParameters(callee) + ")",
+                isDefinition(snapshot, callee) ? "定義" : "未解決");
+        }
+        assertEquals(Map.of(
+            "common.Money.add(Money)", "定義",
+            "common.Money.format()", "定義",
+            "missing.Lib.call(null)", "未解決",
+            "order.Order.helper()", "定義"), callees);
+
+        File out = dir.toFile();
+        snapshot.writeCsv(out, false);
+        try (CsvWriter w = CsvWriter.create(out, "cross-calls.csv", false)) {
+            merged.writeCrossCalls(w);
+        }
+        assertEquals(Arrays.asList(
+            "order,order.Order,total,common,common.Money,add,Order.java,8",
+            "order,order.Order,total,common,common.Money,format,Order.java,9"),
+            read("cross-calls.csv"));
+        assertEquals(Arrays.asList(
+            "order.Order,total,common.Money,add,Order.java,8",
+            "order.Order,total,common.Money,format,Order.java,9",
+            "order.Order,total,,call,Order.java,10",
+            "order.Order,total,order.Order,helper,Order.java,11"),
+            read("calls.csv"));
+        // プロジェクト間の呼び出しは、呼び出し先（add(Money) の定義）の calledby にも追加すること
+        List<String> calledBy = read("calledby.csv");
+        assertTrue(calledBy.contains("common.Money,add,order.Order,total,Order.java,8"), calledBy.toString());
+        assertTrue(calledBy.contains("common.Money,format,order.Order,total,Order.java,9"), calledBy.toString());
+        assertEquals(1, calledBy.stream().filter(row -> row.startsWith("common.Money,add,")).count(),
+            "add(int) には付け替えないこと");
+    }
+
+    /** ent がいずれかのメソッド行の定義か */
+    private static boolean isDefinition(CodeSnapshot snapshot, int ent) {
+        for (int m = 0; m < snapshot.methodCount(); m++) {
+            if (snapshot.methodEntity(m) == ent) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FakeDatabase.FakeEntity method(FakeDatabase db, FakeDatabase.FakeEntity file,
+            FakeDatabase.FakeEntity owner, String name, String parameters, int line) {
+        FakeDatabase.FakeEntity method = db.entity(name, owner.longname + "." + name, "Java Method Public Member",
+            "void");
+        method.parameters = parameters;
+        db.define(owner, method, file, line);
+        return method;
+    }
+
+    private static FakeDatabase.FakeEntity unresolved(FakeDatabase db, String name, String longname,
+            String parameters) {
+        FakeDatabase.FakeEntity method = db.entity(name, longname, "Java Method Public Member Unresolved", null);
+        method.parameters = parameters;
+        return method;
+    }
+
+    /** CSV の見出しを除いた行（見出しは OS の既定の文字コードで表せない場合があるため比較しない） */
+    private List<String> read(String name) throws IOException {
+        List<String> lines = Files.readAllLines(dir.resolve(name), Charset.defaultCharset());
+        return lines.subList(1, lines.size());
+    }
+}
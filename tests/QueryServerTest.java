@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * サーバーモード（{@link QueryServer}・{@link QueryClient}）のテスト。
+ *
+ * メモリ上の sample.udb（{@link TestDatabases#sample()}）を開いたサーバーを、空いているポート
+ * （ポート 0）で起動し、ループバックの接続で問い合わせる。
+ */
+class QueryServerTest {
+
+    private static QueryServer server;
+    private static Thread serving;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = new QueryServer(TestDatabases.sample(), 0, 4);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "query-server");
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    @AfterAll
+    static void stop() throws InterruptedException {
+        server.close();
+        serving.join(10_000);
+        assertFalse(serving.isAlive(), "close() で待ち受けが終わること");
+    }
+
+    @Test
+    void methods() throws IOException {
+        assertEquals(Arrays.asList(
+            "=== TaskManager のメソッド一覧 ===",
+            "  addTask (戻り値型: void, 行: 84)",
+            "  findById (戻り値型: Task, 行: 90)",
+            "  getByPriority (戻り値型: List, 行: 99)",
+            "  completeTask (戻り値型: void, 行: 109)",
+            "  printAll (戻り値型: void, 行: 116)",
+            "  countCompleted (戻り値型: int, 行: 122)"),
+            query("methods TaskManager"));
+    }
+
+    @Test
+    void calls() throws IOException {
+        assertEquals(Arrays.asList(
+            "=== sample.TaskManager.completeTask が呼び出すメソッド ===",
+            "  → sample.TaskManager.findById (行: 110)",
+            "  → sample.Task.complete (行: 112)",
+            "=== sample.TaskManager.completeTask を呼び出すメソッド ===",
+            "  ← sample.SampleProject.main (行: 140)"),
+            query("calls completeTask"));
+    }
+
+    @Test
+    void refsWithFileAndLines() throws IOException {
+        assertEquals(Arrays.asList(
+            "=== sample.TaskManager.tasks の参照箇所 ===",
+            "  sample.TaskManager.tasks (参照種別: Java Useby, ファイル: SampleProject.java, 行: 91, 列: 30)",
+            "  sample.TaskManager.tasks (参照種別: Java Useby, ファイル: SampleProject.java, 行: 101, 列: 30)"),
+            query("refs tasks --file SampleProject.java --lines 90-110"));
+    }
+
+    /** "." で始まる出力行（.Generated.java）は、区切りの行と区別して送られること */
+    @Test
+    void fileDepsEscapesLinesStartingWithDot() throws IOException {
+        List<String> expected = Arrays.asList(
+            "=== ファイル間依存関係 ===",
+            ".Generated.java が依存するファイル:",
+            "  → SampleProject.java (2箇所の参照)");
+        assertEquals(expected, query("file-deps"));
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            out.write("file-deps\n");
+            out.flush();
+            assertEquals(expected.get(0), in.readLine());
+            assertEquals("." + expected.get(1), in.readLine());
+            assertEquals(expected.get(2), in.readLine());
+            assertEquals(QueryServer.END, in.readLine());
+        }
+    }
+
+    @Test
+    void answersSeveralQueriesOnOneConnection() throws IOException {
+        try (QueryClient client = new QueryClient(server.port())) {
+            assertEquals("=== Task のメソッド一覧 ===", client.query("methods Task").get(0));
+            assertEquals(Collections.singletonList("不明なコマンド: unknown"), client.query("unknown"));
+            assertEquals(Collections.singletonList("メソッドが見つかりません: nothing"), client.query("calls nothing"));
+            assertEquals("=== ファイル間依存関係 ===", client.query("file-deps").get(0));
+        }
+    }
+
+    /** 同時に接続した複数のクライアントが、それぞれ1件ずつ問い合わせた場合と同じ応答を受け取ること */
+    @Test
+    void answersConcurrentConnections() throws Exception {
+        String[] requests = {
+            "methods TaskManager", "calls completeTask", "calls toDisplayString", "refs tasks", "file-deps",
+        };
+        Map<String, List<String>> expected = new HashMap<>();
+        for (String request : requests) {
+            expected.put(request, query(request));
+        }
+
+        int clients = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        CountDownLatch connected = new CountDownLatch(clients);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int first = c;
+                results.add(pool.submit(() -> {
+                    try (QueryClient client = new QueryClient(server.port())) {
+                        connected.countDown();
+                        connected.await();
+                        int answered = 0;
+                        for (int i = 0; i < 20; i++) {
+                            String request = requests[(first + i) % requests.length];
+                            assertEquals(expected.get(request), client.query(request), request);
+                            answered++;
+                        }
+                        return answered;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(20, result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<String> query(String request) throws IOException {
+        try (QueryClient client = new QueryClient(server.port())) {
+            return client.query(request);
+        }
+    }
+}
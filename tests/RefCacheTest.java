@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.scitools.understand.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * 参照キャッシュ（{@link RefCache}）の破棄と固定のテスト。
+ *
+ * 各クラスは定義するメソッドを1つだけ持ち、refs("define", "method", true) のエントリは同じ推定バイト数になる。
+ * キャッシュの上限はエントリ3件分にする。
+ */
+class RefCacheTest {
+
+    private static final long ENTRY = 96 + 40;
+
+    private FakeDatabase db;
+    private List<Entity> classes;
+    private RefCache cache;
+
+    @BeforeEach
+    void createClasses() {
+        db = new FakeDatabase("cache.udb");
+        FakeDatabase.FakeEntity file = db.file("C:/work/p/A.java");
+        classes = new ArrayList<>();
+        for (char name = 'A'; name <= 'G'; name++) {
+            FakeDatabase.FakeEntity cls = db.entity(String.valueOf(name), "p." + name,
+                "Java Class Type Public Member", null);
+            FakeDatabase.FakeEntity method = db.entity("run", "p." + name + ".run", "Java Method Public Member", "void");
+            db.ref(cls, "Java Define", method, file, name - 'A' + 1, 1);
+            classes.add(cls);
+        }
+        cache = new RefCache(3 * ENTRY);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        fetch("ABCA");
+        fetch("D");
+
+        assertEquals(3, cache.size());
+        assertEquals(3 * ENTRY, cache.bytes());
+        assertEquals(1, cache.evictions());
+        assertEquals(4, db.calls("Entity.refs"));
+        fetch("ACD");
+        assertEquals(4, db.calls("Entity.refs"), "A・C・D はキャッシュから取得すること");
+        fetch("B");
+        assertEquals(5, db.calls("Entity.refs"), "最も長く使われていない B を破棄すること");
+    }
+
+    /** 固定したエントリは1回だけ見送り、次に順番が来たら破棄して固定も外すこと */
+    @Test
+    void sparesPinnedEntryOnceAndDropsThePin() {
+        cache.pin(classes.get(0).id());
+        assertEquals(1, cache.pinCount());
+        fetch("ABC");
+
+        fetch("D");
+        assertEquals(1, cache.evictions());
+        assertEquals(1, cache.pinCount());
+        fetch("EF");
+        assertEquals(3, cache.evictions());
+
+        fetch("G");
+        assertEquals(4, cache.evictions());
+        assertEquals(0, cache.pinCount(), "エントリを破棄したクラスの固定を外すこと");
+        int before = db.calls("Entity.refs");
+        fetch("A");
+        assertEquals(before + 1, db.calls("Entity.refs"));
+    }
+
+    /** HOT_HITS 回ヒットしたエントリも1回だけ見送り、ヒット数を数え直すこと */
+    @Test
+    void sparesHotEntryOnlyOnce() {
+        for (int i = 0; i <= RefCache.HOT_HITS; i++) {
+            fetch("A");
+        }
+        fetch("BCD");
+        assertEquals(1, refsCalls('A'));
+        fetch("A");
+        assertEquals(1, refsCalls('A'), "ヒット数に達した A は1回目の破棄を見送ること");
+
+        fetch("EFG");
+        fetch("A");
+        assertEquals(2, refsCalls('A'), "見送ったあとにヒットが足りない A は破棄すること");
+    }
+
+    /** すべて固定されていても上限を超えたままにならないこと */
+    @Test
+    void staysWithinLimitWhenEverythingIsPinned() {
+        for (Entity cls : classes) {
+            cache.pin(cls.id());
+        }
+        fetch("ABCDEFG");
+
+        assertEquals(3, cache.size());
+        assertEquals(3 * ENTRY, cache.bytes());
+    }
+
+    @Test
+    void capsPinnedEntities() {
+        for (int uid = 0; uid < RefCache.MAX_PINS + 10; uid++) {
+            cache.pin(uid);
+        }
+
+        assertEquals(RefCache.MAX_PINS, cache.pinCount());
+    }
+
+    /** クラス name の refs() の呼び出し回数 */
+    private int refsCalls(char name) {
+        Entity cls = classes.get(name - 'A');
+        return db.calls().getOrDefault("Entity.refs(define,method,true)@" + cls.longname() + "#" + cls.id(), 0);
+    }
+
+    /** names の1文字ずつのクラスについて、定義するメソッドの refs() をキャッシュから取得する */
+    private void fetch(String names) {
+        for (char name : names.toCharArray()) {
+            Entity cls = classes.get(name - 'A');
+            assertEquals(1, cache.refs(cls, "define", "method", true).length);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * キャッシュファイル（{@link SnapshotCache}）のテスト。
+ *
+ * 壊れたキャッシュファイルは例外で止まらずに使わないこと（呼び出し側で取り込み直せること）を確かめる。
+ */
+class SnapshotCacheTest {
+
+    // ヘッダ（MAGIC, VERSION, UDB のサイズ・更新時刻, セクション数）と、最初のセクションの種別・バイト数
+    private static final int FIRST_BODY = 4 + 4 + 8 + 8 + 4 + 4 + 8;
+
+    @TempDir
+    Path dir;
+
+    private File udb;
+    private File file;
+    private CodeSnapshot snapshot;
+
+    @BeforeEach
+    void storeSnapshot() throws IOException {
+        udb = Files.write(dir.resolve("sample.udb"), new byte[] { 1, 2, 3 }).toFile();
+        file = dir.resolve("sample.cache").toFile();
+        snapshot = CodeSnapshot.build(TestDatabases.sample().ents(Query.CLASS_KINDS));
+        SnapshotCache.open(udb, file).store(SnapshotCache.CODE, snapshot::write);
+    }
+
+    @Test
+    void readsStoredSection() throws IOException {
+        SnapshotCache cache = SnapshotCache.open(udb, file);
+
+        CodeSnapshot read = cache.read(SnapshotCache.CODE, CodeSnapshot::read);
+
+        assertSameCounts(snapshot, read);
+    }
+
+    /** 件数が本体に収まらない（文字列表の件数が壊れている）セクションは捨てて、書き直せること */
+    @Test
+    void dropsSectionWithCorruptCount() throws IOException {
+        overwriteInt(FIRST_BODY, Integer.MAX_VALUE);
+        SnapshotCache cache = SnapshotCache.open(udb, file);
+        assertTrue(cache.contains(SnapshotCache.CODE));
+
+        assertNull(cache.read(SnapshotCache.CODE, CodeSnapshot::read));
+        assertFalse(cache.contains(SnapshotCache.CODE));
+
+        cache.store(SnapshotCache.CODE, snapshot::write);
+        assertSameCounts(snapshot, SnapshotCache.open(udb, file).read(SnapshotCache.CODE, CodeSnapshot::read));
+    }
+
+    /** 読み込み中の RuntimeException も、壊れたセクションとして扱うこと */
+    @Test
+    void dropsSectionWhenReaderFails() throws IOException {
+        SnapshotCache cache = SnapshotCache.open(udb, file);
+
+        assertNull(cache.read(SnapshotCache.CODE, in -> {
+            throw new IndexOutOfBoundsException("壊れた列");
+        }));
+        assertFalse(cache.contains(SnapshotCache.CODE));
+    }
+
+    /** セクションのバイト数がファイルを超える・ファイルが途中で切れている場合は空のキャッシュになること */
+    @Test
+    void opensTruncatedFileAsEmpty() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(FIRST_BODY + 10);
+        }
+        assertFalse(SnapshotCache.open(udb, file).contains(SnapshotCache.CODE));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(10);
+        }
+        assertFalse(SnapshotCache.open(udb, file).contains(SnapshotCache.CODE));
+    }
+
+    private void overwriteInt(long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+
+    private static void assertSameCounts(CodeSnapshot expected, CodeSnapshot actual) {
+        assertNotNull(actual);
+        assertEquals(expected.classCount(), actual.classCount());
+        assertEquals(expected.methodCount(), actual.methodCount());
+        assertEquals(expected.callCount(), actual.callCount());
+        assertEquals(expected.callByCount(), actual.callByCount());
+        assertEquals(expected.stringCount(), actual.stringCount());
+    }
+}
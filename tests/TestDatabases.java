@@ -0,0 +1,192 @@
+import java.util.*;
+
+/**
+ * テストで使う {@link FakeDatabase} の組み立て。
+ */
+final class TestDatabases {
+
+    private static final String[] CLASS_KINDS = {
+        "Java Class Type Public Member",
+        "Java Class Type Default Member",
+        "Java Abstract Class Type Public Member",
+        "Java Enum Class Type Public Member",
+        "Java Class Type Anonymous",
+    };
+    private static final String[] TYPES = { "void", "int", "String", "boolean", "List<Task>" };
+
+    private TestDatabases() {
+    }
+
+    /**
+     * SampleProject.java（ドキュメントの sample.udb）と同じクラス・メソッド・呼び出し関係を持つプロジェクト。
+     * 行番号はドキュメントの出力例に合わせている。
+     *
+     * file-deps の確認用に、SampleProject.java に依存するファイル .Generated.java（名前が "." で始まる）を
+     * 追加している。
+     */
+    static FakeDatabase sample() {
+        FakeDatabase db = new FakeDatabase("sample.udb");
+        FakeDatabase.FakeEntity file = db.file("C:/work/sample/SampleProject.java");
+        FakeDatabase.FakeEntity generated = db.file("C:/work/sample/.Generated.java");
+
+        FakeDatabase.FakeEntity printable = type(db, file, "Printable", "Java Interface Type Default Member", 9);
+        FakeDatabase.FakeEntity baseItem = type(db, file, "BaseItem", "Java Abstract Class Type Default Member", 14);
+        FakeDatabase.FakeEntity task = type(db, file, "Task", "Java Class Type Default Member", 39);
+        FakeDatabase.FakeEntity priority = db.entity("Priority", "sample.Task.Priority",
+            "Java Enum Class Type Public Member", null);
+        db.ref(priority, "Java Definein", file, file, 40, 17);
+        FakeDatabase.FakeEntity taskManager = type(db, file, "TaskManager", "Java Class Type Default Member", 81);
+        FakeDatabase.FakeEntity sampleProject = type(db, file, "SampleProject", "Java Class Type Public Member", 132);
+
+        method(db, file, printable, "toDisplayString", "String", 10);
+        FakeDatabase.FakeEntity getId = method(db, file, baseItem, "getId", "int", 23);
+        FakeDatabase.FakeEntity getName = method(db, file, baseItem, "getName", "String", 27);
+        FakeDatabase.FakeEntity baseDisplay = method(db, file, baseItem, "toDisplayString", "String", 32);
+        method(db, file, baseItem, "isValid", "boolean", 36);
+        FakeDatabase.FakeEntity getPriority = method(db, file, task, "getPriority", "Priority", 49);
+        method(db, file, task, "setPriority", "void", 53);
+        FakeDatabase.FakeEntity isCompleted = method(db, file, task, "isCompleted", "boolean", 57);
+        FakeDatabase.FakeEntity complete = method(db, file, task, "complete", "void", 61);
+        FakeDatabase.FakeEntity isValid = method(db, file, task, "isValid", "boolean", 66);
+        FakeDatabase.FakeEntity taskDisplay = method(db, file, task, "toDisplayString", "String", 71);
+        FakeDatabase.FakeEntity addTask = method(db, file, taskManager, "addTask", "void", 84);
+        FakeDatabase.FakeEntity findById = method(db, file, taskManager, "findById", "Task", 90);
+        FakeDatabase.FakeEntity getByPriority = method(db, file, taskManager, "getByPriority", "List", 99);
+        FakeDatabase.FakeEntity completeTask = method(db, file, taskManager, "completeTask", "void", 109);
+        FakeDatabase.FakeEntity printAll = method(db, file, taskManager, "printAll", "void", 116);
+        FakeDatabase.FakeEntity countCompleted = method(db, file, taskManager, "countCompleted", "int", 122);
+        FakeDatabase.FakeEntity main = method(db, file, sampleProject, "main", "void", 133);
+
+        FakeDatabase.FakeEntity list = db.entity("List", "java.util.List", "Java Interface Type Public Member Unknown",
+            null);
+        FakeDatabase.FakeEntity add = method(db, file, list, "add", "boolean", 0);
+        FakeDatabase.FakeEntity string = db.entity("String", "java.lang.String", "Java Class Type Public Member Unknown",
+            null);
+        FakeDatabase.FakeEntity format = method(db, file, string, "format", "String", 0);
+        FakeDatabase.FakeEntity isEmpty = method(db, file, string, "isEmpty", "boolean", 0);
+        FakeDatabase.FakeEntity printStream = db.entity("PrintStream", "java.io.PrintStream",
+            "Java Class Type Public Member Unknown", null);
+        FakeDatabase.FakeEntity println = method(db, file, printStream, "println", "void", 0);
+
+        db.call(baseDisplay, format, file, 33);
+        db.call(isValid, getName, file, 67);
+        db.call(isValid, getName, file, 67);
+        db.call(isValid, isEmpty, file, 67);
+        db.call(taskDisplay, baseDisplay, file, 72);
+        db.call(addTask, isValid, file, 85);
+        db.call(addTask, add, file, 86);
+        db.call(findById, getId, file, 92);
+        db.call(getByPriority, getPriority, file, 102);
+        db.call(getByPriority, add, file, 103);
+        db.call(completeTask, findById, file, 110);
+        db.call(completeTask, complete, file, 112);
+        db.call(printAll, taskDisplay, file, 118);
+        db.call(printAll, println, file, 118);
+        db.call(countCompleted, isCompleted, file, 125);
+        for (int line = 136; line <= 138; line++) {
+            db.call(main, addTask, file, line);
+        }
+        db.call(main, completeTask, file, 140);
+        db.call(main, printAll, file, 141);
+        db.call(main, countCompleted, file, 143);
+        db.call(main, println, file, 143);
+
+        FakeDatabase.FakeEntity tasks = db.entity("tasks", "sample.TaskManager.tasks", "Java Variable Private Member",
+            "List");
+        db.ref(tasks, "Java Definein", taskManager, file, 82, 42);
+        db.ref(tasks, "Java Useby", addTask, file, 86, 13);
+        db.ref(tasks, "Java Useby", findById, file, 91, 30);
+        db.ref(tasks, "Java Useby", getByPriority, file, 101, 30);
+        db.ref(tasks, "Java Useby", printAll, file, 117, 30);
+        db.ref(tasks, "Java Useby", countCompleted, file, 124, 30);
+
+        db.depend(generated, file,
+            db.ref(generated, "Java Use", task, generated, 5, 9),
+            db.ref(generated, "Java Call", addTask, generated, 7, 17));
+        return db;
+    }
+
+    private static FakeDatabase.FakeEntity type(FakeDatabase db, FakeDatabase.FakeEntity file, String name,
+            String kind, int line) {
+        FakeDatabase.FakeEntity type = db.entity(name, "sample." + name, kind, null);
+        db.ref(type, "Java Definein", file, file, line, 1);
+        return type;
+    }
+
+    private static FakeDatabase.FakeEntity method(FakeDatabase db, FakeDatabase.FakeEntity file,
+            FakeDatabase.FakeEntity owner, String name, String type, int line) {
+        FakeDatabase.FakeEntity method = db.entity(name, owner.longname + "." + name,
+            owner.kind.contains("Unknown") ? "Java Method Public Member Unknown" : "Java Method Public Member", type);
+        db.define(owner, method, file, line);
+        return method;
+    }
+
+    /**
+     * 乱数の種を固定した合成プロジェクト。同じ引数なら毎回同じ内容になる。
+     *
+     * 次のような、csv-all の出力に影響する形を含む。
+     * <ul>
+     *   <li>ネストクラス・匿名クラス・enum と、定義位置（definein）のないクラス</li>
+     *   <li>オーバーロード（同名のメソッド）と、同じメソッドを別の行で何度も呼ぶ呼び出し</li>
+     *   <li>プロジェクト外のメソッド（所属クラスが unknown）と、所属クラスのないメソッド</li>
+     *   <li>インターフェース（"class" に一致しない）のメソッドからの呼び出し</li>
+     * </ul>
+     * CsvWriter がエスケープする値（カンマ・引用符・null）は旧来の出力と表記が異なるため含めない。
+     */
+    static FakeDatabase generated(int classes, int methodsPerClass, int callsPerMethod, long seed) {
+        Random random = new Random(seed);
+        FakeDatabase db = new FakeDatabase("generated-" + seed);
+        List<FakeDatabase.FakeEntity> files = new ArrayList<>();
+        for (int f = 0; f < Math.max(1, classes / 3); f++) {
+            files.add(db.file("C:/work/src/p" + (f % 4) + "/F" + f + ".java"));
+        }
+
+        List<FakeDatabase.FakeEntity> methods = new ArrayList<>();
+        for (int c = 0; c < classes; c++) {
+            FakeDatabase.FakeEntity file = files.get(c % files.size());
+            String longname = c % 6 == 5 ? "p" + (c % 4) + ".C" + (c - 1) + ".Inner" + c : "p" + (c % 4) + ".C" + c;
+            String name = longname.substring(longname.lastIndexOf('.') + 1);
+            FakeDatabase.FakeEntity cls = db.entity(name, longname, CLASS_KINDS[c % CLASS_KINDS.length], null);
+            if (c % 11 != 10) {
+                db.ref(cls, "Java Definein", file, file, c + 1, 1);
+            }
+            for (int m = 0; m < methodsPerClass; m++) {
+                // m1 と m2 は同名（オーバーロード）
+                String methodName = m == 0 ? "get" : m == 2 ? "m1" : "m" + m;
+                FakeDatabase.FakeEntity method = db.entity(methodName, longname + "." + methodName,
+                    "Java Method Public Member", TYPES[(c + m) % TYPES.length]);
+                db.define(cls, method, file, c * 100 + m + 2);
+                methods.add(method);
+            }
+        }
+
+        FakeDatabase.FakeEntity list = db.entity("List", "java.util.List", "Java Interface Type Public Member Unknown", null);
+        FakeDatabase.FakeEntity add = db.entity("add", "java.util.List.add", "Java Abstract Method Public Member Unknown",
+            "boolean");
+        db.define(list, add, files.get(0), 0);
+        FakeDatabase.FakeEntity lambda = db.entity("apply", "lambda.apply", "Java Method Public Member Unresolved", "int");
+        FakeDatabase.FakeEntity printable = db.entity("Printable", "p0.Printable", "Java Interface Type Default Member",
+            null);
+        FakeDatabase.FakeEntity display = db.entity("display", "p0.Printable.display", "Java Method Default Member",
+            "String");
+        db.define(printable, display, files.get(0), 3);
+
+        List<FakeDatabase.FakeEntity> callers = new ArrayList<>(methods);
+        callers.add(display);
+        for (FakeDatabase.FakeEntity caller : callers) {
+            for (int k = 0; k < callsPerMethod; k++) {
+                int r = random.nextInt(20);
+                FakeDatabase.FakeEntity callee = r == 0 ? add : r == 1 ? lambda : r == 2 ? caller
+                    : methods.get(random.nextInt(methods.size()));
+                FakeDatabase.FakeEntity file = files.get(random.nextInt(files.size()));
+                int line = 1 + random.nextInt(1000);
+                db.call(caller, callee, file, line);
+                if (r == 3) {
+                    // 同じメソッドを別の行でもう一度呼ぶ（unique で先頭の1件だけになる）
+                    db.call(caller, callee, file, line + 1);
+                }
+            }
+        }
+        return db;
+    }
+}
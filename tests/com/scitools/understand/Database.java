@@ -0,0 +1,46 @@
+package com.scitools.understand;
+
+import java.util.*;
+
+/**
+ * テスト用の Understand API（Database）。
+ *
+ * Understand.jar の同名クラスと同じメソッドを持つが、本体は UnsupportedOperationException を
+ * 投げるだけで、テストではメモリ上のサブクラス（FakeDatabase）を使う。
+ */
+public class Database {
+
+    protected Database() {
+    }
+
+    public String name() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String[] language() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Entity[] ents(String kinds) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Entity lookup_uniquename(String uniquename) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String[] metrics() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Number metric(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Map<String, Number> metric(String[] names) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+    }
+}
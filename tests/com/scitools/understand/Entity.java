@@ -0,0 +1,60 @@
+package com.scitools.understand;
+
+import java.util.*;
+
+/**
+ * テスト用の Understand API（Entity）。本体はサブクラス（FakeDatabase.FakeEntity）で実装する。
+ */
+public class Entity {
+
+    protected Entity() {
+    }
+
+    public int id() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String name() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String longname() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String uniquename() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Kind kind() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String type() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String parameters() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Reference[] refs(String refkinds, String entkinds, boolean unique) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Reference[] filerefs(String refkinds, String entkinds, boolean unique) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Map<Entity, Reference[]> depends() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Map<Entity, Reference[]> dependsby() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Lexer lexer(boolean lookupEnts, boolean showInactive, boolean expandMacros) throws UnderstandException {
+        throw new UnsupportedOperationException();
+    }
+}
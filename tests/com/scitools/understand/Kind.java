@@ -0,0 +1,18 @@
+package com.scitools.understand;
+
+/**
+ * テスト用の Understand API（Kind）。本体はサブクラス（FakeDatabase.FakeKind）で実装する。
+ */
+public class Kind {
+
+    protected Kind() {
+    }
+
+    public String name() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean check(String kinds) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,54 @@
+package com.scitools.understand;
+
+/**
+ * テスト用の Understand API（Lexeme）。
+ */
+public class Lexeme {
+
+    protected Lexeme() {
+    }
+
+    public String text() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String token() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Lexeme next() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Lexeme previous() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Entity entity() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Reference reference() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int lineBegin() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int lineEnd() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int columnBegin() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int columnEnd() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean inactive() {
+        throw new UnsupportedOperationException();
+    }
+}
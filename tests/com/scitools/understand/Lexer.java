@@ -0,0 +1,26 @@
+package com.scitools.understand;
+
+/**
+ * テスト用の Understand API（Lexer）。
+ */
+public class Lexer {
+
+    protected Lexer() {
+    }
+
+    public Lexeme first() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Lexeme lexeme(int line, int column) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Lexeme[] lexemes(int startLine, int endLine) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int lines() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,34 @@
+package com.scitools.understand;
+
+/**
+ * テスト用の Understand API（Reference）。本体はサブクラス（FakeDatabase.FakeReference）で実装する。
+ */
+public class Reference {
+
+    protected Reference() {
+    }
+
+    public Entity ent() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Entity scope() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Entity file() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Kind kind() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int line() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int column() {
+        throw new UnsupportedOperationException();
+    }
+}
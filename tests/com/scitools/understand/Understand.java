@@ -0,0 +1,39 @@
+package com.scitools.understand;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * テスト用の Understand API（Understand）。
+ *
+ * {@link #open(String)} は UDB を開く代わりに、{@link #register(String, Database)} で
+ * パスに登録したデータベースを返す。
+ */
+public class Understand {
+
+    private static final Map<String, Database> databases = new ConcurrentHashMap<>();
+
+    private Understand() {
+    }
+
+    /** path で開くデータベースを登録する（テスト専用） */
+    public static void register(String path, Database db) {
+        databases.put(path, db);
+    }
+
+    /** 登録を取り消す（テスト専用） */
+    public static void unregister(String path) {
+        databases.remove(path);
+    }
+
+    public static Database open(String path) throws UnderstandException {
+        Database db = databases.get(path);
+        if (db == null) {
+            throw new UnderstandException("登録されていないデータベース: " + path);
+        }
+        return db;
+    }
+
+    public static void loadNativeLibrary() {
+    }
+}
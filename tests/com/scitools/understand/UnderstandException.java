@@ -0,0 +1,11 @@
+package com.scitools.understand;
+
+/**
+ * テスト用の Understand API（UnderstandException）。
+ */
+public class UnderstandException extends Exception {
+
+    public UnderstandException(String message) {
+        super(message);
+    }
+}